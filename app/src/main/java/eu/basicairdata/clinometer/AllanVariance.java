@@ -0,0 +1,127 @@
+package eu.basicairdata.clinometer;
+
+/**
+ * The Allan variance of a signal at octave-spaced averaging times (1, 2, 4, 8, ... samples),
+ * computed on the stream, in constant memory and in amortized O(1) for each sample.
+ *
+ * The levels are a cascade: the level k receives the averages of consecutive blocks of 2^k samples.
+ * For each new block it accumulates the squared difference from the previous block,
+ * and every two blocks it passes their average, as a block of 2^(k+1) samples, to the next level.
+ * The Allan variance of the level is half the mean of the squared differences
+ * (non-overlapping estimator):
+ *
+ *     AVAR(tau) = 1 / (2 (M - 1)) * sum (y[i+1] - y[i])^2,     tau = 2^k * sample period
+ *
+ * The memory does not depend on the length of the session: MAX_LEVELS levels cover
+ * up to 2^MAX_LEVELS samples (more than 100 days at 1 kHz).
+ * The samples are expected to be equally spaced; the class does not know the sample period,
+ * the averaging time of a level is getAveragingFactor(level) times the period.
+ *
+ * This class does not depend on Android.
+ */
+public class AllanVariance {
+
+    public static final int MAX_LEVELS = 34;
+
+    private final double[] pending = new double[MAX_LEVELS];        // The first block of the pair that is being averaged
+    private final boolean[] hasPending = new boolean[MAX_LEVELS];
+    private final double[] previous = new double[MAX_LEVELS];       // The last block of the level
+    private final boolean[] hasPrevious = new boolean[MAX_LEVELS];
+    private final double[] sumOfSquares = new double[MAX_LEVELS];   // The sum of the squared differences between consecutive blocks
+    private final long[] differences = new long[MAX_LEVELS];        // The number of differences accumulated
+
+    private double offset;          // The first sample; it is subtracted from all the samples to preserve the precision
+    private long samples = 0;
+    private int levels = 0;         // The levels that have received at least one block
+
+
+    public void loadSample(double sample) {
+        if (samples == 0) offset = sample;
+        samples++;
+        double block = sample - offset;
+        for (int level = 0; level < MAX_LEVELS; level++) {
+            if (level >= levels) levels = level + 1;
+            if (hasPrevious[level]) {
+                final double difference = block - previous[level];
+                sumOfSquares[level] += difference * difference;
+                differences[level]++;
+            }
+            previous[level] = block;
+            hasPrevious[level] = true;
+
+            if (!hasPending[level]) {
+                pending[level] = block;
+                hasPending[level] = true;
+                return;
+            }
+            // A pair of blocks is complete: its average goes to the next level
+            block = (pending[level] + block) / 2;
+            hasPending[level] = false;
+        }
+    }
+
+
+    public void reset() {
+        for (int level = 0; level < MAX_LEVELS; level++) {
+            hasPending[level] = false;
+            hasPrevious[level] = false;
+            sumOfSquares[level] = 0;
+            differences[level] = 0;
+        }
+        samples = 0;
+        levels = 0;
+    }
+
+
+    /**
+     * The number of samples loaded.
+     */
+    public long getSamples() {
+        return samples;
+    }
+
+
+    /**
+     * The number of levels with at least one difference, and so with an Allan variance.
+     */
+    public int getNumberOfLevels() {
+        int n = levels;
+        while ((n > 0) && (differences[n - 1] == 0)) n--;
+        return n;
+    }
+
+
+    /**
+     * The number of samples averaged into each block of the level (2^level).
+     * The averaging time tau of the level is this number times the sample period.
+     */
+    public long getAveragingFactor(int level) {
+        return 1L << level;
+    }
+
+
+    /**
+     * The number of differences of consecutive blocks accumulated by the level.
+     * The relative uncertainty of the Allan deviation of the level is about 1 / sqrt(2 * count).
+     */
+    public long getCount(int level) {
+        return differences[level];
+    }
+
+
+    /**
+     * The Allan variance of the level, or NaN if the level has no differences yet.
+     */
+    public double getAllanVariance(int level) {
+        if (differences[level] == 0) return Double.NaN;
+        return sumOfSquares[level] / (2 * differences[level]);
+    }
+
+
+    /**
+     * The Allan deviation (the square root of the Allan variance) of the level.
+     */
+    public double getAllanDeviation(int level) {
+        return Math.sqrt(getAllanVariance(level));
+    }
+}
@@ -0,0 +1,153 @@
+package eu.basicairdata.clinometer;
+
+import android.hardware.Sensor;
+
+import java.io.IOException;
+
+/**
+ * The Allan deviation of the 3 axes of the accelerometer and of the gyroscope,
+ * used to characterize the noise of the sensors (for example of a BWT901CL) and to choose the windows of the filters.
+ *
+ * The analyzer is a SensorDataListener: it can be registered on a SensorProvider (live),
+ * placed after a SensorResampler (equally spaced samples), or fed with a recorded session
+ * by load(SensorSessionReader), also on a desktop JVM.
+ * The memory is constant, also for sessions of many hours (see AllanVariance).
+ * The averaging times are computed with the mean interval of the samples received.
+ */
+public class AllanVarianceAnalyzer implements SensorDataListener {
+
+    private final Channel acceleration = new Channel();
+    private final Channel angularVelocity = new Channel();
+
+
+    /**
+     * Feeds all the samples of a recorded session into the analyzer.
+     * The reader is not closed.
+     */
+    public void load(SensorSessionReader reader) throws IOException {
+        final SensorData data = new SensorData();
+        while (reader.read(data)) onSensorChanged(data);
+    }
+
+
+    public void reset() {
+        acceleration.reset();
+        angularVelocity.reset();
+    }
+
+
+    /**
+     * The Allan variances of the given axis (0, 1 or 2) of the given sensor
+     * (Sensor.TYPE_ACCELEROMETER or Sensor.TYPE_GYROSCOPE).
+     */
+    public AllanVariance getAllanVariance(int sensorType, int axis) {
+        return getChannel(sensorType).axes[axis];
+    }
+
+
+    /**
+     * The number of levels with an Allan deviation for the given sensor.
+     */
+    public int getNumberOfLevels(int sensorType) {
+        return getChannel(sensorType).axes[0].getNumberOfLevels();
+    }
+
+
+    /**
+     * The mean interval between the samples of the given sensor, in s, or NaN if less than 2 samples have been received.
+     */
+    public double getSamplePeriod(int sensorType) {
+        return getChannel(sensorType).getSamplePeriod();
+    }
+
+
+    /**
+     * The averaging time of the given level, in s.
+     */
+    public double getTau(int sensorType, int level) {
+        final Channel channel = getChannel(sensorType);
+        return channel.axes[0].getAveragingFactor(level) * channel.getSamplePeriod();
+    }
+
+
+    /**
+     * The Allan deviation of the given axis of the given sensor at the given level,
+     * in the units of the sensor (m/s² or rad/s).
+     */
+    public double getAllanDeviation(int sensorType, int axis, int level) {
+        return getChannel(sensorType).axes[axis].getAllanDeviation(level);
+    }
+
+
+    private Channel getChannel(int sensorType) {
+        switch (sensorType) {
+            case Sensor.TYPE_ACCELEROMETER:
+                return acceleration;
+            case Sensor.TYPE_GYROSCOPE:
+                return angularVelocity;
+            default:
+                throw new IllegalArgumentException("Unsupported sensor type " + sensorType);
+        }
+    }
+
+
+    @Override
+    public void onSensorChanged(SensorData data) {
+        switch (data.sensorType) {
+            case Sensor.TYPE_ACCELEROMETER:
+                acceleration.load(data.timestamp, data.x, data.y, data.z);
+                break;
+            case Sensor.TYPE_GYROSCOPE:
+                angularVelocity.load(data.timestamp, data.x, data.y, data.z);
+                break;
+        }
+    }
+
+
+    @Override
+    public void onSensorBatch(int[] sensorTypes, long[] timestamps, float[] values, int count) {
+        for (int i = 0; i < count; i++) {
+            switch (sensorTypes[i]) {
+                case Sensor.TYPE_ACCELEROMETER:
+                    acceleration.load(timestamps[i], values[i * 3], values[i * 3 + 1], values[i * 3 + 2]);
+                    break;
+                case Sensor.TYPE_GYROSCOPE:
+                    angularVelocity.load(timestamps[i], values[i * 3], values[i * 3 + 1], values[i * 3 + 2]);
+                    break;
+            }
+        }
+    }
+
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    }
+
+
+    /**
+     * The Allan variances of the 3 axes of a sensor, with the timestamps of its first and last samples.
+     */
+    private static class Channel {
+        final AllanVariance[] axes = { new AllanVariance(), new AllanVariance(), new AllanVariance() };
+        long firstTimestamp;
+        long lastTimestamp;
+
+        void load(long timestamp, float x, float y, float z) {
+            if (axes[0].getSamples() == 0) firstTimestamp = timestamp;
+            lastTimestamp = timestamp;
+            axes[0].loadSample(x);
+            axes[1].loadSample(y);
+            axes[2].loadSample(z);
+        }
+
+        double getSamplePeriod() {
+            final long samples = axes[0].getSamples();
+            if (samples < 2) return Double.NaN;
+            return (lastTimestamp - firstTimestamp) / 1E9d / (samples - 1);
+        }
+
+        void reset() {
+            for (AllanVariance axis : axes) axis.reset();
+        }
+    }
+}
@@ -58,7 +58,7 @@ import static eu.basicairdata.clinometer.ClinometerApplication.KEY_PREF_CALIBRAT
 import static eu.basicairdata.clinometer.ClinometerApplication.KEY_PREF_KEEP_SCREEN_ON;
 
 
-public class CalibrationActivity extends AppCompatActivity implements SensorEventListener {
+public class CalibrationActivity extends AppCompatActivity implements SensorEventListener, StationarityDetector.Listener {
 
     private Vibrator vibrator;
 
@@ -67,9 +67,9 @@ public class CalibrationActivity extends AppCompatActivity implements SensorEven
     private final static int SIZE_OF_MEANVARIANCE = 300;                    // 4 seconds
 
 
-    MeanVariance mvGravity0 = new MeanVariance(SIZE_OF_MEANVARIANCE);
-    MeanVariance mvGravity1 = new MeanVariance(SIZE_OF_MEANVARIANCE);
-    MeanVariance mvGravity2 = new MeanVariance(SIZE_OF_MEANVARIANCE);
+    // The step ends when the window is full; a sample too far from the mean (the device moved) restarts the window
+    StationarityDetector stationarity = new StationarityDetector(SIZE_OF_MEANVARIANCE);
+    MeanVariance3 mvGravity = stationarity.getMeanVariance();
 
     private final float[][] mean = new float[3][7];              // The Mean values of vectors
 
@@ -123,6 +123,8 @@ public class CalibrationActivity extends AppCompatActivity implements SensorEven
         //setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_NOSENSOR);
         setContentView(R.layout.activity_calibration);
 
+        stationarity.setListener(this);
+
         buttonNext = findViewById(R.id.id_button_next);
         progressBar = findViewById(R.id.id_progressBar);
         textViewStepDescription = findViewById(R.id.id_textview_step_description);
@@ -300,9 +302,8 @@ public class CalibrationActivity extends AppCompatActivity implements SensorEven
                 buttonNext.setVisibility(View.INVISIBLE);
                 textViewProgress.setVisibility(View.VISIBLE);
                 textViewStepDescription.setText(R.string.calibration_calibrating);
-                mvGravity0.reset();
-                mvGravity1.reset();
-                mvGravity2.reset();
+                stationarity.reset();
+                stationarity.setMaxDeviation(MIN_CALIBRATION_PRECISION + calibrationPrecisionIncrement);
                 samplesDiscarded = 0;
                 mSensorManager.registerListener(this, mRotationSensor, ACCELEROMETER_UPDATE_INTERVAL_MICROS);
                 break;
@@ -362,13 +363,12 @@ public class CalibrationActivity extends AppCompatActivity implements SensorEven
                 float[][] angle = new float[3][7];
 
                 Log.d("Clinometer","-- ANGLES ------------------------------------------------------------------");
+                TiltSolver tiltSolver = new TiltSolver();
                 for (int i = 0; i < 7; i++) {
-                    angle[0][i] = (float) (Math.toDegrees(Math.asin(mean[0][i]
-                            / Math.sqrt(mean[0][i] * mean[0][i] + mean[1][i] * mean[1][i] + mean[2][i] * mean[2][i]))));
-                    angle[1][i] = (float) (Math.toDegrees(Math.asin(mean[1][i]
-                            / Math.sqrt(mean[0][i] * mean[0][i] + mean[1][i] * mean[1][i] + mean[2][i] * mean[2][i]))));
-                    angle[2][i] = (float) (Math.toDegrees(Math.asin(mean[2][i]
-                            / Math.sqrt(mean[0][i] * mean[0][i] + mean[1][i] * mean[1][i] + mean[2][i] * mean[2][i]))));
+                    tiltSolver.solve(mean[0][i], mean[1][i], mean[2][i]);
+                    angle[0][i] = tiltSolver.getAngle(0);
+                    angle[1][i] = tiltSolver.getAngle(1);
+                    angle[2][i] = tiltSolver.getAngle(2);
                     Log.d("Clinometer", String.format("angle[ ][" + i + "] =  %+1.4f°  %+1.4f°  %+1.4f°", angle[0][i], angle[1][i], angle[2][i]));
                 }
 
@@ -433,60 +433,53 @@ public class CalibrationActivity extends AppCompatActivity implements SensorEven
                 // Calibration
                 //Log.d("CalibrationActivity", "CALIBRATION");
 
-                mvGravity0.loadSample(event.values[0]);
-                mvGravity1.loadSample(event.values[1]);
-                mvGravity2.loadSample(event.values[2]);
+                stationarity.loadSample(event.timestamp, event.values[0], event.values[1], event.values[2]);
+                if ((currentStep / 2) * 2 == currentStep) return;      // The step has been completed
 
                 textViewProgress.setText(String.format("%s %1.0f%%   %s %1.3f",
                         getString(R.string.calibration_progress),
-                        mvGravity0.percentLoaded(),
+                        mvGravity.percentLoaded(),
                         getString(R.string.calibration_tolerance),
-                        mvGravity0.getTolerance()));
-                int progress1 = (int) (10 * mvGravity0.percentLoaded());
-                int progress2 = (int) (Math.min(1000, Math.max(0, 1000 - 1000 *(mvGravity0.getTolerance() / (MIN_CALIBRATION_PRECISION + calibrationPrecisionIncrement)))));
+                        mvGravity.getTolerance(0)));
+                int progress1 = (int) (10 * mvGravity.percentLoaded());
+                int progress2 = (int) (Math.min(1000, Math.max(0, 1000 - 1000 *(mvGravity.getTolerance(0) / (MIN_CALIBRATION_PRECISION + calibrationPrecisionIncrement)))));
                 progressBar.setSecondaryProgress(Math.max(progress1, progress2));
                 progressBar.setProgress(Math.min(progress1, progress2));
+            }
+        }
+    }
 
 
-                // DEVICE MOVED
-
-                //Log.d("Clinometer",String.format("[#] Mean value = %+1.5f    Reading = %+1.5f    Difference = %+1.5f", mvGravity0.getMeanValue(), event.values[0], mvGravity0.getMeanValue() - event.values[0]));
-
-                //if (mvGravity0.isReady() && (mvGravity0.getTolerance() > MIN_CALIBRATION_PRECISION)) {
-                if (mvGravity0.isReady() && (
-                        (Math.abs(mvGravity0.getMeanValue() - event.values[0]) > (MIN_CALIBRATION_PRECISION + calibrationPrecisionIncrement)) ||
-                        (Math.abs(mvGravity1.getMeanValue() - event.values[1]) > (MIN_CALIBRATION_PRECISION + calibrationPrecisionIncrement)) ||
-                        (Math.abs(mvGravity2.getMeanValue() - event.values[2]) > (MIN_CALIBRATION_PRECISION + calibrationPrecisionIncrement)))
-                ) {
-                    mvGravity0.reset();
-                    mvGravity1.reset();
-                    mvGravity2.reset();
-                    if (calibrationPrecisionIncrement < 0.15f) calibrationPrecisionIncrement += 0.01f;
-                    //Log.d("Clinometer",String.format("[#] Mean value = %+1.5f    Reading = %+1.5f    Difference = %+1.5f", mvGravity0.getMeanValue(), event.values[0], mvGravity0.getMeanValue() - event.values[0]));
-                    Log.d("Clinometer",String.format("[#] New calibration precision = %+1.5f", MIN_CALIBRATION_PRECISION + calibrationPrecisionIncrement));
-
-                }
+    /**
+     * DEVICE MOVED: the window has been restarted; the precision required is slightly relaxed.
+     */
+    @Override
+    public void onMoving(long timestamp) {
+        if (calibrationPrecisionIncrement < 0.15f) calibrationPrecisionIncrement += 0.01f;
+        stationarity.setMaxDeviation(MIN_CALIBRATION_PRECISION + calibrationPrecisionIncrement);
+        Log.d("Clinometer",String.format("[#] New calibration precision = %+1.5f", MIN_CALIBRATION_PRECISION + calibrationPrecisionIncrement));
+    }
 
-                // END OF CALIBRATION STEP
 
-                if (mvGravity0.percentLoaded() == 100) {
-                    mSensorManager.unregisterListener(this);
+    /**
+     * END OF CALIBRATION STEP: the window is full, and the device has not moved.
+     */
+    @Override
+    public void onStationary(long timestamp) {
+        mSensorManager.unregisterListener(this);
 
-                    int i = (int) (currentStep / 2);
+        int i = (int) (currentStep / 2);
 
-                    mean[0][i] = mvGravity0.getMeanValue(SIZE_OF_MEANVARIANCE-100);
-                    mean[1][i] = mvGravity1.getMeanValue(SIZE_OF_MEANVARIANCE-100);
-                    mean[2][i] = mvGravity2.getMeanValue(SIZE_OF_MEANVARIANCE-100);
+        mean[0][i] = mvGravity.getMeanValue(0, SIZE_OF_MEANVARIANCE-100);
+        mean[1][i] = mvGravity.getMeanValue(1, SIZE_OF_MEANVARIANCE-100);
+        mean[2][i] = mvGravity.getMeanValue(2, SIZE_OF_MEANVARIANCE-100);
 
-                    beep();
+        beep();
 
-                    calibrationPrecisionIncrement = 0;
+        calibrationPrecisionIncrement = 0;
 
-                    currentStep++;
-                    startStep();
-                }
-            }
-        }
+        currentStep++;
+        startStep();
     }
 
 
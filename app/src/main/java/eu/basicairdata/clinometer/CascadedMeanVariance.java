@@ -0,0 +1,159 @@
+package eu.basicairdata.clinometer;
+
+/**
+ * The statistics of a signal over several time scales (by default 100 ms, 1 s, 10 s and 60 s),
+ * in constant memory and in O(1) for each sample.
+ *
+ * Each level is a sliding window of blocks, where a block is a complete window of the level below:
+ * the first level contains the samples, the 1 s level contains the last 10 blocks of 100 ms,
+ * the 10 s level the last 10 blocks of 1 s, and so on. Every time a level receives as many new blocks
+ * as its size, it passes its mean and its variance, as a new block, to the next level.
+ * The levels are built on two MeanVariances: the means of the blocks and the variances inside the blocks;
+ * since the blocks of a level have the same number of samples, the variance of the level is
+ * the mean of the variances of its blocks plus the variance of their means.
+ */
+public class CascadedMeanVariance {
+
+    public static final float[] DEFAULT_DURATIONS = { 0.1f, 1, 10, 60 };      // The durations of the levels, in s
+
+    private final float[] durations;
+    private final Level[] levels;
+
+
+    /**
+     * Creates the statistics with the default levels: 100 ms, 1 s, 10 s and 60 s.
+     *
+     * @param rate The rate of the samples, in Hz
+     */
+    public CascadedMeanVariance(float rate) {
+        this(rate, DEFAULT_DURATIONS);
+    }
+
+
+    /**
+     * @param rate The rate of the samples, in Hz
+     * @param durations The durations of the levels, in s, increasing.
+     *                  Each one should be a multiple of the previous one (and the first one of the sample period)
+     */
+    public CascadedMeanVariance(float rate, float[] durations) {
+        if ((rate <= 0) || (durations.length == 0)) throw new IllegalArgumentException("Wrong rate or levels");
+        this.durations = durations.clone();
+        levels = new Level[durations.length];
+        float blockDuration = 1 / rate;
+        for (int i = 0; i < durations.length; i++) {
+            final int size = Math.round(durations[i] / blockDuration);
+            if (size < 1) throw new IllegalArgumentException("The level of " + durations[i] + " s is shorter than the previous one");
+            levels[i] = new Level(size);
+            blockDuration = durations[i];
+        }
+    }
+
+
+    public void loadSample(float sample) {
+        float mean = sample;
+        float variance = 0;
+        for (Level level : levels) {
+            if (!level.load(mean, variance)) return;
+            // A new block is complete: it goes to the next level
+            mean = level.getMeanValue();
+            variance = level.getVariance();
+        }
+    }
+
+
+    public void reset() {
+        for (Level level : levels) level.reset();
+    }
+
+
+    public int getNumberOfLevels() {
+        return levels.length;
+    }
+
+
+    /**
+     * The duration of a level, in s.
+     */
+    public float getDuration(int level) {
+        return durations[level];
+    }
+
+
+    /**
+     * True if the window of the level is full (the level covers all its duration).
+     */
+    public boolean getLoaded(int level) {
+        return levels[level].means.getLoaded();
+    }
+
+
+    public float getMeanValue(int level) {
+        return levels[level].getMeanValue();
+    }
+
+
+    /**
+     * The variance of the samples of the level (population variance).
+     */
+    public float getVariance(int level) {
+        return levels[level].getVariance();
+    }
+
+
+    public float getStdDeviation(int level) {
+        return (float) Math.sqrt(getVariance(level));
+    }
+
+
+    /**
+     * The tolerance (confidence 95%) of the samples of the level, 1.96 times the standard deviation
+     * (as MeanVariance.getTolerance()).
+     */
+    public float getTolerance(int level) {
+        return (float) (1.96d * getStdDeviation(level));
+    }
+
+
+    /**
+     * A level: the means and the variances of its last blocks.
+     */
+    private static class Level {
+        final MeanVariance means;
+        final MeanVariance variances;
+        final int size;
+        int newBlocks = 0;              // The blocks loaded since the last block passed to the next level
+
+        Level(int size) {
+            this.size = size;
+            means = new MeanVariance(size);
+            variances = new MeanVariance(size);
+        }
+
+        /**
+         * Loads a block.
+         * @return true if the level has received as many new blocks as its size, and is full
+         */
+        boolean load(float mean, float variance) {
+            means.loadSample(mean);
+            variances.loadSample(variance);
+            newBlocks++;
+            if ((newBlocks < size) || !means.getLoaded()) return false;
+            newBlocks = 0;
+            return true;
+        }
+
+        float getMeanValue() {
+            return means.getMeanValue();
+        }
+
+        float getVariance() {
+            return variances.getMeanValue() + means.getVariance();
+        }
+
+        void reset() {
+            means.reset();
+            variances.reset();
+            newBlocks = 0;
+        }
+    }
+}
@@ -64,6 +64,7 @@ import android.widget.LinearLayout;
 import android.widget.TextView;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 
 import static eu.basicairdata.clinometer.ClinometerApplication.CAMERA_REQUEST_CODE;
@@ -80,13 +81,18 @@ import static eu.basicairdata.clinometer.ClinometerApplication.KEY_PREF_CALIBRAT
 import static eu.basicairdata.clinometer.ClinometerApplication.KEY_PREF_CALIBRATION_OFFSET_1;
 import static eu.basicairdata.clinometer.ClinometerApplication.KEY_PREF_CALIBRATION_OFFSET_2;
 import static eu.basicairdata.clinometer.ClinometerApplication.KEY_PREF_CAMERA_EXPOSURE_COMPENSATION;
+import static eu.basicairdata.clinometer.ClinometerApplication.KEY_PREF_DEVICE_ANGLES;
+import static eu.basicairdata.clinometer.ClinometerApplication.KEY_PREF_FILTER;
+import static eu.basicairdata.clinometer.ClinometerApplication.KEY_PREF_GRAVITY_ESTIMATOR;
 import static eu.basicairdata.clinometer.ClinometerApplication.KEY_PREF_KEEP_SCREEN_ON;
+import static eu.basicairdata.clinometer.ClinometerApplication.KEY_PREF_RECORD_SESSION;
+import static eu.basicairdata.clinometer.ClinometerApplication.KEY_PREF_SENSOR_SOURCE;
 import static eu.basicairdata.clinometer.ClinometerApplication.KEY_PREF_UNIT_OF_MEASUREMENT;
+import static eu.basicairdata.clinometer.ClinometerApplication.KEY_PREF_VIBRATION;
 
 
-public class ClinometerActivity extends AppCompatActivity implements SensorDataListener {
+public class ClinometerActivity extends AppCompatActivity implements TiltProcessor.Listener, VibrationAnalyzer.Listener {
 
-    private static WITActivity witMotionSensor;
     private static boolean ALLOW_UPSIDE_DOWN = false;
 
     // Singleton instance
@@ -110,14 +116,7 @@ public class ClinometerActivity extends AppCompatActivity implements SensorDataL
 
     private static final float AUTOLOCK_MIN_TOLERANCE = 0.05f;          // The minimum tolerance of the AutoLock
     private static final float AUTOLOCK_MAX_TOLERANCE = 0.5f;           // The maximum tolerance of the AutoLock
-    private static final float AUTOLOCK_HORIZON_CHECK_THRESHOLD = 5.0f; // The zone of horizon check (+- 5 degrees)
     private static final float ROTATION_THRESHOLD = 5;                  // The threshold of the boundaries for DisplayRotation (in degrees)
-    private static final int   SIZE_OF_MEANVARIANCE = 200;              // 2 seconds
-
-    private static final float ALPHA = 0.03f;                          // Weight of the new sensor reading
-    private float alpha0 = ALPHA;
-    private float alpha1 = ALPHA;
-    private float alpha2 = ALPHA;
 
     private ClinometerApplication clinometerApplication;
     private SharedPreferences preferences;
@@ -130,9 +129,7 @@ public class ClinometerActivity extends AppCompatActivity implements SensorDataL
     private boolean isSettingsClicked = false;           // True when the Three-dots button has been clicked
 
     private boolean isFlat = true;                       // True if the device is oriented flat (for example on a table)
-    private boolean isLocked = false;                    // True if the angles are locked by user
     private boolean isDeltaAngle = false;                // True if the delta angles is selected
-    private boolean isLockRequested = false;
     private float displayRotation = 0;                   // The rotation angle from the natural position of the device
 
     private boolean isInCameraMode = false;              // True if Camera Mode is active
@@ -152,6 +149,7 @@ public class ClinometerActivity extends AppCompatActivity implements SensorDataL
 
     private ClinometerView mClinometerView;
     private TextView mTextViewAngles;
+    private TextView mTextViewVibration;
     private TextView mTextViewToast;
     private TextView mTextViewKeepScreenVertical;
     private FrameLayout mFrameLayoutClinometer;
@@ -168,35 +166,35 @@ public class ClinometerActivity extends AppCompatActivity implements SensorDataL
     private FrameLayout mFrameLayoutPreview;
     private BackgroundView mBackgroundView;
 
-    private MockSensorProvider mSensorManager;
+    private SensorProvider mSensorManager;
     //private SensorManager mSensorManager;
+    private SensorResampler mSensorResampler;           // Aligns the samples on a grid of ACCELEROMETER_UPDATE_INTERVAL_MICROS
+    private VibrationAnalyzer mVibrationAnalyzer;       // Analyzes the raw samples, in front of the resampler
+    private TiltProcessor tiltProcessor;                // Processes the samples on the SensorProcessingThread
+    private TiltSnapshot tiltSnapshot = TiltSnapshot.EMPTY; // The snapshot shown by the Views
 
     private Sensor mRotationSensor;
 
-    private final float[] gravity              = {0, 0, 0};    // The (filtered) current accelerometers values
     private final float[] gravity_gain         = {0, 0, 0};
     private final float[] gravity_offset       = {0, 0, 0};
-    private final float[] gravity_calibrated   = {0, 0, 0};    // The (filtered) current calibrated accelerometers values
 
     private final float[] angle_calibration    = {0, 0, 0};    // The angles for calibration: alpha, beta, gamma (in degrees)
     private final float[] angle                = {0, 0, 0};    // The (filtered) current angles (in degrees)
 
-    private final float[][] calibrationMatrix = new float[3][3];
-
-    private float gravityXY = 0;
-    private float gravityXYZ = 0;
     private float angleXY = 0;                          // The angle on the horizontal plane (in degrees)
     private float angleXYZ = 0;                         // The angle between XY vector and the vertical (in degrees)
     private float angleTextLabels = 0;                  // The rotation angle for the text labels
 
     private final static int ACCELEROMETER_UPDATE_INTERVAL_MICROS = 10000;
 
-    private final MeanVariance mvAngle0 = new MeanVariance(SIZE_OF_MEANVARIANCE);
-    private final MeanVariance mvAngle1 = new MeanVariance(SIZE_OF_MEANVARIANCE);
-    private final MeanVariance mvAngle2 = new MeanVariance(SIZE_OF_MEANVARIANCE);
-    private final MeanVariance mvGravity0 = new MeanVariance(16);
-    private final MeanVariance mvGravity1 = new MeanVariance(16);
-    private final MeanVariance mvGravity2 = new MeanVariance(16);
+    public final static int SENSOR_SOURCE_WIT           = 0;    // The samples of the WIT sensor
+    public final static int SENSOR_SOURCE_REPLAY        = 1;    // The replay of the last session recorded
+    public final static int SENSOR_SOURCE_SYNTHETIC     = 2;    // A scripted trajectory, with noise (SyntheticSensorGenerator)
+    private final static String SESSIONS_DIRECTORY      = "sessions";
+    private final static String SESSION_EXTENSION       = ".session";
+
+    private int sensorSource = SENSOR_SOURCE_WIT;       // The source of the current sensor chain
+    private SensorSessionWriter sessionWriter;          // Records the session, when enabled (debug builds only)
 
     private float refAngleXY = 0;                       // The reference angle on the plane
     private float refAngleXYZ = 0;                      // The reference angle between the screen plane and the horizontal plane
@@ -254,16 +252,8 @@ public class ClinometerActivity extends AppCompatActivity implements SensorDataL
         return isInCameraMode;
     }
 
-    public float[] getAngles() {
-        return angle;
-    }
-
-    public float getAngleXY() {
-        return angleXY;
-    }
-
-    public float getAngleXYZ() {
-        return angleXYZ;
+    public TiltSnapshot getTiltSnapshot() {
+        return tiltSnapshot;
     }
 
     public float getAngleTextLabels() {
@@ -300,20 +290,20 @@ public class ClinometerActivity extends AppCompatActivity implements SensorDataL
         Intent intent = new Intent(getBaseContext(), WITActivity.class);
         startActivity(intent);
 
-        witMotionSensor = WITActivity.getInstance();
-
         singleton = this;
 
         clinometerApplication = ClinometerApplication.getInstance();
         preferences = PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
 
-        mSensorManager = new MockSensorProvider(this, witMotionSensor);
         //mSensorManager = (SensorManager)getSystemService(SENSOR_SERVICE);
+        tiltProcessor = new TiltProcessor(this);
+        createSensorChain(new WITSensorProvider(this));
 
         setContentView(R.layout.activity_clinometer);
 
         mClinometerView = findViewById(R.id.id_clinometerview);
         mTextViewAngles = findViewById(R.id.id_textview_angles);
+        mTextViewVibration = findViewById(R.id.id_textview_vibration);
         mTextViewToast = findViewById(R.id.id_textview_toast);
         mTextViewKeepScreenVertical = findViewById(R.id.id_textview_keep_screen_vertical);
         mImageViewLock = findViewById(R.id.id_imageview_lock);
@@ -337,16 +327,6 @@ public class ClinometerActivity extends AppCompatActivity implements SensorDataL
         mImageViewCamera.setAlpha(0.4f);
         mLinearLayoutToolbar.setBackground(null);
 
-//        for (int i = 0; i < SIZE_OF_MEANVARIANCE; i++) {
-//            MVGravity0.LoadSample(0.0f);
-//            MVGravity1.LoadSample(0.0f);
-//            MVGravity2.LoadSample(9.81f);
-//        }
-
-        mvGravity0.reset(0.0f);
-        mvGravity1.reset(0.0f);
-        mvGravity2.reset(9.80f);
-
         // ---------- Check sensors
 
         //Log.d("Clinometer", "- ROTATION_VECTOR Sensors = " + mSensorManager.getSensorList(Sensor.TYPE_ROTATION_VECTOR).size());
@@ -487,7 +467,23 @@ public class ClinometerActivity extends AppCompatActivity implements SensorDataL
     @Override
     protected void onPause() {
         super.onPause();
-        mSensorManager.register(this, Sensor.TYPE_ACCELEROMETER,ACCELEROMETER_UPDATE_INTERVAL_MICROS);
+        mSensorManager.unregister();
+        if (sessionWriter != null) {
+            // The writer is used on the processing thread: it is closed there, after the samples already queued
+            final SensorSessionWriter writer = sessionWriter;
+            sessionWriter = null;
+            new Handler(SensorProcessingThread.getProcessingLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        writer.close();
+                        Log.d("Clinometer", "Session recorded: " + writer.getSamples() + " samples, " + writer.getLateSamples() + " late");
+                    } catch (IOException e) {
+                        Log.w("Clinometer", "Unable to close the session: " + e.getMessage());
+                    }
+                }
+            });
+        }
         if (isInCameraMode) releaseCamera(true);
         stopCamera();
     }
@@ -498,6 +494,7 @@ public class ClinometerActivity extends AppCompatActivity implements SensorDataL
         super.onResume();
         //getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
 
+        selectSensorSource();
         loadPreferences();
 
         formattedAngle0 = dataFormatter.format(angle[0]);
@@ -522,12 +519,17 @@ public class ClinometerActivity extends AppCompatActivity implements SensorDataL
                 WindowManager.LayoutParams.FLAG_FULLSCREEN);
 
         isSettingsClicked = false;
-        isLockRequested = false;
+        tiltProcessor.setLockRequested(false);
         updateLockIcon();
-        mSensorManager.register( this, mRotationSensor.getType(), ACCELEROMETER_UPDATE_INTERVAL_MICROS);
+        new Handler(SensorProcessingThread.getProcessingLooper()).post(mSensorResampler::reset);    // The resampler runs on the processing thread
+        if (BuildConfig.DEBUG && (sensorSource != SENSOR_SOURCE_REPLAY) && preferences.getBoolean(KEY_PREF_RECORD_SESSION, false)) {
+            sessionWriter = createSessionWriter(mVibrationAnalyzer);
+        }
+        mSensorManager.register(sessionWriter != null ? sessionWriter : mVibrationAnalyzer,
+                mRotationSensor.getType(), ACCELEROMETER_UPDATE_INTERVAL_MICROS);
         //mSensorManager.registerListener(this, mRotationSensor, ACCELEROMETER_UPDATE_INTERVAL_MICROS);
 
-        if (isInCameraMode && !isLocked){
+        if (isInCameraMode && !tiltProcessor.isLocked()){
             cameraPreviewBitmap = null;
             mImageViewCameraImage.setImageBitmap(null);
             activateCamera();
@@ -546,6 +548,8 @@ public class ClinometerActivity extends AppCompatActivity implements SensorDataL
     protected void onDestroy() {
         super.onDestroy();
         if (mHandler != null) { mHandler.removeCallbacks(mRunnable); }
+        tiltProcessor.setListener(null);
+        mVibrationAnalyzer.setListener(null);
     }
 
 
@@ -561,238 +565,165 @@ public class ClinometerActivity extends AppCompatActivity implements SensorDataL
     }
 
 
-    public void onSensorChanged(SensorData event) {
-
-        if (event.sensorType == Sensor.TYPE_ACCELEROMETER) {
-
-            // LOCKING
-
-            if (isLockRequested) {
-                if (!prefAutoLock) {
-                    isLockRequested = false;
-                    isLocked = true;
-                    mClinometerView.invalidate();
-                    updateLockIcon();
-                    beep();
-                    if (isInCameraMode) releaseCamera(true);
-                } else if ((mvAngle0.getTolerance() < prefAutoLockTolerance)
-                        && (mvAngle1.getTolerance() < prefAutoLockTolerance)
-                        && (mvAngle2.getTolerance() < prefAutoLockTolerance)
-                        && mvAngle0.getLoaded()
-                        && mvAngle1.getLoaded()
-                        && mvAngle2.getLoaded()
-                        && ((!prefAutoLockHorizonCheck)
-                                || (Math.abs(angle[2]) >= AUTOLOCK_HORIZON_CHECK_THRESHOLD)
-                                || (prefAutoLockHorizonCheck && (Math.abs(angle[2]) < AUTOLOCK_HORIZON_CHECK_THRESHOLD) && (Math.abs(mvAngle2.getMeanValue()) < prefAutoLockTolerance)))) {
-
-                    angle[0] = (float) (180 / Math.PI * Math.asin((mvGravity0.getMeanValue() / Math.max(gravityXYZ, 0.00001f))));
-                    angle[1] = (float) (180 / Math.PI * Math.asin((mvGravity1.getMeanValue() / Math.max(gravityXYZ, 0.00001f))));
-                    angle[2] = (float) (180 / Math.PI * Math.asin((mvGravity2.getMeanValue() / Math.max(gravityXYZ, 0.00001f))));
-
-                    angleXY = 0;
-                    if (gravityXY > 0) {
-                        if (mvGravity0.getMeanValue() >= 0) {
-                            if (mvGravity1.getMeanValue() < 0)
-                                angleXY = (float) Math.toDegrees(-Math.asin(mvGravity1.getMeanValue() / gravityXY));
-                            else
-                                angleXY = (float) Math.toDegrees(2 * Math.PI - Math.asin(mvGravity1.getMeanValue() / gravityXY));
-                        } else
-                            angleXY = (float) Math.toDegrees(Math.PI + Math.asin(mvGravity1.getMeanValue() / gravityXY));
-                    }
-
-                    angleXYZ = 0;
-                    if (gravityXY > 0) {
-                        angleXYZ = (float) Math.toDegrees(Math.acos(mvGravity2.getMeanValue() / gravityXYZ));
-                    }
-
-                    Log.d("SpiritLevel", "------------------------------------------------------------------");
-                    Log.d("SpiritLevel", String.format("Auto Locking Tolerance = %1.4f", prefAutoLockTolerance));
-                    Log.d("SpiritLevel", (String.format("Measurement locked - Angle0: Mean=%+1.4f Uncertainty=%+1.4f", mvAngle0.getMeanValue(), mvAngle0.getTolerance())));
-                    Log.d("SpiritLevel", (String.format("Measurement locked - Angle1: Mean=%+1.4f Uncertainty=%+1.4f", mvAngle1.getMeanValue(), mvAngle1.getTolerance())));
-                    Log.d("SpiritLevel", (String.format("Measurement locked - Angle2: Mean=%+1.4f Uncertainty=%+1.4f", mvAngle2.getMeanValue(), mvAngle2.getTolerance())));
-                    Log.d("SpiritLevel", "------------------------------------------------------------------");
-
-                    isLockRequested = false;
-                    isLocked = true;
-                    mClinometerView.invalidate();
-                    updateLockIcon();
-                    beep();
-                    if (isInCameraMode) releaseCamera(true);
-
-                    mvAngle0.reset();
-                    mvAngle1.reset();
-                    mvAngle2.reset();
-                }
-            }
-
-            // SIGNAL PROCESSING
-
-            if (!isLocked) {
-                alpha0 = ALPHA * (float)(1 + Math.abs(mvGravity0.getMeanValue() - event.x)*0.1);
-                alpha1 = ALPHA * (float)(1 + Math.abs(mvGravity1.getMeanValue() - event.y)*0.1);
-                alpha2 = ALPHA * (float)(1 + Math.abs(mvGravity2.getMeanValue() - event.z)*0.1);
-
-                // Weighted gravity reads
-
-                if ((gravity[0] == 0) && (gravity[1] == 0) && (gravity[2] == 0)) {
-                    gravity[0] = (event.x - gravity_offset[0]) / gravity_gain[0];   // X
-                    gravity[1] = (event.y - gravity_offset[1]) / gravity_gain[1];   // Y
-                    gravity[2] = (event.z - gravity_offset[2]) / gravity_gain[2];   // Z
-                } else {
-                    gravity[0] = (1 - alpha0) * gravity[0] + (alpha0) * (event.x - gravity_offset[0]) / gravity_gain[0];
-                    gravity[1] = (1 - alpha1) * gravity[1] + (alpha1) * (event.y - gravity_offset[1]) / gravity_gain[1];
-                    gravity[2] = (1 - alpha2) * gravity[2] + (alpha2) * (event.z - gravity_offset[2]) / gravity_gain[2];
-                }
-
-                // Apply Calibration values
-
-                gravity_calibrated[0] = gravity[0] * calibrationMatrix[0][0] + gravity[1] * calibrationMatrix[0][1] + gravity[2] * calibrationMatrix[0][2];
-                gravity_calibrated[1] = gravity[0] * calibrationMatrix[1][0] + gravity[1] * calibrationMatrix[1][1] + gravity[2] * calibrationMatrix[1][2];
-                gravity_calibrated[2] = gravity[0] * calibrationMatrix[2][0] + gravity[1] * calibrationMatrix[2][1] + gravity[2] * calibrationMatrix[2][2];
-
-                mvGravity0.loadSample(gravity_calibrated[0]);
-                mvGravity1.loadSample(gravity_calibrated[1]);
-                mvGravity2.loadSample(gravity_calibrated[2]);
-
-                gravityXY = (float) Math.sqrt(mvGravity0.getMeanValue() * mvGravity0.getMeanValue() + mvGravity1.getMeanValue() * mvGravity1.getMeanValue());   // Vector over the screen plane
-                gravityXYZ = (float) Math.sqrt(gravityXY * gravityXY + mvGravity2.getMeanValue() * mvGravity2.getMeanValue());                                  // Spatial Vector
-
-                // Calculate Angles
-
-                angleXY = 0;
-                if (gravityXY > 0) {
-                    if (mvGravity0.getMeanValue() >= 0) {
-                        if (mvGravity1.getMeanValue() < 0)
-                            angleXY = (float) Math.toDegrees(-Math.asin(mvGravity1.getMeanValue() / gravityXY));
-                        else
-                            angleXY = (float) Math.toDegrees(2 * Math.PI - Math.asin(mvGravity1.getMeanValue() / gravityXY));
-                    } else
-                        angleXY = (float) Math.toDegrees(Math.PI + Math.asin(mvGravity1.getMeanValue() / gravityXY));
-                }
-
-                angleXYZ = 0;
-                if (gravityXY > 0) {
-                    angleXYZ = (float) Math.toDegrees(Math.acos(mvGravity2.getMeanValue() / gravityXYZ));
-                }
+    /**
+     * Shows a new snapshot of the TiltProcessor; called on the main thread.
+     * While the measurement is locked only the animations are updated.
+     */
+    @Override
+    public void onTiltChanged(TiltSnapshot snapshot) {
+        if (!tiltProcessor.isLocked()) {
+            applyTiltSnapshot(snapshot);
+            updateViews();
+        }
+        updateAnimations();
+    }
 
-                angle[0] = (float) (180 / Math.PI * Math.asin((mvGravity0.getMeanValue() / Math.max(gravityXYZ, 0.00001f))));
-                angle[1] = (float) (180 / Math.PI * Math.asin((mvGravity1.getMeanValue() / Math.max(gravityXYZ, 0.00001f))));
-                angle[2] = (float) (180 / Math.PI * Math.asin((mvGravity2.getMeanValue() / Math.max(gravityXYZ, 0.00001f))));
 
-                // Load angles into Auto-Locking MeanVariances
+    /**
+     * Shows the locked measurement; called on the main thread.
+     */
+    @Override
+    public void onTiltLocked(TiltSnapshot snapshot) {
+        applyTiltSnapshot(snapshot);
+        mClinometerView.invalidate();
+        updateLockIcon();
+        beep();
+        if (isInCameraMode) releaseCamera(true);
+    }
 
-                mvAngle0.loadSample(angle[0]);
-                mvAngle1.loadSample(angle[1]);
-                mvAngle2.loadSample(angle[2]);
 
-                // Determine Rotation, ViewMode and Text Angles
+    /**
+     * Shows the dominant frequency and the RMS of the vibrations; called on the main thread.
+     */
+    @Override
+    public void onVibrationChanged(VibrationAnalyzer.Result result) {
+        if (!mVibrationAnalyzer.isEnabled() || (result == null)) return;
+        mTextViewVibration.setText(getString(R.string.vibration_format,
+                result.getFrequency(), result.getAmplitude(), result.getRms()));
+    }
 
-                if (Math.abs(angle[2]) < 70) {
-                    if ((angleXY > 270 - 45 + ROTATION_THRESHOLD) && (angleXY < 270 + 45 - ROTATION_THRESHOLD) && (displayRotation != 0)) {
-                        displayRotation = 0;
-                        Log.w("SpiritLevel", " ROTATION = " + displayRotation);
-                        rotateOverlays(displayRotation, this.getWindowManager().getDefaultDisplay().getHeight(), this.getWindowManager().getDefaultDisplay().getWidth());
-                    }
-                    if ((angleXY > 90 - 45 + ROTATION_THRESHOLD) && (angleXY < 90 + 45 - ROTATION_THRESHOLD) && (displayRotation != 180)) {
-                        displayRotation = 180;
 
-                        if (!ALLOW_UPSIDE_DOWN){displayRotation =0;}
+    private void applyTiltSnapshot(TiltSnapshot snapshot) {
+        tiltSnapshot = snapshot;
+        snapshot.getAngles(angle);
+        angleXY = snapshot.getAngleXY();
+        angleXYZ = snapshot.getAngleXYZ();
+    }
 
-                        Log.w("SpiritLevel", " ROTATION = " + displayRotation);
-                        rotateOverlays(displayRotation, this.getWindowManager().getDefaultDisplay().getHeight(), this.getWindowManager().getDefaultDisplay().getWidth());
-                    }
-                    if ((angleXY > 180 - 45 + ROTATION_THRESHOLD) && (angleXY < 180 + 45 - ROTATION_THRESHOLD) && (displayRotation != 270)) {
-                        displayRotation = 270;
-                        Log.w("SpiritLevel", " ROTATION = " + displayRotation);
-                        rotateOverlays(displayRotation, this.getWindowManager().getDefaultDisplay().getWidth(), this.getWindowManager().getDefaultDisplay().getHeight());
-                    }
-                    if (((angleXY > 270 + 45 + ROTATION_THRESHOLD) || (angleXY < 45 - ROTATION_THRESHOLD)) && (displayRotation != 90)) {
-                        displayRotation = 90;
-                        Log.w("SpiritLevel", " ROTATION = " + displayRotation);
-                        rotateOverlays(displayRotation, this.getWindowManager().getDefaultDisplay().getWidth(), this.getWindowManager().getDefaultDisplay().getHeight());
-                    }
-                }
 
-                if (Math.abs(angle[2]) < 70) {
-                    if (isFlat) isFlat = false;
-                    angleTextLabels = (90 + angleXY) % 360;
-                }
-                if ((Math.abs(angle[2]) >= 70) && (Math.abs(angle[2]) < 75)) {
-                    if ((displayRotation == 0) && (angleXY < 270)) {
-                        //Log.d("SpiritLevel", "ANG");
-                        angleTextLabels = displayRotation * (Math.abs(angle[2]) - 70) / 5
-                                + (((90 + angleXY) % 360) - 360) * (75 - Math.abs(angle[2])) / 5;
-                    } else {
-                        angleTextLabels = displayRotation * (Math.abs(angle[2]) - 70) / 5
-                                + ((90 + angleXY) % 360) * (75 - Math.abs(angle[2])) / 5;
-                    }
-                }
-                if (Math.abs(angle[2]) >= 75) {
-                    if (!isFlat) isFlat = true;
-                    angleTextLabels = displayRotation;
-                }
+    /**
+     * Updates the rotation, the view mode and the text of the angles.
+     */
+    private void updateViews() {
+        // Determine Rotation, ViewMode and Text Angles
 
-                // Show hint in camera mode
-                if (isCameraLivePreviewActive) {
-                    if ((Math.abs(angle[2]) > 7.5f) && (Math.abs(angle[1] % 180.0f) > 7.5f) && (Math.abs(angle[0] % 180.0f) > 7.5f)) {
-                        // The Screen is in vertical
-                        mTextViewKeepScreenVertical.setVisibility(View.VISIBLE);
-                    }
-                    if (!((Math.abs(angle[2]) > 7f) && (Math.abs(angle[1] % 180.0f) > 7f) && (Math.abs(angle[0] % 180.0f) > 7f))) {
-                        mTextViewKeepScreenVertical.setVisibility(View.GONE);
-                    }
-                }
-                // Apply Changes
-                mClinometerView.invalidate();
+        if (Math.abs(angle[2]) < 70) {
+            if ((angleXY > 270 - 45 + ROTATION_THRESHOLD) && (angleXY < 270 + 45 - ROTATION_THRESHOLD) && (displayRotation != 0)) {
+                displayRotation = 0;
+                Log.w("SpiritLevel", " ROTATION = " + displayRotation);
+                rotateOverlays(displayRotation, this.getWindowManager().getDefaultDisplay().getHeight(), this.getWindowManager().getDefaultDisplay().getWidth());
+            }
+            if ((angleXY > 90 - 45 + ROTATION_THRESHOLD) && (angleXY < 90 + 45 - ROTATION_THRESHOLD) && (displayRotation != 180)) {
+                displayRotation = 180;
 
-                // You must put this setText here in order to force the re-layout also during the rotations.
-                // Without this, if you lock the measure during the rotation animation, the layout doesn't change correctly :(
+                if (!ALLOW_UPSIDE_DOWN){displayRotation =0;}
 
-                formattedAngle0 = dataFormatter.format(angle[0]);
-                formattedAngle1 = dataFormatter.format(angle[1]);
-                formattedAngle2 = dataFormatter.format(angle[2]);
-                mTextViewAngles.setText(formattedAngle0 + "  " + formattedAngle1 + "  " + formattedAngle2);
-//                mTextViewAngles.setText(String.format("%1.1f°  %1.1f°  %1.1f°", angle[0], angle[1], angle[2]));
+                Log.w("SpiritLevel", " ROTATION = " + displayRotation);
+                rotateOverlays(displayRotation, this.getWindowManager().getDefaultDisplay().getHeight(), this.getWindowManager().getDefaultDisplay().getWidth());
+            }
+            if ((angleXY > 180 - 45 + ROTATION_THRESHOLD) && (angleXY < 180 + 45 - ROTATION_THRESHOLD) && (displayRotation != 270)) {
+                displayRotation = 270;
+                Log.w("SpiritLevel", " ROTATION = " + displayRotation);
+                rotateOverlays(displayRotation, this.getWindowManager().getDefaultDisplay().getWidth(), this.getWindowManager().getDefaultDisplay().getHeight());
             }
+            if (((angleXY > 270 + 45 + ROTATION_THRESHOLD) || (angleXY < 45 - ROTATION_THRESHOLD)) && (displayRotation != 90)) {
+                displayRotation = 90;
+                Log.w("SpiritLevel", " ROTATION = " + displayRotation);
+                rotateOverlays(displayRotation, this.getWindowManager().getDefaultDisplay().getWidth(), this.getWindowManager().getDefaultDisplay().getHeight());
+            }
+        }
 
-            if (Math.abs(pid.getValue() - old_PIDValue) > 0.001) {
-                old_PIDValue = pid.getValue();
-                mClinometerView.invalidate();
+        if (Math.abs(angle[2]) < 70) {
+            if (isFlat) isFlat = false;
+            angleTextLabels = (90 + angleXY) % 360;
+        }
+        if ((Math.abs(angle[2]) >= 70) && (Math.abs(angle[2]) < 75)) {
+            if ((displayRotation == 0) && (angleXY < 270)) {
+                //Log.d("SpiritLevel", "ANG");
+                angleTextLabels = displayRotation * (Math.abs(angle[2]) - 70) / 5
+                        + (((90 + angleXY) % 360) - 360) * (75 - Math.abs(angle[2])) / 5;
+            } else {
+                angleTextLabels = displayRotation * (Math.abs(angle[2]) - 70) / 5
+                        + ((90 + angleXY) % 360) * (75 - Math.abs(angle[2])) / 5;
             }
+        }
+        if (Math.abs(angle[2]) >= 75) {
+            if (!isFlat) isFlat = true;
+            angleTextLabels = displayRotation;
+        }
 
-            if (Math.abs(bgpid.getValue() - old_bgPIDValue) > 0.001) {
-                old_bgPIDValue = bgpid.getValue();
-                mBackgroundView.invalidate();
+        // Show hint in camera mode
+        if (isCameraLivePreviewActive) {
+            if ((Math.abs(angle[2]) > 7.5f) && (Math.abs(angle[1] % 180.0f) > 7.5f) && (Math.abs(angle[0] % 180.0f) > 7.5f)) {
+                // The Screen is in vertical
+                mTextViewKeepScreenVertical.setVisibility(View.VISIBLE);
+            }
+            if (!((Math.abs(angle[2]) > 7f) && (Math.abs(angle[1] % 180.0f) > 7f) && (Math.abs(angle[0] % 180.0f) > 7f))) {
+                mTextViewKeepScreenVertical.setVisibility(View.GONE);
             }
         }
+        // Apply Changes
+        mClinometerView.invalidate();
+
+        // You must put this setText here in order to force the re-layout also during the rotations.
+        // Without this, if you lock the measure during the rotation animation, the layout doesn't change correctly :(
+
+        formattedAngle0 = dataFormatter.format(angle[0]);
+        formattedAngle1 = dataFormatter.format(angle[1]);
+        formattedAngle2 = dataFormatter.format(angle[2]);
+        mTextViewAngles.setText(formattedAngle0 + "  " + formattedAngle1 + "  " + formattedAngle2);
+//        mTextViewAngles.setText(String.format("%1.1f°  %1.1f°  %1.1f°", angle[0], angle[1], angle[2]));
     }
 
 
-    @Override
-    public void onAccuracyChanged(Sensor sensor, int i) {
+    private void updateAnimations() {
+        if (Math.abs(pid.getValue() - old_PIDValue) > 0.001) {
+            old_PIDValue = pid.getValue();
+            mClinometerView.invalidate();
+        }
 
+        if (Math.abs(bgpid.getValue() - old_bgPIDValue) > 0.001) {
+            old_bgPIDValue = bgpid.getValue();
+            mBackgroundView.invalidate();
+        }
     }
 
 
     public void toggleLocking() {
-        if (isLocked) {
-            isLocked = false;
-            isLockRequested = false;
+        tiltProcessor.toggleLock();     // Applied on the processing thread, see onLockChanged
+    }
+
+
+    /**
+     * Shows the new state of the lock, after a toggle; called on the main thread.
+     */
+    @Override
+    public void onLockChanged(boolean wasLocked) {
+        if (wasLocked) {
             if (isInCameraMode) activateCamera();
             mImageViewCameraImage.setImageBitmap(null);
             cameraPreviewBitmap = null;
         }
-        else isLockRequested = !isLockRequested;
         updateLockIcon();
     }
 
 
     private void updateLockIcon() {
-        if (isLocked) {
+        if (tiltProcessor.isLocked()) {
             mImageViewLock.setImageResource(R.drawable.ic_lock_24);
             mImageViewLock.setAlpha(1.0f);
         } else {
-            if (isLockRequested) {
+            if (tiltProcessor.isLockRequested()) {
                 mImageViewLock.setImageResource(R.drawable.ic_lock_open_24);
                 mImageViewLock.setAlpha(1.0f);
             } else {
@@ -803,6 +734,100 @@ public class ClinometerActivity extends AppCompatActivity implements SensorDataL
     }
 
 
+    /**
+     * Creates the chain of the listeners of the samples of the provider:
+     * VibrationAnalyzer, SensorResampler and TiltProcessor.
+     */
+    private void createSensorChain(SensorProvider provider) {
+        if (mVibrationAnalyzer != null) mVibrationAnalyzer.setListener(null);
+        mSensorManager = provider;
+        mSensorResampler = new SensorResampler(tiltProcessor, 1000000 / ACCELEROMETER_UPDATE_INTERVAL_MICROS,
+                mSensorManager.contains(Sensor.TYPE_GYROSCOPE));
+        mVibrationAnalyzer = new VibrationAnalyzer(mSensorResampler);
+        mVibrationAnalyzer.setListener(this);
+    }
+
+
+    /**
+     * Switches the sensor chain to the source set in the preferences (debug builds only).
+     * It must be called while the provider is unregistered.
+     */
+    private void selectSensorSource() {
+        final int source = BuildConfig.DEBUG ? Integer.parseInt(preferences.getString(KEY_PREF_SENSOR_SOURCE, "0")) : SENSOR_SOURCE_WIT;
+        if (source == sensorSource) return;
+        if (source == SENSOR_SOURCE_REPLAY) {
+            final File session = getLastSession();
+            if (session != null) {
+                Log.d("Clinometer", "Replaying " + session);
+                createSensorChain(new ReplaySensorProvider(this, session, 1, true));
+                sensorSource = SENSOR_SOURCE_REPLAY;
+                return;
+            }
+            Log.w("Clinometer", "No sessions to replay");
+        }
+        if (source == SENSOR_SOURCE_SYNTHETIC) {
+            createSensorChain(new SyntheticSensorProvider(this, createSyntheticGenerator()));
+            sensorSource = SENSOR_SOURCE_SYNTHETIC;
+            return;
+        }
+        createSensorChain(new WITSensorProvider(this));
+        sensorSource = SENSOR_SOURCE_WIT;
+    }
+
+
+    /**
+     * The generator of the synthetic source: a slow tilt around both the axes, repeated,
+     * with the noise of a typical MEMS sensor.
+     */
+    private SyntheticSensorGenerator createSyntheticGenerator() {
+        return new SyntheticSensorGenerator(0)
+                .setRate(1000000 / ACCELEROMETER_UPDATE_INTERVAL_MICROS)
+                .setNoise(0.05f, 0.005f)
+                .setLooping(true)
+                .addKeyframe(0, 0, 0, 0)
+                .addKeyframe(5, 0, 0, 0)
+                .addKeyframe(10, 0, 30, 0)
+                .addKeyframe(15, 0, 30, 0)
+                .addKeyframe(20, 20, 30, 0)
+                .addKeyframe(25, 20, 30, 0)
+                .addKeyframe(30, 0, 0, 0);
+    }
+
+
+    /**
+     * Returns the last session recorded, or null if there are none.
+     */
+    private File getLastSession() {
+        final File directory = getExternalFilesDir(SESSIONS_DIRECTORY);
+        final File[] files = (directory != null) ? directory.listFiles() : null;
+        if (files == null) return null;
+        File lastSession = null;
+        for (File file : files) {
+            if (file.getName().endsWith(SESSION_EXTENSION)
+                    && ((lastSession == null) || (file.lastModified() > lastSession.lastModified()))) lastSession = file;
+        }
+        return lastSession;
+    }
+
+
+    /**
+     * Creates a writer that records a new session and passes the samples to the next listener,
+     * or returns null if the session cannot be recorded.
+     */
+    private SensorSessionWriter createSessionWriter(SensorDataListener next) {
+        final File directory = getExternalFilesDir(SESSIONS_DIRECTORY);
+        if (directory == null) return null;
+        final File file = new File(directory, System.currentTimeMillis() + SESSION_EXTENSION);
+        try {
+            Log.d("Clinometer", "Recording " + file);
+            return new SensorSessionWriter(file, next);
+        } catch (IOException e) {
+            Log.w("Clinometer", "Unable to record the session: " + e.getMessage());
+            return null;
+        }
+    }
+
+
     private void loadPreferences() {
         if (preferences.getBoolean(KEY_PREF_KEEP_SCREEN_ON, true)) getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
         else getWindow().clearFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
@@ -812,6 +837,14 @@ public class ClinometerActivity extends AppCompatActivity implements SensorDataL
         prefAutoLockHorizonCheck = preferences.getBoolean(KEY_PREF_AUTOLOCK_HORIZON_CHECK, true);
         prefAutoLockTolerance = AUTOLOCK_MAX_TOLERANCE - (AUTOLOCK_MAX_TOLERANCE - AUTOLOCK_MIN_TOLERANCE) * preferences.getInt(KEY_PREF_AUTOLOCK_PRECISION, 500) / 1000;
         Log.d("Clinometer", String.format("Auto Locking Tolerance = %1.3f", prefAutoLockTolerance));
+        tiltProcessor.setAutoLock(prefAutoLock, prefAutoLockHorizonCheck, prefAutoLockTolerance);
+        tiltProcessor.setFilter(Integer.parseInt(preferences.getString(KEY_PREF_FILTER, "0")));
+        tiltProcessor.setGravityEstimator(Integer.parseInt(preferences.getString(KEY_PREF_GRAVITY_ESTIMATOR, "0")));
+        tiltProcessor.setDeviceAngles(preferences.getBoolean(KEY_PREF_DEVICE_ANGLES, false)
+                && mSensorManager.contains(WITDeviceChannel.TYPE_DEVICE_ANGLE));
+        mVibrationAnalyzer.setEnabled(preferences.getBoolean(KEY_PREF_VIBRATION, false));
+        mTextViewVibration.setText("");
+        mTextViewVibration.setVisibility(mVibrationAnalyzer.isEnabled() ? View.VISIBLE : View.GONE);
 
         prefExposureCompensation = preferences.getInt(KEY_PREF_CAMERA_EXPOSURE_COMPENSATION, 0);
 
@@ -825,17 +858,7 @@ public class ClinometerActivity extends AppCompatActivity implements SensorDataL
         gravity_offset[1]       = preferences.getFloat(KEY_PREF_CALIBRATION_OFFSET_1, 0);
         gravity_offset[2]       = preferences.getFloat(KEY_PREF_CALIBRATION_OFFSET_2, 0);
 
-        calibrationMatrix[0][0] = (float) (Math.cos(Math.toRadians(angle_calibration[2])) * Math.cos(Math.toRadians(angle_calibration[0])) + Math.sin(Math.toRadians(angle_calibration[2])) * Math.sin(Math.toRadians(angle_calibration[1])) * Math.sin(Math.toRadians(angle_calibration[0])));
-        calibrationMatrix[0][1] = (float) (Math.cos(Math.toRadians(angle_calibration[1])) * Math.sin(Math.toRadians(angle_calibration[0])));
-        calibrationMatrix[0][2] = (float) (-Math.sin(Math.toRadians(angle_calibration[2])) * Math.cos(Math.toRadians(angle_calibration[0])) + Math.cos(Math.toRadians(angle_calibration[2])) * Math.sin(Math.toRadians(angle_calibration[1])) * Math.sin(Math.toRadians(angle_calibration[0])));
-
-        calibrationMatrix[1][0] = (float) (-Math.cos(Math.toRadians(angle_calibration[2])) * Math.sin(Math.toRadians(angle_calibration[0])) + Math.sin(Math.toRadians(angle_calibration[2])) * Math.sin(Math.toRadians(angle_calibration[1])) * Math.cos(Math.toRadians(angle_calibration[0])));
-        calibrationMatrix[1][1] = (float) (Math.cos(Math.toRadians(angle_calibration[1])) * Math.cos(Math.toRadians(angle_calibration[0])));
-        calibrationMatrix[1][2] = (float) (Math.sin(Math.toRadians(angle_calibration[2])) * Math.sin(Math.toRadians(angle_calibration[0])) + Math.cos(Math.toRadians(angle_calibration[2])) * Math.sin(Math.toRadians(angle_calibration[1])) * Math.cos(Math.toRadians(angle_calibration[0])));
-
-        calibrationMatrix[2][0] = (float) (Math.sin(Math.toRadians(angle_calibration[2])) * Math.cos(Math.toRadians(angle_calibration[1])));
-        calibrationMatrix[2][1] = (float) (-Math.sin(Math.toRadians(angle_calibration[1])));
-        calibrationMatrix[2][2] = (float) (Math.cos(Math.toRadians(angle_calibration[2])) * Math.cos(Math.toRadians(angle_calibration[1])));
+        tiltProcessor.setCalibration(gravity_gain, gravity_offset, angle_calibration);
     }
 
 
@@ -929,7 +952,7 @@ public class ClinometerActivity extends AppCompatActivity implements SensorDataL
         boolean result = newState;
         if (newState) {
             // Switch ON the Camera Mode
-            if (!isLocked || (cameraPreviewBitmap == null)) {
+            if (!tiltProcessor.isLocked() || (cameraPreviewBitmap == null)) {
                 result = activateCamera();
                 Log.d("Clinometer", "switchToCameraMode result = " + result);
                 if (!result) return false;
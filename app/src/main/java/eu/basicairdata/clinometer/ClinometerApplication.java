@@ -51,6 +51,12 @@ public class ClinometerApplication extends Application {
     public static final String KEY_PREF_ONLINE_HELP                   = "prefOnlineHelp";
     public static final String KEY_PREF_KEEP_SCREEN_ON                = "prefKeepScreenOn";
     public static final String KEY_PREF_UNIT_OF_MEASUREMENT           = "prefUnitOfMeasurement";
+    public static final String KEY_PREF_FILTER                        = "prefFilter";
+    public static final String KEY_PREF_DEVICE_ANGLES                 = "prefDeviceAngles";
+    public static final String KEY_PREF_GRAVITY_ESTIMATOR             = "prefGravityEstimator";
+    public static final String KEY_PREF_VIBRATION                     = "prefVibration";
+    public static final String KEY_PREF_SENSOR_SOURCE                 = "prefSensorSource";     // Debug builds only
+    public static final String KEY_PREF_RECORD_SESSION                = "prefRecordSession";    // Debug builds only
     public static final String KEY_PREF_CALIBRATION_ANGLE_0           = "prefCalibrationAngle0";
     public static final String KEY_PREF_CALIBRATION_ANGLE_1           = "prefCalibrationAngle1";
     public static final String KEY_PREF_CALIBRATION_ANGLE_2           = "prefCalibrationAngle2";
@@ -60,6 +66,7 @@ public class ClinometerApplication extends Application {
     public static final String KEY_PREF_CALIBRATION_OFFSET_0          = "prefCalibrationOffset0";
     public static final String KEY_PREF_CALIBRATION_OFFSET_1          = "prefCalibrationOffset1";
     public static final String KEY_PREF_CALIBRATION_OFFSET_2          = "prefCalibrationOffset2";
+    public static final String KEY_PREF_MAGNETIC_CALIBRATION          = "prefMagneticCalibration_";  // + the name of the device
 
 
     // Singleton instance
@@ -268,9 +268,10 @@ public class ClinometerView extends View {
     protected void onDraw(Canvas canvas) {
         //super.onDraw(canvas);
 
-        angles = clinometerActivity.getAngles();
-        angleXY = clinometerActivity.getAngleXY();
-        angleXYZ = clinometerActivity.getAngleXYZ();
+        final TiltSnapshot tiltSnapshot = clinometerActivity.getTiltSnapshot();
+        tiltSnapshot.getAngles(angles);
+        angleXY = tiltSnapshot.getAngleXY();
+        angleXYZ = tiltSnapshot.getAngleXYZ();
         angleTextLabels = clinometerActivity.getAngleTextLabels();
         isFlat = clinometerActivity.isFlat();
         displayRotation = clinometerActivity.getDisplayRotation();
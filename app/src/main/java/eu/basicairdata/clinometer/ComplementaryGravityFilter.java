@@ -0,0 +1,86 @@
+package eu.basicairdata.clinometer;
+
+/**
+ * A gyro-aided complementary filter of the gravity.
+ *
+ * The gravity vector is rotated with the angular velocity measured by the gyroscope,
+ * so it follows the movements of the device without delay, and it is slowly pulled
+ * towards the accelerometer, that removes the drift of the gyroscope.
+ * With the same weight of the accelerometer the noise is the same of the EMA filter,
+ * but the angle is already settled when the movement ends.
+ * Without the gyroscope, the filter is a plain exponential moving average.
+ */
+public class ComplementaryGravityFilter implements GravityFilter {
+
+    private static final float TIME_CONSTANT = 0.33f;          // s, the same noise of the EMA (ALPHA = 0.03 at 100 Hz)
+    private static final float MAX_INTERVAL = 0.1f;            // s, the longer intervals are not integrated
+
+    private final float timeConstant;
+
+    private final float[] gravity = {0, 0, 0};
+    private boolean isInitialized = false;
+    private long lastAccelerationTimestamp = 0;
+    private long lastAngularVelocityTimestamp = 0;
+
+
+    public ComplementaryGravityFilter() {
+        this(TIME_CONSTANT);
+    }
+
+
+    /**
+     * @param timeConstant The time constant of the correction of the accelerometer, in seconds
+     */
+    public ComplementaryGravityFilter(float timeConstant) {
+        this.timeConstant = timeConstant;
+    }
+
+
+    @Override
+    public void reset() {
+        isInitialized = false;
+        lastAccelerationTimestamp = 0;
+        lastAngularVelocityTimestamp = 0;
+    }
+
+
+    /**
+     * Rotates the gravity with the device: in the frame of the device the gravity
+     * turns with -w, so dg/dt = g x w.
+     */
+    @Override
+    public void updateAngularVelocity(long timestamp, float x, float y, float z) {
+        final float dt = (timestamp - lastAngularVelocityTimestamp) * 1E-9f;
+        lastAngularVelocityTimestamp = timestamp;
+        if (!isInitialized || (dt <= 0) || (dt > MAX_INTERVAL)) return;
+
+        final float gx = gravity[0];
+        final float gy = gravity[1];
+        final float gz = gravity[2];
+        gravity[0] = gx + (gy * z - gz * y) * dt;
+        gravity[1] = gy + (gz * x - gx * z) * dt;
+        gravity[2] = gz + (gx * y - gy * x) * dt;
+    }
+
+
+    @Override
+    public void updateAcceleration(long timestamp, float x, float y, float z, float[] reference, float[] out) {
+        final float dt = (timestamp - lastAccelerationTimestamp) * 1E-9f;
+        lastAccelerationTimestamp = timestamp;
+        if (!isInitialized || (dt <= 0) || (dt > MAX_INTERVAL)) {
+            // (Re)starts from the accelerometer
+            gravity[0] = x;
+            gravity[1] = y;
+            gravity[2] = z;
+            isInitialized = true;
+        } else {
+            final float k = dt / (timeConstant + dt);
+            gravity[0] += k * (x - gravity[0]);
+            gravity[1] += k * (y - gravity[1]);
+            gravity[2] += k * (z - gravity[2]);
+        }
+        out[0] = gravity[0];
+        out[1] = gravity[1];
+        out[2] = gravity[2];
+    }
+}
@@ -0,0 +1,49 @@
+package eu.basicairdata.clinometer;
+
+/**
+ * The original filter of the Clinometer: an exponential moving average of the accelerometer,
+ * whose weight grows with the distance between the new sample and the mean of the last values,
+ * so that the filter follows faster the large movements.
+ * The gyroscope is not used.
+ */
+public class EmaGravityFilter implements GravityFilter {
+
+    private static final float ALPHA = 0.03f;                          // Weight of the new sensor reading
+
+    private final float[] gravity = {0, 0, 0};                         // The (filtered) current accelerometers values
+
+
+    @Override
+    public void reset() {
+        gravity[0] = 0;
+        gravity[1] = 0;
+        gravity[2] = 0;
+    }
+
+
+    @Override
+    public void updateAngularVelocity(long timestamp, float x, float y, float z) {
+        // The gyroscope is not used
+    }
+
+
+    @Override
+    public void updateAcceleration(long timestamp, float x, float y, float z, float[] reference, float[] out) {
+        final float alpha0 = ALPHA * (float)(1 + Math.abs(reference[0] - x)*0.1);
+        final float alpha1 = ALPHA * (float)(1 + Math.abs(reference[1] - y)*0.1);
+        final float alpha2 = ALPHA * (float)(1 + Math.abs(reference[2] - z)*0.1);
+
+        if ((gravity[0] == 0) && (gravity[1] == 0) && (gravity[2] == 0)) {
+            gravity[0] = x;
+            gravity[1] = y;
+            gravity[2] = z;
+        } else {
+            gravity[0] = (1 - alpha0) * gravity[0] + (alpha0) * x;
+            gravity[1] = (1 - alpha1) * gravity[1] + (alpha1) * y;
+            gravity[2] = (1 - alpha2) * gravity[2] + (alpha2) * z;
+        }
+        out[0] = gravity[0];
+        out[1] = gravity[1];
+        out[2] = gravity[2];
+    }
+}
@@ -0,0 +1,75 @@
+package eu.basicairdata.clinometer;
+
+/**
+ * A radix-2 in-place FFT of a fixed size.
+ *
+ * The twiddle factors and the bit reversal permutation are computed once by the constructor,
+ * so transform() does not allocate and does not call any trigonometric function.
+ * An instance is not thread safe: use it only on one thread.
+ */
+public class FFT {
+
+    private final int size;
+    private final float[] cos;          // The twiddle factors: cos(2 pi k / size), k < size / 2
+    private final float[] sin;          // sin(2 pi k / size), k < size / 2
+    private final int[] reversed;       // The bit reversal permutation
+
+
+    /**
+     * @param size The number of samples, a power of 2 (at least 2)
+     */
+    public FFT(int size) {
+        if ((size < 2) || ((size & (size - 1)) != 0)) throw new IllegalArgumentException("The size of the FFT must be a power of 2");
+        this.size = size;
+        cos = new float[size / 2];
+        sin = new float[size / 2];
+        for (int k = 0; k < size / 2; k++) {
+            cos[k] = (float) Math.cos(2 * Math.PI * k / size);
+            sin[k] = (float) Math.sin(2 * Math.PI * k / size);
+        }
+        reversed = new int[size];
+        final int bits = Integer.numberOfTrailingZeros(size);
+        for (int i = 0; i < size; i++) reversed[i] = Integer.reverse(i) >>> (32 - bits);
+    }
+
+
+    public int getSize() {
+        return size;
+    }
+
+
+    /**
+     * Transforms the given complex signal in place (forward transform, without normalization):
+     * X[k] = sum x[n] e^(-2 pi i k n / size).
+     *
+     * @param re The real parts, of length size
+     * @param im The imaginary parts, of length size
+     */
+    public void transform(float[] re, float[] im) {
+        for (int i = 0; i < size; i++) {
+            final int j = reversed[i];
+            if (j > i) {
+                float t = re[i]; re[i] = re[j]; re[j] = t;
+                t = im[i]; im[i] = im[j]; im[j] = t;
+            }
+        }
+        for (int length = 2; length <= size; length <<= 1) {
+            final int half = length >> 1;
+            final int step = size / length;             // The stride into the twiddle factors
+            for (int start = 0; start < size; start += length) {
+                for (int k = 0; k < half; k++) {
+                    final float wr = cos[k * step];
+                    final float wi = -sin[k * step];
+                    final int a = start + k;
+                    final int b = a + half;
+                    final float tr = re[b] * wr - im[b] * wi;
+                    final float ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package eu.basicairdata.clinometer;
+
+/**
+ * A filter that estimates the gravity vector, in the frame of the device,
+ * from the samples of the accelerometer and (optionally) of the gyroscope.
+ *
+ * The samples are fed in chronological order, the angular velocities before the
+ * accelerations with the same timestamp. The filters work on primitive fields only,
+ * and must not allocate memory during the updates.
+ */
+public interface GravityFilter {
+
+    int TYPE_EMA            = 0;    // EmaGravityFilter
+    int TYPE_COMPLEMENTARY  = 1;    // ComplementaryGravityFilter
+    int TYPE_QUATERNION     = 2;    // QuaternionOrientation
+    int TYPE_ONE_EURO       = 3;    // OneEuroGravityFilter
+
+    /**
+     * Clears the state of the filter; the next acceleration re-initializes it.
+     */
+    void reset();
+
+    /**
+     * Feeds a sample of the gyroscope. The filters that don't use the gyroscope ignore it.
+     *
+     * @param timestamp The timestamp of the sample, in ns
+     * @param x, y, z The angular velocity, in rad/s
+     */
+    void updateAngularVelocity(long timestamp, float x, float y, float z);
+
+    /**
+     * Feeds a sample of the accelerometer and returns the filtered gravity.
+     *
+     * @param timestamp The timestamp of the sample, in ns
+     * @param x, y, z The acceleration, corrected for offset and gain, in m/s^2
+     * @param reference The mean of the last calibrated gravity values, used by the adaptive filters
+     * @param gravity The output: the filtered gravity, in m/s^2
+     */
+    void updateAcceleration(long timestamp, float x, float y, float z, float[] reference, float[] gravity);
+}
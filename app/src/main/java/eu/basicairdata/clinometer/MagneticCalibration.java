@@ -0,0 +1,110 @@
+package eu.basicairdata.clinometer;
+
+import java.util.Locale;
+
+/**
+ * The hard-iron and soft-iron calibration of a magnetometer: m' = S (m - b).
+ *
+ * The hard-iron offset b moves the centre of the sphere described by the field while the device
+ * rotates; the soft-iron matrix S turns the ellipsoid back into a sphere.
+ * The instances are immutable, so they can be replaced as a whole while the samples are calibrated
+ * on another thread.
+ */
+public final class MagneticCalibration {
+
+    public static final MagneticCalibration IDENTITY = new MagneticCalibration(
+            new float[] { 0, 0, 0 },
+            new float[] { 1, 0, 0, 0, 1, 0, 0, 0, 1 });
+
+    private final float[] hardIron;         // The offset b (3 values)
+    private final float[] softIron;         // The matrix S (3x3 values, by rows)
+
+
+    /**
+     * @param hardIron The offset of the 3 axes
+     * @param softIron The 3x3 matrix, by rows
+     */
+    public MagneticCalibration(float[] hardIron, float[] softIron) {
+        if ((hardIron.length != 3) || (softIron.length != 9)) throw new IllegalArgumentException("Wrong size of the calibration");
+        this.hardIron = hardIron.clone();
+        this.softIron = softIron.clone();
+    }
+
+
+    /**
+     * Creates the calibration from the minimum and the maximum values measured on each axis
+     * while the device was rotated in all the directions.
+     * The soft-iron matrix is diagonal: it rescales the axes of the ellipsoid to its mean radius.
+     *
+     * @return The calibration, or null if the range of an axis is empty
+     */
+    public static MagneticCalibration fromRange(float[] min, float[] max) {
+        final float[] hardIron = new float[3];
+        final float[] radius = new float[3];
+        for (int i = 0; i < 3; i++) {
+            radius[i] = (max[i] - min[i]) / 2;
+            if (!(radius[i] > 0)) return null;
+            hardIron[i] = (max[i] + min[i]) / 2;
+        }
+        final float meanRadius = (radius[0] + radius[1] + radius[2]) / 3;
+        return new MagneticCalibration(hardIron, new float[] {
+                meanRadius / radius[0], 0, 0,
+                0, meanRadius / radius[1], 0,
+                0, 0, meanRadius / radius[2] });
+    }
+
+
+    /**
+     * Applies the calibration to a sample.
+     */
+    public void apply(float x, float y, float z, float[] out) {
+        final float dx = x - hardIron[0];
+        final float dy = y - hardIron[1];
+        final float dz = z - hardIron[2];
+        out[0] = softIron[0] * dx + softIron[1] * dy + softIron[2] * dz;
+        out[1] = softIron[3] * dx + softIron[4] * dy + softIron[5] * dz;
+        out[2] = softIron[6] * dx + softIron[7] * dy + softIron[8] * dz;
+    }
+
+
+    public void getHardIron(float[] out) {
+        System.arraycopy(hardIron, 0, out, 0, 3);
+    }
+
+
+    public void getSoftIron(float[] out) {
+        System.arraycopy(softIron, 0, out, 0, 9);
+    }
+
+
+    /**
+     * Encodes the calibration into a String, to be saved into the preferences.
+     */
+    public String encode() {
+        final StringBuilder builder = new StringBuilder();
+        for (float v : hardIron) builder.append(String.format(Locale.US, "%s;", v));
+        for (float v : softIron) builder.append(String.format(Locale.US, "%s;", v));
+        return builder.toString();
+    }
+
+
+    /**
+     * Decodes a calibration encoded with encode().
+     *
+     * @return The calibration, or null if the String is not valid
+     */
+    public static MagneticCalibration decode(String string) {
+        if (string == null) return null;
+        final String[] values = string.split(";");
+        if (values.length != 12) return null;
+        final float[] hardIron = new float[3];
+        final float[] softIron = new float[9];
+        try {
+            for (int i = 0; i < 3; i++) hardIron[i] = Float.parseFloat(values[i]);
+            for (int i = 0; i < 9; i++) softIron[i] = Float.parseFloat(values[3 + i]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return new MagneticCalibration(hardIron, softIron);
+    }
+}
@@ -21,16 +21,35 @@
 
 package eu.basicairdata.clinometer;
 
-import android.util.Log;
-
 import java.util.Arrays;
 
+/**
+ * The mean, the variance and the tolerance of the last samples of a signal, on a sliding window.
+ *
+ * The statistics are updated in O(1) for each sample: the new sample is added to the running sums,
+ * and the sample that leaves the window is subtracted. The sums use the compensated (Kahan-Babuska)
+ * summation, and the samples are shifted by the first value loaded, so that the rounding errors
+ * don't accumulate over time, and the variance doesn't lose precision when the mean is far from zero.
+ *
+ * The statistics of the last N samples (for any N up to the size of the window) are available in O(1)
+ * too, through the prefix sums of the samples.
+ */
 public class MeanVariance {
 
     private float[] sample;
     private int currentSample = -1;
     private int loaded = 0;
 
+    private float shift = 0;                                        // The first sample loaded after a reset
+    private final CompensatedSum sum = new CompensatedSum();        // The sum of (sample - shift)
+    private final CompensatedSum sumOfSquares = new CompensatedSum();   // The sum of (sample - shift)^2
+
+    // The prefix sums of (sample - shift) and (sample - shift)^2 of the last samples, for the queries on the last N samples.
+    // The element k % (size + 1) contains the sum of the first k samples loaded, minus a common base
+    // that is subtracted every time the window wraps (so the values never grow).
+    private final double[] prefixSum;
+    private final double[] prefixSumOfSquares;
+
     private float meanValue = 0;
     private float variance = 0;
     private float stdDeviation = 0;
@@ -39,6 +58,8 @@ public class MeanVariance {
 
     public MeanVariance(int size) {
         sample = new float[size];
+        prefixSum = new double[size + 1];
+        prefixSumOfSquares = new double[size + 1];
     }
 
 
@@ -49,8 +70,24 @@ public class MeanVariance {
             //Log.d("MeanVariance", (String.format("MeanVariance: Mean=%+1.4f Uncertainty=%+1.4f (Std Deviation=%+1.4f)", MeanValue, Tolerance, StdDeviation)));
         }
 
+        if (loaded == 0) shift = sample;
+        if (loaded >= this.sample.length) {
+            // The oldest sample leaves the window
+            final double evicted = this.sample[currentSample] - shift;
+            sum.add(-evicted);
+            sumOfSquares.add(-evicted * evicted);
+        }
+
         this.sample[currentSample] = sample;
+        final double added = sample - shift;
+        sum.add(added);
+        sumOfSquares.add(added * added);
+
+        final int length = prefixSum.length;
+        prefixSum[(loaded + 1) % length] = prefixSum[loaded % length] + added;
+        prefixSumOfSquares[(loaded + 1) % length] = prefixSumOfSquares[loaded % length] + added * added;
         loaded++;
+        if (currentSample == this.sample.length - 1) rebasePrefixSums();
 
         calculate();
     }
@@ -60,6 +97,12 @@ public class MeanVariance {
         loaded = 0;
         currentSample = -1;
 
+        shift = 0;
+        sum.reset();
+        sumOfSquares.reset();
+        Arrays.fill(prefixSum, 0);
+        Arrays.fill(prefixSumOfSquares, 0);
+
         meanValue = 0;
         variance = 0;
         stdDeviation = 0;
@@ -69,12 +112,12 @@ public class MeanVariance {
     }
 
 
+    /**
+     * Resets the statistics. As in the previous versions, the value is not loaded as a sample:
+     * the window is empty after the call, and the statistics are 0.
+     */
     public void reset(float values) {
-        loaded = 0;
-        currentSample = -1;
-
-        Arrays.fill(sample, values);
-        calculate();
+        reset();
     }
 
 
@@ -98,16 +141,25 @@ public class MeanVariance {
     }
 
 
+    /**
+     * The variance of the samples of the window (population variance).
+     */
     public float getVariance() {
         return variance;
     }
 
 
+    /**
+     * The standard deviation of the samples of the window.
+     */
     public float getStdDeviation() {
         return stdDeviation;
     }
 
 
+    /**
+     * The tolerance (confidence 95%), 1.96 times the standard deviation.
+     */
     public float getTolerance() {
         return tolerance;
     }
@@ -118,86 +170,126 @@ public class MeanVariance {
         if (nsamples > 0) {
 
             // ------ Mean value
-            double mv = 0;
-            for (int i = 0; i < nsamples; i++) {
-                mv += sample[i];
-            }
-            mv /= nsamples;
-            meanValue = (float) mv;
+            final double mv = sum.get() / nsamples;
+            meanValue = (float) (shift + mv);
 
             // ------ Variance
-            double var = 0;
-            for (int i = 0; i < nsamples; i++) {
-                var += (sample[i] - mv) * (sample[i] - mv);
-            }
-            variance /= nsamples;
+            variance = (float) Math.max(0, sumOfSquares.get() / nsamples - mv * mv);
 
             // ------ Standard Deviation
-            stdDeviation = (float) Math.sqrt(var);
+            stdDeviation = (float) Math.sqrt(variance);
 
             // ------ Uncertainty (confidence 95%)
-            tolerance = (float) (1.96d * stdDeviation / Math.sqrt(nsamples));
+            tolerance = (float) (1.96d * stdDeviation);
         } else {
             reset();
         }
     }
 
 
+    /**
+     * The mean value of the last samples loaded, in O(1).
+     *
+     * @param number_of_last_samples The number of samples; 0 (or less) for the whole window
+     * @return The mean value, or 0 if less samples are loaded
+     */
     public float getMeanValue(int number_of_last_samples) {
-        int nsamples = Math.min(sample.length, loaded);
         if (number_of_last_samples <= 0) return meanValue;
-        if (number_of_last_samples >= nsamples) return 0;
-        if (nsamples > 0) {
-            // ------ Mean value
-            double mv = 0;
-            int index = (loaded - number_of_last_samples) % nsamples;
-            Log.d("MeanVariance", ("MeanVariance: Loaded="+ loaded + " Start=" + index));
-
-            for (int i = 0; i < number_of_last_samples; i++) {
-                mv += sample[index];
-                index++;
-                if (index == nsamples) index = 0;
-            }
-            mv /= number_of_last_samples;
-
-            Log.d("MeanVariance", (String.format("MeanVariance: Mean=%+1.4f Uncertainty=%+1.4f (Std Deviation=%+1.4f)", meanValue, tolerance, stdDeviation)));
-            return (float) mv;
-        }
-        return 0;
+        if (!hasLastSamples(number_of_last_samples)) return 0;
+        return (float) (shift + getLastSum(prefixSum, number_of_last_samples) / number_of_last_samples);
     }
 
 
+    /**
+     * The variance of the last samples loaded, in O(1).
+     *
+     * @param number_of_last_samples The number of samples; 0 (or less) for the whole window
+     * @return The variance, or 0 if less samples are loaded
+     */
+    public float getVariance(int number_of_last_samples) {
+        if (number_of_last_samples <= 0) return variance;
+        if (!hasLastSamples(number_of_last_samples)) return 0;
+        final double mv = getLastSum(prefixSum, number_of_last_samples) / number_of_last_samples;
+        return (float) Math.max(0, getLastSum(prefixSumOfSquares, number_of_last_samples) / number_of_last_samples - mv * mv);
+    }
+
+
+    /**
+     * The standard deviation of the last samples loaded, in O(1).
+     *
+     * @param number_of_last_samples The number of samples; 0 (or less) for the whole window
+     * @return The standard deviation, or 0 if less samples are loaded
+     */
+    public float getStdDeviation(int number_of_last_samples) {
+        if (number_of_last_samples <= 0) return stdDeviation;
+        return (float) Math.sqrt(getVariance(number_of_last_samples));
+    }
+
+
+    /**
+     * The uncertainty (confidence 95%) of the mean value of the last samples loaded, in O(1):
+     * 1.96 times the standard deviation, divided by the square root of the number of samples.
+     *
+     * @param number_of_last_samples The number of samples; 0 (or less) for getTolerance() of the whole window
+     * @return The uncertainty, or 0 if less samples are loaded
+     */
     public float getTolerance(int number_of_last_samples) {
-        int nsamples = Math.min(sample.length, loaded);
         if (number_of_last_samples <= 0) return tolerance;
-        if (number_of_last_samples >= nsamples) return 0;
-        if (nsamples > 0) {
-            // ------ Mean value
-            double mv = 0;
-            int index = (loaded - number_of_last_samples) % nsamples;
-            for (int i = 0; i < number_of_last_samples; i++) {
-                mv += sample[index];
-                index++;
-                if (index == nsamples) index = 0;
-            }
-            mv /= number_of_last_samples;
+        if (!hasLastSamples(number_of_last_samples)) return 0;
+        return (float) (1.96d * Math.sqrt(getVariance(number_of_last_samples)) / Math.sqrt(number_of_last_samples));
+    }
 
-            // ------ Variance
-            double var = 0;
-            index = (loaded - number_of_last_samples) % nsamples;
-            for (int i = 0; i < number_of_last_samples; i++) {
-                var += (sample[index] - mv) * (sample[index] - mv);
-                index++;
-                if (index == nsamples) index = 0;
-            }
-            var /= number_of_last_samples;
 
-            // ------ Standard Deviation
-            double stddv = (float) Math.sqrt(var);
+    /**
+     * Subtracts the last prefix sums from all the prefix sums. The differences don't change,
+     * while the values remain of the order of the sums of a window. O(size), once every size samples.
+     */
+    private void rebasePrefixSums() {
+        final int last = loaded % prefixSum.length;
+        final double base = prefixSum[last];
+        final double baseOfSquares = prefixSumOfSquares[last];
+        for (int i = 0; i < prefixSum.length; i++) {
+            prefixSum[i] -= base;
+            prefixSumOfSquares[i] -= baseOfSquares;
+        }
+    }
 
-            // ------ Uncertainty (confidence 95%)
-            return (float) (1.96d * stddv / Math.sqrt(number_of_last_samples));
+
+    private boolean hasLastSamples(int number_of_last_samples) {
+        return number_of_last_samples <= Math.min(sample.length, loaded);
+    }
+
+
+    /**
+     * The sum of the last values of a prefix sum: P[loaded] - P[loaded - n].
+     */
+    private double getLastSum(double[] prefix, int number_of_last_samples) {
+        final int length = prefix.length;
+        return prefix[loaded % length] - prefix[(loaded - number_of_last_samples) % length];
+    }
+
+
+    /**
+     * A sum with the compensation of the rounding errors (Kahan-Babuska / Neumaier).
+     */
+    private static class CompensatedSum {
+        private double sum = 0;
+        private double compensation = 0;
+
+        void add(double value) {
+            final double t = sum + value;
+            if (Math.abs(sum) >= Math.abs(value)) compensation += (sum - t) + value;
+            else compensation += (value - t) + sum;
+            sum = t;
+        }
+
+        double get() {
+            return sum + compensation;
+        }
+
+        void reset() {
+            sum = 0;
+            compensation = 0;
         }
-        return 0;
     }
 }
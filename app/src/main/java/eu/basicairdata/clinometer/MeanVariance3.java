@@ -0,0 +1,245 @@
+package eu.basicairdata.clinometer;
+
+import java.util.Arrays;
+
+/**
+ * The statistics of a 3-axis signal (x, y, z) on a sliding window: the same statistics of MeanVariance,
+ * for the 3 axes together.
+ *
+ * The axes share the ring index and the bookkeeping, and are updated with a single call;
+ * the samples and the sums are stored by axis (struct of arrays).
+ * Each update is O(1): the new sample is added to the running (compensated) sums and the oldest is
+ * subtracted, while the prefix sums give the statistics of the last N samples in O(1).
+ * The statistics are calculated when requested.
+ */
+public class MeanVariance3 {
+
+    public static final int AXES = 3;
+
+    private final int size;
+    private final float[][] sample;             // The samples of the window, by axis
+    private int currentSample = -1;
+    private int loaded = 0;
+
+    // The running sums of (sample - shift) and (sample - shift)^2 of the window, by axis,
+    // with the compensations of the rounding errors (Kahan-Babuska / Neumaier)
+    private final float[] shift = new float[AXES];
+    private final double[] sum = new double[AXES];
+    private final double[] sumCompensation = new double[AXES];
+    private final double[] sumOfSquares = new double[AXES];
+    private final double[] sumOfSquaresCompensation = new double[AXES];
+
+    // The prefix sums of the last samples, by axis (see MeanVariance)
+    private final double[][] prefixSum;
+    private final double[][] prefixSumOfSquares;
+
+
+    public MeanVariance3(int size) {
+        this.size = size;
+        sample = new float[AXES][size];
+        prefixSum = new double[AXES][size + 1];
+        prefixSumOfSquares = new double[AXES][size + 1];
+    }
+
+
+    public void loadSample(float x, float y, float z) {
+        currentSample++;
+        if (currentSample == size) currentSample = 0;
+
+        if (loaded == 0) {
+            shift[0] = x;
+            shift[1] = y;
+            shift[2] = z;
+        }
+        final boolean isFull = loaded >= size;
+        final int prefix = loaded % (size + 1);
+        final int nextPrefix = (loaded + 1) % (size + 1);
+        load(0, x, isFull, prefix, nextPrefix);
+        load(1, y, isFull, prefix, nextPrefix);
+        load(2, z, isFull, prefix, nextPrefix);
+        loaded++;
+        if (currentSample == size - 1) rebasePrefixSums();
+    }
+
+
+    /**
+     * Loads a batch of samples, interleaved as x0, y0, z0, x1, y1, z1, ... (the layout of the SensorBatches).
+     */
+    public void loadSamples(float[] values, int count) {
+        for (int i = 0; i < count; i++) loadSample(values[3 * i], values[3 * i + 1], values[3 * i + 2]);
+    }
+
+
+    public void reset() {
+        loaded = 0;
+        currentSample = -1;
+        for (int axis = 0; axis < AXES; axis++) {
+            shift[axis] = 0;
+            sum[axis] = 0;
+            sumCompensation[axis] = 0;
+            sumOfSquares[axis] = 0;
+            sumOfSquaresCompensation[axis] = 0;
+            Arrays.fill(sample[axis], 0);
+            Arrays.fill(prefixSum[axis], 0);
+            Arrays.fill(prefixSumOfSquares[axis], 0);
+        }
+    }
+
+
+    public boolean getLoaded() {
+        return (loaded >= size);
+    }
+
+
+    public float percentLoaded() {
+        return (Math.min(100 * loaded / size, 100));
+    }
+
+
+    public boolean isReady() {
+        return (loaded > 10);
+    }
+
+
+    // ----------------------------------------------------------------------------- Whole window
+
+
+    public float getMeanValue(int axis) {
+        final int nsamples = Math.min(size, loaded);
+        if (nsamples == 0) return 0;
+        return (float) (shift[axis] + (sum[axis] + sumCompensation[axis]) / nsamples);
+    }
+
+
+    /**
+     * The variance of the samples of the window (population variance).
+     */
+    public float getVariance(int axis) {
+        final int nsamples = Math.min(size, loaded);
+        if (nsamples == 0) return 0;
+        final double mv = (sum[axis] + sumCompensation[axis]) / nsamples;
+        return (float) Math.max(0, (sumOfSquares[axis] + sumOfSquaresCompensation[axis]) / nsamples - mv * mv);
+    }
+
+
+    public float getStdDeviation(int axis) {
+        return (float) Math.sqrt(getVariance(axis));
+    }
+
+
+    /**
+     * The tolerance (confidence 95%), 1.96 times the standard deviation (as MeanVariance.getTolerance()).
+     */
+    public float getTolerance(int axis) {
+        return (float) (1.96d * getStdDeviation(axis));
+    }
+
+
+    // ----------------------------------------------------------------------------- Last N samples
+
+
+    /**
+     * The mean value of the last samples loaded.
+     *
+     * @param number_of_last_samples The number of samples; 0 (or less) for the whole window
+     * @return The mean value, or 0 if less samples are loaded
+     */
+    public float getMeanValue(int axis, int number_of_last_samples) {
+        if (number_of_last_samples <= 0) return getMeanValue(axis);
+        if (!hasLastSamples(number_of_last_samples)) return 0;
+        return (float) (shift[axis] + getLastSum(prefixSum[axis], number_of_last_samples) / number_of_last_samples);
+    }
+
+
+    /**
+     * The variance of the last samples loaded.
+     *
+     * @param number_of_last_samples The number of samples; 0 (or less) for the whole window
+     * @return The variance, or 0 if less samples are loaded
+     */
+    public float getVariance(int axis, int number_of_last_samples) {
+        if (number_of_last_samples <= 0) return getVariance(axis);
+        if (!hasLastSamples(number_of_last_samples)) return 0;
+        final double mv = getLastSum(prefixSum[axis], number_of_last_samples) / number_of_last_samples;
+        return (float) Math.max(0, getLastSum(prefixSumOfSquares[axis], number_of_last_samples) / number_of_last_samples - mv * mv);
+    }
+
+
+    /**
+     * The uncertainty (confidence 95%) of the mean value of the last samples loaded (as MeanVariance.getTolerance(int)).
+     *
+     * @param number_of_last_samples The number of samples; 0 (or less) for getTolerance() of the whole window
+     * @return The uncertainty, or 0 if less samples are loaded
+     */
+    public float getTolerance(int axis, int number_of_last_samples) {
+        if (number_of_last_samples <= 0) return getTolerance(axis);
+        if (!hasLastSamples(number_of_last_samples)) return 0;
+        return (float) (1.96d * Math.sqrt(getVariance(axis, number_of_last_samples)) / Math.sqrt(number_of_last_samples));
+    }
+
+
+    // ----------------------------------------------------------------------------- Internals
+
+
+    private void load(int axis, float value, boolean isFull, int prefix, int nextPrefix) {
+        final float[] samples = sample[axis];
+        final double s = shift[axis];
+        if (isFull) {
+            // The oldest sample leaves the window
+            final double evicted = samples[currentSample] - s;
+            addToSum(axis, -evicted);
+            addToSumOfSquares(axis, -evicted * evicted);
+        }
+        samples[currentSample] = value;
+        final double added = value - s;
+        addToSum(axis, added);
+        addToSumOfSquares(axis, added * added);
+        prefixSum[axis][nextPrefix] = prefixSum[axis][prefix] + added;
+        prefixSumOfSquares[axis][nextPrefix] = prefixSumOfSquares[axis][prefix] + added * added;
+    }
+
+
+    private void addToSum(int axis, double value) {
+        final double t = sum[axis] + value;
+        if (Math.abs(sum[axis]) >= Math.abs(value)) sumCompensation[axis] += (sum[axis] - t) + value;
+        else sumCompensation[axis] += (value - t) + sum[axis];
+        sum[axis] = t;
+    }
+
+
+    private void addToSumOfSquares(int axis, double value) {
+        final double t = sumOfSquares[axis] + value;
+        if (Math.abs(sumOfSquares[axis]) >= Math.abs(value)) sumOfSquaresCompensation[axis] += (sumOfSquares[axis] - t) + value;
+        else sumOfSquaresCompensation[axis] += (value - t) + sumOfSquares[axis];
+        sumOfSquares[axis] = t;
+    }
+
+
+    /**
+     * Subtracts the last prefix sums from all the prefix sums (see MeanVariance).
+     */
+    private void rebasePrefixSums() {
+        final int last = loaded % (size + 1);
+        for (int axis = 0; axis < AXES; axis++) {
+            final double[] p = prefixSum[axis];
+            final double[] q = prefixSumOfSquares[axis];
+            final double base = p[last];
+            final double baseOfSquares = q[last];
+            for (int i = 0; i <= size; i++) {
+                p[i] -= base;
+                q[i] -= baseOfSquares;
+            }
+        }
+    }
+
+
+    private boolean hasLastSamples(int number_of_last_samples) {
+        return number_of_last_samples <= Math.min(size, loaded);
+    }
+
+
+    private double getLastSum(double[] prefix, int number_of_last_samples) {
+        final int length = size + 1;
+        return prefix[loaded % length] - prefix[(loaded - number_of_last_samples) % length];
+    }
+}
@@ -0,0 +1,111 @@
+package eu.basicairdata.clinometer;
+
+/**
+ * A One Euro filter of the gravity: a low-pass filter whose cutoff frequency grows with the speed of the signal
+ * (Casiez, Roussel, Vogel - "1€ Filter: A Simple Speed-based Low-pass Filter for Noisy Input in Interactive Systems", CHI 2012).
+ *
+ * At rest the cutoff is minCutoff, and the noise is strongly reduced; when the device moves,
+ * the cutoff becomes minCutoff + beta * speed, and the filter follows the movement with a small delay.
+ * The speed is the magnitude of the derivative of the acceleration vector (in m/s^3), itself low-passed at
+ * DERIVATIVE_CUTOFF; the 3 axes share the same cutoff, so the direction of the gravity is not distorted.
+ * It is the proper version of the adaptive weight of the EmaGravityFilter.
+ * The gyroscope is not used.
+ */
+public class OneEuroGravityFilter implements GravityFilter {
+
+    private static final float MIN_CUTOFF = 0.5f;               // Hz, the same noise of the EMA (ALPHA = 0.03 at 100 Hz)
+    private static final float BETA = 0.2f;                     // Hz per m/s^3
+    private static final float DERIVATIVE_CUTOFF = 1.0f;        // Hz
+    private static final float MAX_INTERVAL = 0.1f;             // s, after longer intervals the filter restarts
+
+    private final float minCutoff;
+    private final float beta;
+
+    private final float[] gravity = {0, 0, 0};                  // The filtered acceleration
+    private final float[] derivative = {0, 0, 0};               // The filtered derivative of the acceleration
+    private final float[] last = {0, 0, 0};                     // The last raw acceleration
+    private boolean isInitialized = false;
+    private long lastTimestamp = 0;
+
+
+    public OneEuroGravityFilter() {
+        this(MIN_CUTOFF, BETA);
+    }
+
+
+    /**
+     * @param minCutoff The cutoff frequency at rest, in Hz: lower values reduce the jitter
+     * @param beta The growth of the cutoff with the speed, in Hz per m/s^3: higher values reduce the lag
+     */
+    public OneEuroGravityFilter(float minCutoff, float beta) {
+        if ((minCutoff <= 0) || (beta < 0)) throw new IllegalArgumentException("Wrong parameters of the One Euro filter");
+        this.minCutoff = minCutoff;
+        this.beta = beta;
+    }
+
+
+    public float getMinCutoff() {
+        return minCutoff;
+    }
+
+
+    public float getBeta() {
+        return beta;
+    }
+
+
+    @Override
+    public void reset() {
+        isInitialized = false;
+        lastTimestamp = 0;
+    }
+
+
+    @Override
+    public void updateAngularVelocity(long timestamp, float x, float y, float z) {
+        // The gyroscope is not used
+    }
+
+
+    @Override
+    public void updateAcceleration(long timestamp, float x, float y, float z, float[] reference, float[] out) {
+        final float dt = (timestamp - lastTimestamp) * 1E-9f;
+        lastTimestamp = timestamp;
+        if (!isInitialized || (dt <= 0) || (dt > MAX_INTERVAL)) {
+            // (Re)starts from the accelerometer
+            gravity[0] = x;
+            gravity[1] = y;
+            gravity[2] = z;
+            derivative[0] = 0;
+            derivative[1] = 0;
+            derivative[2] = 0;
+            isInitialized = true;
+        } else {
+            final float derivativeAlpha = alpha(DERIVATIVE_CUTOFF, dt);
+            derivative[0] += derivativeAlpha * ((x - last[0]) / dt - derivative[0]);
+            derivative[1] += derivativeAlpha * ((y - last[1]) / dt - derivative[1]);
+            derivative[2] += derivativeAlpha * ((z - last[2]) / dt - derivative[2]);
+            final float speed = (float) Math.sqrt(derivative[0] * derivative[0] + derivative[1] * derivative[1] + derivative[2] * derivative[2]);
+
+            final float alpha = alpha(minCutoff + beta * speed, dt);
+            gravity[0] += alpha * (x - gravity[0]);
+            gravity[1] += alpha * (y - gravity[1]);
+            gravity[2] += alpha * (z - gravity[2]);
+        }
+        last[0] = x;
+        last[1] = y;
+        last[2] = z;
+        out[0] = gravity[0];
+        out[1] = gravity[1];
+        out[2] = gravity[2];
+    }
+
+
+    /**
+     * The weight of the new sample of an exponential low-pass filter with the given cutoff frequency.
+     */
+    private static float alpha(float cutoff, float dt) {
+        final float tau = (float) (1 / (2 * Math.PI * cutoff));
+        return dt / (tau + dt);
+    }
+}
@@ -0,0 +1,211 @@
+package eu.basicairdata.clinometer;
+
+import android.hardware.SensorManager;
+
+/**
+ * An orientation engine based on a unit quaternion, updated with the Mahony filter:
+ * the angular velocity of the gyroscope rotates the quaternion, and a proportional-integral
+ * feedback of the error between the measured and the estimated gravity (and, when available,
+ * magnetic field) removes the drift and the bias of the gyroscope.
+ *
+ * The state is made of primitive fields only, and nothing is allocated during the updates.
+ * The gravity is derived from the quaternion on demand; there is no gimbal lock near +-90°.
+ * The quaternion is initialized once, from the first acceleration: a gap in the data (longer than MAX_INTERVAL)
+ * skips the update of the feedback, and the fused orientation (with its yaw) is kept.
+ *
+ * The quaternion (q0, q1, q2, q3) rotates the frame of the device into the world frame (Z up).
+ * Used as a GravityFilter, it returns the gravity estimated by the quaternion.
+ */
+public class QuaternionOrientation implements GravityFilter {
+
+    private static final float KP = 3.0f;                   // Proportional gain (rad/s), ~ 1 / 0.33 s
+    private static final float KI = 0.05f;                  // Integral gain, for the bias of the gyroscope
+    private static final float MAX_INTERVAL = 0.1f;         // s, the longer intervals are skipped
+
+    private final float kp;
+    private final float ki;
+
+    // The quaternion
+    private float q0 = 1;
+    private float q1 = 0;
+    private float q2 = 0;
+    private float q3 = 0;
+
+    // The feedback, from the last acceleration
+    private float feedbackX = 0;
+    private float feedbackY = 0;
+    private float feedbackZ = 0;
+    private float integralX = 0;
+    private float integralY = 0;
+    private float integralZ = 0;
+
+    // The last magnetic field (normalized), if any
+    private float magneticX = 0;
+    private float magneticY = 0;
+    private float magneticZ = 0;
+    private boolean hasMagneticField = false;
+
+    private boolean isInitialized = false;
+    private long lastAccelerationTimestamp = 0;
+    private long lastAngularVelocityTimestamp = 0;
+
+
+    public QuaternionOrientation() {
+        this(KP, KI);
+    }
+
+
+    public QuaternionOrientation(float kp, float ki) {
+        this.kp = kp;
+        this.ki = ki;
+    }
+
+
+    @Override
+    public void reset() {
+        q0 = 1;
+        q1 = q2 = q3 = 0;
+        feedbackX = feedbackY = feedbackZ = 0;
+        integralX = integralY = integralZ = 0;
+        hasMagneticField = false;
+        isInitialized = false;
+        lastAccelerationTimestamp = 0;
+        lastAngularVelocityTimestamp = 0;
+    }
+
+
+    @Override
+    public void updateAngularVelocity(long timestamp, float x, float y, float z) {
+        final float dt = (timestamp - lastAngularVelocityTimestamp) * 1E-9f;
+        lastAngularVelocityTimestamp = timestamp;
+        if (!isInitialized || (dt <= 0) || (dt > MAX_INTERVAL)) return;
+        integrate(x + feedbackX, y + feedbackY, z + feedbackZ, dt);
+    }
+
+
+    @Override
+    public void updateAcceleration(long timestamp, float x, float y, float z, float[] reference, float[] gravity) {
+        final float dt = (timestamp - lastAccelerationTimestamp) * 1E-9f;
+        lastAccelerationTimestamp = timestamp;
+
+        final float norm = (float) Math.sqrt(x * x + y * y + z * z);
+        if (norm > 0) {
+            final float ax = x / norm;
+            final float ay = y / norm;
+            final float az = z / norm;
+            if (!isInitialized) {
+                initialize(ax, ay, az);
+            } else if ((dt > 0) && (dt <= MAX_INTERVAL)) {
+                // The error between the measured and the estimated up direction
+                final float vx = 2 * (q1 * q3 - q0 * q2);
+                final float vy = 2 * (q0 * q1 + q2 * q3);
+                final float vz = q0 * q0 - q1 * q1 - q2 * q2 + q3 * q3;
+                float ex = ay * vz - az * vy;
+                float ey = az * vx - ax * vz;
+                float ez = ax * vy - ay * vx;
+
+                if (hasMagneticField) {
+                    // The error between the measured and the estimated direction of the magnetic field
+                    final float mx = magneticX;
+                    final float my = magneticY;
+                    final float mz = magneticZ;
+                    final float hx = 2 * (mx * (0.5f - q2 * q2 - q3 * q3) + my * (q1 * q2 - q0 * q3) + mz * (q1 * q3 + q0 * q2));
+                    final float hy = 2 * (mx * (q1 * q2 + q0 * q3) + my * (0.5f - q1 * q1 - q3 * q3) + mz * (q2 * q3 - q0 * q1));
+                    final float bx = (float) Math.sqrt(hx * hx + hy * hy);
+                    final float bz = 2 * (mx * (q1 * q3 - q0 * q2) + my * (q2 * q3 + q0 * q1) + mz * (0.5f - q1 * q1 - q2 * q2));
+                    final float wx = 2 * (bx * (0.5f - q2 * q2 - q3 * q3) + bz * (q1 * q3 - q0 * q2));
+                    final float wy = 2 * (bx * (q1 * q2 - q0 * q3) + bz * (q0 * q1 + q2 * q3));
+                    final float wz = 2 * (bx * (q0 * q2 + q1 * q3) + bz * (0.5f - q1 * q1 - q2 * q2));
+                    ex += my * wz - mz * wy;
+                    ey += mz * wx - mx * wz;
+                    ez += mx * wy - my * wx;
+                }
+
+                integralX += ki * ex * dt;
+                integralY += ki * ey * dt;
+                integralZ += ki * ez * dt;
+                feedbackX = kp * ex + integralX;
+                feedbackY = kp * ey + integralY;
+                feedbackZ = kp * ez + integralZ;
+
+                // Without the gyroscope the feedback is applied here
+                if ((timestamp - lastAngularVelocityTimestamp) * 1E-9f > MAX_INTERVAL) integrate(feedbackX, feedbackY, feedbackZ, dt);
+            }
+        }
+        getGravity(gravity);
+    }
+
+
+    /**
+     * Feeds a sample of the magnetometer. It corrects the heading; the tilt doesn't need it.
+     */
+    public void updateMagneticField(float x, float y, float z) {
+        final float norm = (float) Math.sqrt(x * x + y * y + z * z);
+        if (norm == 0) return;
+        magneticX = x / norm;
+        magneticY = y / norm;
+        magneticZ = z / norm;
+        hasMagneticField = true;
+    }
+
+
+    // ----------------------------------------------------------------------------- Output, on demand
+
+
+    /**
+     * The gravity (up direction times g) in the frame of the device, in m/s^2.
+     */
+    public void getGravity(float[] out) {
+        out[0] = 2 * (q1 * q3 - q0 * q2) * SensorManager.GRAVITY_EARTH;
+        out[1] = 2 * (q0 * q1 + q2 * q3) * SensorManager.GRAVITY_EARTH;
+        out[2] = (q0 * q0 - q1 * q1 - q2 * q2 + q3 * q3) * SensorManager.GRAVITY_EARTH;
+    }
+
+
+    // ----------------------------------------------------------------------------- Internals
+
+
+    /**
+     * Rotates the quaternion with the angular velocity w (rad/s) for dt seconds: q' = q + 0.5 q * (0, w) dt.
+     */
+    private void integrate(float wx, float wy, float wz, float dt) {
+        final float h = 0.5f * dt;
+        final float a = q0;
+        final float b = q1;
+        final float c = q2;
+        q0 += (-b * wx - c * wy - q3 * wz) * h;
+        q1 += (a * wx + c * wz - q3 * wy) * h;
+        q2 += (a * wy - b * wz + q3 * wx) * h;
+        q3 += (a * wz + b * wy - c * wx) * h;
+        normalize();
+    }
+
+
+    /**
+     * Sets the quaternion from the up direction measured by the accelerometer (the yaw is 0).
+     */
+    private void initialize(float ax, float ay, float az) {
+        final double roll = Math.atan2(ay, az);
+        final double pitch = Math.atan2(-ax, Math.sqrt(ay * ay + az * az));
+        final double cr = Math.cos(roll / 2);
+        final double sr = Math.sin(roll / 2);
+        final double cp = Math.cos(pitch / 2);
+        final double sp = Math.sin(pitch / 2);
+        q0 = (float) (cr * cp);
+        q1 = (float) (sr * cp);
+        q2 = (float) (cr * sp);
+        q3 = (float) (-sr * sp);
+        normalize();
+        feedbackX = feedbackY = feedbackZ = 0;
+        isInitialized = true;
+    }
+
+
+    private void normalize() {
+        final float norm = (float) Math.sqrt(q0 * q0 + q1 * q1 + q2 * q2 + q3 * q3);
+        q0 /= norm;
+        q1 /= norm;
+        q2 /= norm;
+        q3 /= norm;
+    }
+}
@@ -0,0 +1,145 @@
+package eu.basicairdata.clinometer;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A SensorProvider that replays a session recorded by a SensorSessionWriter.
+ *
+ * The samples are played by a SensorSessionPlayer on a dedicated thread, and delivered to the listener
+ * on the SensorProcessingThread, exactly as the samples of a live sensor.
+ * The session can be replayed at the original timing (speed = 1), N times faster (speed = N),
+ * or as fast as possible (SPEED_MAX).
+ * The recorded timestamps are delivered unchanged, so the results of the pipeline
+ * do not depend on the speed of the replay; a looping replay shifts the timestamps of each pass
+ * after the ones of the previous pass, so that they keep increasing.
+ */
+public class ReplaySensorProvider extends SensorProvider {
+
+    public static final float SPEED_MAX = SensorSessionPlayer.SPEED_MAX;
+
+    private static final String TAG = "ReplaySensorProvider";
+
+    private final File file;
+    private final float speed;
+    private final boolean isLooping;
+
+    private volatile Thread replayThread;
+    private volatile boolean isCompleted = false;
+    private long loopOffset = 0;                            // Added to the recorded timestamps, on the replay thread
+
+
+    /**
+     * @param file The recorded session
+     * @param speed The speed of the replay (1 = original timing), or SPEED_MAX
+     * @param isLooping true to restart from the beginning at the end of the session
+     */
+    public ReplaySensorProvider(Context context, File file, float speed, boolean isLooping) {
+        super(context);
+        this.file = file;
+        this.speed = speed;
+        this.isLooping = isLooping;
+    }
+
+
+    @Override
+    public void register(SensorDataListener listener, int sensorType, int delay) {
+        // The samples are replayed at the rate of the recording, the delay is not used
+        this.listener = listener;
+        if (replayThread != null) return;
+        isCompleted = false;
+        replayThread = new Thread(this::replay, TAG);
+        replayThread.start();
+    }
+
+
+    @Override
+    public void unregister() {
+        final Thread thread = replayThread;
+        replayThread = null;
+        if (thread != null) thread.interrupt();
+        listener = null;
+    }
+
+
+    @Override
+    public boolean contains(int sensorType) {
+        // The session can contain all the types recorded by the live providers
+        return sensorType == Sensor.TYPE_ACCELEROMETER || sensorType == Sensor.TYPE_GYROSCOPE
+                || sensorType == Sensor.TYPE_MAGNETIC_FIELD || sensorType == WITDeviceChannel.TYPE_DEVICE_ANGLE;
+    }
+
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        // The phone sensors are not used by this provider
+    }
+
+
+    /**
+     * Returns true when the whole session has been replayed.
+     */
+    public boolean isCompleted() {
+        return isCompleted;
+    }
+
+
+    private void replay() {
+        final SensorSessionPlayer player = new SensorSessionPlayer(speed);
+        // Publishes the samples played; as fast as possible, waits for the listener when the queue is full
+        final SensorDataListener publisher = new SensorDataListener() {
+            @Override
+            public void onSensorChanged(SensorData data) {
+                publishSample(data.timestamp, data.sensorType, data.x, data.y, data.z);
+            }
+
+            @Override
+            public void onSensorBatch(int[] sensorTypes, long[] timestamps, float[] values, int count) {
+                for (int i = 0; i < count; i++) {
+                    publishSample(timestamps[i], sensorTypes[i], values[3 * i], values[3 * i + 1], values[3 * i + 2]);
+                }
+            }
+
+            @Override
+            public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+        };
+        loopOffset = 0;
+        try {
+            do {
+                try (SensorSessionReader reader = new SensorSessionReader(file)) {
+                    player.play(reader, publisher);
+                }
+                loopOffset += player.getLoopDuration();
+            } while (isLooping && replayThread == Thread.currentThread());
+            // Completed only at the end of the session: a looping or stopped replay never completes
+            if (!isLooping && replayThread == Thread.currentThread()) isCompleted = true;
+        } catch (InterruptedException e) {
+            // Replay stopped
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to replay " + file + ": " + e.getMessage());
+        }
+    }
+
+
+    private void publishSample(long recordedTimestamp, int sensorType, float x, float y, float z) {
+        final long timestamp = recordedTimestamp + loopOffset;
+        if (speed != SPEED_MAX) {
+            publish(timestamp, sensorType, x, y, z);
+            return;
+        }
+        while (!publish(timestamp, sensorType, x, y, z)) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                // Stops the replay at the next sample
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package eu.basicairdata.clinometer;
+
+/**
+ * A batch of samples, packed into primitive arrays.
+ * The samples of different sensors are interleaved in the order in which they have been added:
+ * sensorTypes[i] is the type of the sample taken at timestamps[i], and
+ * values[3*i], values[3*i+1] and values[3*i+2] are its x, y and z.
+ */
+public class SensorBatch {
+
+    public final int[] sensorTypes;
+    public final long[] timestamps;
+    public final float[] values;
+    public int count = 0;
+
+    public SensorBatch(int capacity) {
+        this.sensorTypes = new int[capacity];
+        this.timestamps = new long[capacity];
+        this.values = new float[capacity * 3];
+    }
+
+    /**
+     * Adds a sample to the batch.
+     * @return false if the batch is full
+     */
+    public boolean add(long timestamp, int sensorType, float x, float y, float z) {
+        if (count == timestamps.length) return false;
+        sensorTypes[count] = sensorType;
+        timestamps[count] = timestamp;
+        final int i = count * 3;
+        values[i] = x;
+        values[i + 1] = y;
+        values[i + 2] = z;
+        count++;
+        return true;
+    }
+
+    public boolean isFull() {
+        return count == timestamps.length;
+    }
+
+    public void clear() {
+        count = 0;
+    }
+}
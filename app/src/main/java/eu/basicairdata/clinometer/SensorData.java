@@ -2,29 +2,50 @@ package eu.basicairdata.clinometer;
 
 import android.hardware.SensorEvent;
 
+/**
+ * A sample of a 3-axis sensor.
+ *
+ * The instances are mutable and reused by the providers in order to avoid allocations
+ * on the ingest path. The listener owns the sample only during the
+ * SensorDataListener.onSensorChanged call: it must not keep a reference to it,
+ * and must copy the values (or use copyFrom) if they are needed later.
+ *
+ * The samples that must cross threads travel into a SensorSampleRing.
+ */
 public class SensorData {
-    public final long timestamp;
-    public final int sensorType;
-    public final float x;
-    public final float y;
-    public final float z;
+
+    public long timestamp;
+    public int sensorType;
+    public float x;
+    public float y;
+    public float z;
 
     public static SensorData from(SensorEvent event) {
-        final float[] values = event.values;
-        return new SensorData(
-                event.timestamp,
-                event.sensor.getType(),
-                values[0],
-                values[1],
-                values[2]
-        );
+        return new SensorData().set(event);
+    }
+
+    public SensorData() {
     }
 
     public SensorData(long timestamp, int sensorType, float x, float y, float z) {
+        set(timestamp, sensorType, x, y, z);
+    }
+
+    public SensorData set(long timestamp, int sensorType, float x, float y, float z) {
         this.timestamp = timestamp;
         this.sensorType = sensorType;
         this.x = x;
         this.y = y;
         this.z = z;
+        return this;
+    }
+
+    public SensorData set(SensorEvent event) {
+        final float[] values = event.values;
+        return set(event.timestamp, event.sensor.getType(), values[0], values[1], values[2]);
+    }
+
+    public SensorData copyFrom(SensorData data) {
+        return set(data.timestamp, data.sensorType, data.x, data.y, data.z);
     }
-}
\ No newline at end of file
+}
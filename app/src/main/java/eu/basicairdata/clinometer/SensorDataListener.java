@@ -3,7 +3,25 @@ package eu.basicairdata.clinometer;
 import android.hardware.Sensor;
 
 public interface SensorDataListener {
+    /**
+     * Called when a new sample is available.
+     * The sample is owned by the provider and is valid only during this call (see SensorData).
+     */
     void onSensorChanged(SensorData data);
 
+    /**
+     * Called when a batch of samples is available.
+     * The samples of the different sensors are interleaved in the order in which they have been received
+     * (chronological for each source), so the fusion filters see the real order of the accelerometer and of the gyroscope.
+     * The values are packed as x0, y0, z0, x1, y1, z1, ...
+     * The arrays are owned by the provider and are valid only during this call.
+     *
+     * @param sensorTypes The types of the sensors of the samples (Sensor.TYPE_*)
+     * @param timestamps The timestamps of the samples, in nanoseconds
+     * @param values The values of the samples, 3 per sample
+     * @param count The number of samples
+     */
+    void onSensorBatch(int[] sensorTypes, long[] timestamps, float[] values, int count);
+
     void onAccuracyChanged(Sensor sensor, int accuracy);
-}
\ No newline at end of file
+}
@@ -0,0 +1,99 @@
+package eu.basicairdata.clinometer;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Moves the samples published by the thread of a sensor to the thread of a Looper
+ * (the SensorProcessingThread by default), where they are delivered to the SensorDataListener in batches.
+ * The samples are queued into a lock-free SensorSampleRing, so publish() never blocks.
+ */
+public class SensorDispatcher {
+
+    private static final int DEFAULT_CAPACITY = 1024;       // About 2.5 s of samples at 200 Hz (acc + gyro)
+    private static final int MSG_DRAIN = 1;
+
+    private volatile SensorDataListener listener;
+
+    private final SensorSampleRing ring;
+    private final AtomicBoolean isDrainScheduled = new AtomicBoolean(false);
+    private final SensorData drainedSample = new SensorData();
+    private final SensorBatch batch;
+    private final Handler deliveryHandler;
+
+
+    public SensorDispatcher() {
+        this(SensorProcessingThread.getProcessingLooper(), DEFAULT_CAPACITY);
+    }
+
+
+    public SensorDispatcher(Looper looper, int capacity) {
+        ring = new SensorSampleRing(capacity);
+        batch = new SensorBatch(ring.capacity());
+        deliveryHandler = new Handler(looper, new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                drain();
+                return true;
+            }
+        });
+    }
+
+
+    public void setListener(SensorDataListener listener) {
+        this.listener = listener;
+    }
+
+
+    public SensorDataListener getListener() {
+        return listener;
+    }
+
+
+    /**
+     * Queues a sample for the listener. It must be called always from the same thread.
+     * @return false if the queue is full and the sample has been discarded
+     */
+    public boolean publish(long timestamp, int sensorType, float x, float y, float z) {
+        final boolean queued = ring.offer(timestamp, sensorType, x, y, z);
+        // The atomic getAndSet orders the publication of the sample (the lazySet of the tail) before the read of the flag:
+        // a plain read could see the flag of a drain that has already cleared it and is reading the old tail,
+        // and the sample would wait for the next publish()
+        if (!isDrainScheduled.getAndSet(true)) deliveryHandler.sendEmptyMessage(MSG_DRAIN);
+        return queued;
+    }
+
+
+    /**
+     * The number of samples discarded because the listener was not able to keep up.
+     */
+    public long getOverflows() {
+        return ring.getOverflows();
+    }
+
+
+    /**
+     * Delivers the queued samples to the listener, in a SensorBatch, in the order in which they have been published.
+     * It runs on the thread of the Looper; the unit tests, without a Looper, call it directly.
+     */
+    void drain() {
+        // The flag is cleared (by a volatile write, ordered before the reads of the tail) before reading,
+        // so a sample published during the drain schedules a new one
+        isDrainScheduled.set(false);
+        final SensorDataListener listener = this.listener;
+        while (ring.poll(drainedSample)) {
+            if (batch.isFull()) dispatch(listener);
+            batch.add(drainedSample.timestamp, drainedSample.sensorType, drainedSample.x, drainedSample.y, drainedSample.z);
+        }
+        if (batch.count > 0) dispatch(listener);
+    }
+
+
+    private void dispatch(SensorDataListener listener) {
+        if (listener != null) listener.onSensorBatch(batch.sensorTypes, batch.timestamps, batch.values, batch.count);
+        batch.clear();
+    }
+}
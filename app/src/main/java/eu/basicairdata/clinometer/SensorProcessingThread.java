@@ -0,0 +1,33 @@
+package eu.basicairdata.clinometer;
+
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * The thread where the sensor samples are delivered and processed.
+ * It runs with the priority of the display, so that the signal processing is not delayed
+ * by the UI, and it keeps the UI thread free for the layout and the drawing.
+ * The thread is shared by all the SensorDispatchers and is started the first time it is used.
+ */
+public class SensorProcessingThread extends HandlerThread {
+
+    private static SensorProcessingThread instance;
+
+
+    private SensorProcessingThread() {
+        super("SensorProcessing", Process.THREAD_PRIORITY_DISPLAY);
+    }
+
+
+    /**
+     * Returns the Looper of the processing thread, starting the thread if needed.
+     */
+    public static synchronized Looper getProcessingLooper() {
+        if (instance == null) {
+            instance = new SensorProcessingThread();
+            instance.start();
+        }
+        return instance.getLooper();
+    }
+}
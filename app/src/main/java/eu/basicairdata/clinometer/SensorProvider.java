@@ -4,10 +4,14 @@ import android.content.Context;
 import android.hardware.Sensor;
 import android.hardware.SensorManager;
 import android.hardware.SensorEventListener;
+
 public abstract class SensorProvider implements SensorEventListener {
     protected final Context context;
     protected final SensorManager manager;
-    protected SensorDataListener listener;
+    protected volatile SensorDataListener listener;
+
+    // The samples published by the thread of the sensor are delivered on the SensorProcessingThread
+    private final SensorDispatcher dispatcher = new SensorDispatcher();
 
     public SensorProvider(Context context) {
         this.context = context;
@@ -27,4 +31,21 @@ public abstract class SensorProvider implements SensorEventListener {
     public void onAccuracyChanged(Sensor sensor, int accuracy) {}
 
     public abstract boolean contains(int sensorType);
+
+    /**
+     * Queues a sample for the listener. It can be called from the thread of the sensor,
+     * always the same one; the sample will be delivered on the SensorProcessingThread.
+     * @return false if the queue is full and the sample has been discarded
+     */
+    protected boolean publish(long timestamp, int sensorType, float x, float y, float z) {
+        dispatcher.setListener(listener);
+        return dispatcher.publish(timestamp, sensorType, x, y, z);
+    }
+
+    /**
+     * The number of samples discarded because the listener was not able to keep up.
+     */
+    public long getOverflows() {
+        return dispatcher.getOverflows();
+    }
 }
@@ -0,0 +1,351 @@
+package eu.basicairdata.clinometer;
+
+import android.hardware.Sensor;
+
+/**
+ * Aligns the samples of the accelerometer and of the gyroscope on a common, fixed-rate time grid.
+ *
+ * The resampler is a SensorDataListener placed in front of another one.
+ * The samples received, at the cadence of each sensor, are linearly interpolated at the
+ * times of the grid; the next listener receives batches of equally spaced samples,
+ * with the same timestamps for the accelerometer and the gyroscope: at each grid point
+ * the gyroscope sample precedes the accelerometer sample.
+ * A grid point is emitted only when both sensors have samples after it, so the output
+ * has a latency of about one sample of the slowest sensor.
+ * The samples of the other sensors (e.g. the magnetometer) are passed through, after the grid points
+ * already covered by the data.
+ * The grid points that fall into a gap of the data longer than maxGap are skipped.
+ * If the gyroscope sends no samples for GYROSCOPE_TIMEOUT while the accelerometer does, the accelerometer
+ * is resampled alone (the gyroscope, if it comes back, is aligned again), so the output never stalls.
+ * The samples older than the previous one of the same sensor (e.g. duplicated timestamps) are dropped and counted.
+ *
+ * The resampler also measures the jitter of the intervals between the input samples of each sensor.
+ */
+public class SensorResampler implements SensorDataListener {
+
+    private static final int INPUT_CAPACITY = 2048;         // Samples buffered for each sensor
+    private static final int OUTPUT_CAPACITY = 512;         // Samples per output batch
+    private static final int MAX_GAP_PERIODS = 10;          // The default maxGap, in grid periods
+    private static final long GYROSCOPE_TIMEOUT = 1000000000L;  // ns
+
+    private final SensorDataListener next;
+    private final long period;                              // The interval of the grid, ns
+    private final long maxGap;                              // ns
+    private final boolean useGyroscope;
+
+    private final Stream acceleration = new Stream();
+    private final Stream angularVelocity = new Stream();
+
+    private long nextGridTimestamp = Long.MIN_VALUE;
+    private long skippedGridPoints = 0;
+    private long droppedSamples = 0;
+    private boolean isGyroscopeMissing = false;             // True while the accelerometer is resampled alone
+
+    private final SensorBatch output = new SensorBatch(OUTPUT_CAPACITY);
+    private final float[] interpolated = new float[3];
+
+
+    /**
+     * @param next The listener of the resampled data
+     * @param rate The rate of the grid, in Hz
+     * @param useGyroscope true to align the gyroscope too; if false only the accelerometer is resampled
+     */
+    public SensorResampler(SensorDataListener next, int rate, boolean useGyroscope) {
+        this.next = next;
+        this.period = 1000000000L / rate;
+        this.maxGap = period * MAX_GAP_PERIODS;
+        this.useGyroscope = useGyroscope;
+    }
+
+
+    /**
+     * Discards the buffered samples and restarts the grid.
+     */
+    public void reset() {
+        acceleration.reset();
+        angularVelocity.reset();
+        nextGridTimestamp = Long.MIN_VALUE;
+        isGyroscopeMissing = false;
+        output.clear();
+    }
+
+
+    // ----------------------------------------------------------------------------- Statistics
+
+
+    /**
+     * The mean interval between the input samples of the given sensor, in ns.
+     */
+    public double getMeanInterval(int sensorType) {
+        return getStream(sensorType).intervalMean;
+    }
+
+
+    /**
+     * The jitter (the standard deviation of the intervals) of the input samples of the given sensor, in ns.
+     */
+    public double getJitter(int sensorType) {
+        final Stream stream = getStream(sensorType);
+        return stream.intervals > 1 ? Math.sqrt(stream.intervalM2 / (stream.intervals - 1)) : 0;
+    }
+
+
+    /**
+     * The longest interval between the input samples of the given sensor, in ns.
+     */
+    public long getMaxInterval(int sensorType) {
+        return getStream(sensorType).intervalMax;
+    }
+
+
+    /**
+     * The number of grid points skipped because of gaps in the input data.
+     */
+    public long getSkippedGridPoints() {
+        return skippedGridPoints;
+    }
+
+
+    /**
+     * The number of input samples dropped because not after the previous sample of the same sensor.
+     */
+    public long getDroppedSamples() {
+        return droppedSamples;
+    }
+
+
+    /**
+     * True if the gyroscope is expected but missing, and the accelerometer is resampled alone.
+     */
+    public boolean isGyroscopeMissing() {
+        return isGyroscopeMissing;
+    }
+
+
+    private Stream getStream(int sensorType) {
+        return sensorType == Sensor.TYPE_GYROSCOPE ? angularVelocity : acceleration;
+    }
+
+
+    // ----------------------------------------------------------------------------- Input
+
+
+    @Override
+    public void onSensorChanged(SensorData data) {
+        load(data.timestamp, data.sensorType, data.x, data.y, data.z);
+        resample();
+        flush();
+    }
+
+
+    @Override
+    public void onSensorBatch(int[] sensorTypes, long[] timestamps, float[] values, int count) {
+        for (int i = 0; i < count; i++) load(timestamps[i], sensorTypes[i], values[3 * i], values[3 * i + 1], values[3 * i + 2]);
+        resample();
+        flush();
+    }
+
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        next.onAccuracyChanged(sensor, accuracy);
+    }
+
+
+    // ----------------------------------------------------------------------------- Resampling
+
+
+    /**
+     * Adds a sample to the stream of its sensor.
+     * The samples of the other sensors are not resampled: they are queued for the next listener
+     * after the grid points already covered by the data.
+     */
+    private void load(long timestamp, int sensorType, float x, float y, float z) {
+        final Stream stream;
+        if (sensorType == Sensor.TYPE_ACCELEROMETER) stream = acceleration;
+        else if (useGyroscope && (sensorType == Sensor.TYPE_GYROSCOPE)) {
+            stream = angularVelocity;
+            if (isGyroscopeMissing && (timestamp >= nextGridTimestamp)) {
+                // The gyroscope is back: it is aligned again from the next grid point
+                isGyroscopeMissing = false;
+                angularVelocity.reset();
+            }
+        } else {
+            resample();
+            emit(timestamp, sensorType, x, y, z);
+            return;
+        }
+        if (stream.isFull()) resample();
+        if (!stream.add(timestamp, x, y, z)) droppedSamples++;
+    }
+
+
+    /**
+     * Queues all the grid points covered by the data of both sensors for the next listener.
+     */
+    private void resample() {
+        if (acceleration.count == 0) return;
+        if (useGyroscope && !isGyroscopeMissing) {
+            // Without gyroscope samples since GYROSCOPE_TIMEOUT, the accelerometer goes on alone
+            final long gyroscopeTimestamp = angularVelocity.count > 0
+                    ? angularVelocity.getLastTimestamp() : acceleration.timestamps[0];
+            if (acceleration.getLastTimestamp() - gyroscopeTimestamp > GYROSCOPE_TIMEOUT) {
+                isGyroscopeMissing = true;
+                angularVelocity.reset();
+            } else if (angularVelocity.count == 0) return;
+        }
+        final boolean isAligned = useGyroscope && !isGyroscopeMissing;
+
+        if (nextGridTimestamp == Long.MIN_VALUE) {
+            // The grid starts at the first multiple of the period covered by both sensors
+            long first = acceleration.timestamps[0];
+            if (isAligned) first = Math.max(first, angularVelocity.timestamps[0]);
+            nextGridTimestamp = ((first + period - 1) / period) * period;
+        }
+
+        long last = acceleration.getLastTimestamp();
+        if (isAligned) last = Math.min(last, angularVelocity.getLastTimestamp());
+
+        while (nextGridTimestamp <= last) {
+            if (acceleration.isGap(nextGridTimestamp, maxGap) || (isAligned && angularVelocity.isGap(nextGridTimestamp, maxGap))) {
+                skippedGridPoints++;
+            } else {
+                // The gyroscope first: the rotation up to the grid point is integrated before the acceleration is applied
+                if (isAligned) {
+                    angularVelocity.interpolate(nextGridTimestamp, interpolated);
+                    emit(nextGridTimestamp, Sensor.TYPE_GYROSCOPE, interpolated[0], interpolated[1], interpolated[2]);
+                }
+                acceleration.interpolate(nextGridTimestamp, interpolated);
+                emit(nextGridTimestamp, Sensor.TYPE_ACCELEROMETER, interpolated[0], interpolated[1], interpolated[2]);
+            }
+            nextGridTimestamp += period;
+        }
+
+        acceleration.discardBefore(nextGridTimestamp);
+        angularVelocity.discardBefore(nextGridTimestamp);
+    }
+
+
+    /**
+     * Queues a sample for the next listener.
+     */
+    private void emit(long timestamp, int sensorType, float x, float y, float z) {
+        if (output.isFull()) flush();
+        output.add(timestamp, sensorType, x, y, z);
+    }
+
+
+    /**
+     * Delivers the queued samples to the next listener.
+     */
+    private void flush() {
+        if (output.count == 0) return;
+        next.onSensorBatch(output.sensorTypes, output.timestamps, output.values, output.count);
+        output.clear();
+    }
+
+
+    /**
+     * The buffered input samples of a sensor, with a cursor on the interval being interpolated.
+     */
+    private static class Stream {
+        final long[] timestamps = new long[INPUT_CAPACITY];
+        final float[] values = new float[INPUT_CAPACITY * 3];
+        int count = 0;
+        int cursor = 0;
+
+        // The statistics of the intervals between the samples (Welford)
+        long lastTimestamp = Long.MIN_VALUE;
+        long intervals = 0;
+        double intervalMean = 0;
+        double intervalM2 = 0;
+        long intervalMax = 0;
+
+        boolean isFull() {
+            return count == INPUT_CAPACITY;
+        }
+
+        long getLastTimestamp() {
+            return timestamps[count - 1];
+        }
+
+        /**
+         * @return false if the sample has been dropped, because out of order or duplicated
+         */
+        boolean add(long timestamp, float x, float y, float z) {
+            if ((count > 0) && (timestamp <= timestamps[count - 1])) return false;
+            if (lastTimestamp != Long.MIN_VALUE) {
+                final long interval = timestamp - lastTimestamp;
+                intervals++;
+                final double delta = interval - intervalMean;
+                intervalMean += delta / intervals;
+                intervalM2 += delta * (interval - intervalMean);
+                if (interval > intervalMax) intervalMax = interval;
+            }
+            lastTimestamp = timestamp;
+            if (isFull()) discard(count / 2);
+            timestamps[count] = timestamp;
+            final int i = count * 3;
+            values[i] = x;
+            values[i + 1] = y;
+            values[i + 2] = z;
+            count++;
+            return true;
+        }
+
+        /**
+         * Moves the cursor on the interval that contains t.
+         * @return true if t falls into a gap longer than maxGap
+         */
+        boolean isGap(long t, long maxGap) {
+            while ((cursor < count - 2) && (timestamps[cursor + 1] <= t)) cursor++;
+            final long t0 = timestamps[cursor];
+            if ((cursor == count - 1) || (t <= t0)) return false;
+            return timestamps[cursor + 1] - t0 > maxGap;
+        }
+
+        /**
+         * Interpolates the samples at time t into out[0..2]; isGap(t) must have been called before.
+         */
+        void interpolate(long t, float[] out) {
+            final long t0 = timestamps[cursor];
+            final int i = cursor * 3;
+            if ((cursor == count - 1) || (t <= t0)) {
+                out[0] = values[i];
+                out[1] = values[i + 1];
+                out[2] = values[i + 2];
+                return;
+            }
+            final float f = (float) (t - t0) / (timestamps[cursor + 1] - t0);
+            out[0] = values[i] + (values[i + 3] - values[i]) * f;
+            out[1] = values[i + 1] + (values[i + 4] - values[i + 1]) * f;
+            out[2] = values[i + 2] + (values[i + 5] - values[i + 2]) * f;
+        }
+
+        /**
+         * Discards the samples not needed to interpolate at t or later.
+         */
+        void discardBefore(long t) {
+            int keep = 0;
+            while ((keep < count - 1) && (timestamps[keep + 1] <= t)) keep++;
+            if (keep > 0) discard(keep);
+        }
+
+        void discard(int n) {
+            System.arraycopy(timestamps, n, timestamps, 0, count - n);
+            System.arraycopy(values, n * 3, values, 0, (count - n) * 3);
+            count -= n;
+            cursor = Math.max(0, cursor - n);
+        }
+
+        void reset() {
+            count = 0;
+            cursor = 0;
+            lastTimestamp = Long.MIN_VALUE;
+            intervals = 0;
+            intervalMean = 0;
+            intervalM2 = 0;
+            intervalMax = 0;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package eu.basicairdata.clinometer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free single-producer / single-consumer ring buffer of sensor samples.
+ *
+ * The records (timestamp, type, x, y, z) are stored into preallocated primitive arrays,
+ * so the hot path allocates nothing and takes no locks.
+ * offer() must be called always by the same (producer) thread, and
+ * poll() always by the same (consumer) thread.
+ *
+ * When the buffer is full the new samples are rejected and counted as overflows,
+ * so a burst never overwrites the samples not yet consumed.
+ */
+public class SensorSampleRing {
+
+    private final int mask;
+    private final long[] timestamp;
+    private final int[] sensorType;
+    private final float[] x;
+    private final float[] y;
+    private final float[] z;
+
+    private final AtomicLong head = new AtomicLong(0);      // The next record to read (written by the consumer)
+    private final AtomicLong tail = new AtomicLong(0);      // The next record to write (written by the producer)
+
+    private volatile long overflows = 0;                    // The number of rejected samples (written by the producer)
+    private volatile int highWaterMark = 0;                 // The max number of samples waiting (written by the producer)
+
+
+    /**
+     * Creates a new ring buffer.
+     * @param capacity The number of records, rounded up to the next power of 2
+     */
+    public SensorSampleRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        mask = size - 1;
+        timestamp = new long[size];
+        sensorType = new int[size];
+        x = new float[size];
+        y = new float[size];
+        z = new float[size];
+    }
+
+
+    /**
+     * Adds a sample. To be called by the producer thread only.
+     * @return false if the buffer is full and the sample has been discarded
+     */
+    public boolean offer(long timestamp, int sensorType, float x, float y, float z) {
+        final long t = tail.get();
+        final int waiting = (int) (t - head.get());
+        if (waiting > mask) {
+            overflows++;
+            return false;
+        }
+        final int i = (int) t & mask;
+        this.timestamp[i] = timestamp;
+        this.sensorType[i] = sensorType;
+        this.x[i] = x;
+        this.y[i] = y;
+        this.z[i] = z;
+        if (waiting >= highWaterMark) highWaterMark = waiting + 1;
+        tail.lazySet(t + 1);                                // Publishes the record to the consumer
+        return true;
+    }
+
+
+    /**
+     * Moves the oldest sample into the given SensorData. To be called by the consumer thread only.
+     * @return false if the buffer is empty
+     */
+    public boolean poll(SensorData out) {
+        final long h = head.get();
+        if (h == tail.get()) return false;
+        final int i = (int) h & mask;
+        out.set(timestamp[i], sensorType[i], x[i], y[i], z[i]);
+        head.lazySet(h + 1);                                // Frees the slot for the producer
+        return true;
+    }
+
+
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+
+    public long getOverflows() {
+        return overflows;
+    }
+
+
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+}
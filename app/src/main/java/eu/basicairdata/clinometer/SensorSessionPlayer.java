@@ -0,0 +1,101 @@
+package eu.basicairdata.clinometer;
+
+import java.io.IOException;
+
+/**
+ * Plays a session recorded by a SensorSessionWriter into a SensorDataListener (for example a SensorResampler,
+ * followed by the filters), on the calling thread.
+ *
+ * The samples are delivered in batches, in the order of the file, with the recorded timestamps:
+ * at the original timing (speed = 1), N times faster (speed = N), or as fast as possible (SPEED_MAX).
+ * With a timing, a batch contains the samples whose time has come; as fast as possible, it contains BATCH_CAPACITY samples.
+ * The results of the listeners do not depend on the speed of the replay.
+ *
+ * It does not depend on Android, so the pipeline can be replayed and measured also on a desktop JVM;
+ * on the device the ReplaySensorProvider plays the sessions into the SensorProcessingThread.
+ */
+public class SensorSessionPlayer {
+
+    public static final float SPEED_MAX = 0;
+
+    private static final int BATCH_CAPACITY = 256;
+
+    private final float speed;
+    private final SensorBatch batch = new SensorBatch(BATCH_CAPACITY);
+    private final SensorData sample = new SensorData();
+
+    // The span of the last session played, for the offset of a looping replay
+    private long firstTimestamp = 0;
+    private long lastTimestamp = 0;
+    private long samplePeriod = 0;
+
+
+    /**
+     * @param speed The speed of the replay (1 = original timing), or SPEED_MAX
+     */
+    public SensorSessionPlayer(float speed) {
+        if (speed < 0) throw new IllegalArgumentException("Wrong speed of the replay");
+        this.speed = speed;
+    }
+
+
+    public float getSpeed() {
+        return speed;
+    }
+
+
+    /**
+     * The offset to add to the timestamps of the next pass of a looping replay, so that they continue
+     * the ones of the last session played: its duration, plus the mean interval between the samples
+     * of the sensor type of its first sample.
+     */
+    public long getLoopDuration() {
+        return lastTimestamp - firstTimestamp + Math.max(samplePeriod, 1);
+    }
+
+
+    /**
+     * Plays the whole session into the listener. The reader is not closed.
+     * The replay stops, with an InterruptedException, when the thread is interrupted.
+     *
+     * @return The number of samples played
+     */
+    public long play(SensorSessionReader reader, SensorDataListener listener) throws IOException, InterruptedException {
+        long samples = 0;
+        long startTime = 0;
+        int firstSensorType = 0;
+        long samplesOfFirstType = 0;
+        batch.clear();
+        while (reader.read(sample)) {
+            if (samples == 0) {
+                firstTimestamp = sample.timestamp;
+                firstSensorType = sample.sensorType;
+                startTime = System.nanoTime();
+            }
+            lastTimestamp = sample.timestamp;
+            if (sample.sensorType == firstSensorType) samplesOfFirstType++;
+            if (speed != SPEED_MAX) {
+                // Waits for the time of the sample, scaled by the speed of the replay
+                final long delay = startTime + (long) ((sample.timestamp - firstTimestamp) / speed) - System.nanoTime();
+                if (delay > 0) {
+                    flush(listener);
+                    Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+                }
+            }
+            if (Thread.interrupted()) throw new InterruptedException();
+            if (batch.isFull()) flush(listener);
+            batch.add(sample.timestamp, sample.sensorType, sample.x, sample.y, sample.z);
+            samples++;
+        }
+        flush(listener);
+        samplePeriod = samplesOfFirstType > 1 ? (lastTimestamp - firstTimestamp) / (samplesOfFirstType - 1) : 0;
+        return samples;
+    }
+
+
+    private void flush(SensorDataListener listener) {
+        if (batch.count == 0) return;
+        listener.onSensorBatch(batch.sensorTypes, batch.timestamps, batch.values, batch.count);
+        batch.clear();
+    }
+}
@@ -0,0 +1,69 @@
+package eu.basicairdata.clinometer;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the samples of a session recorded by a SensorSessionWriter.
+ * It does not depend on Android, so the recorded sessions can be read also on a desktop JVM.
+ */
+public class SensorSessionReader implements Closeable {
+
+    public static final int MAGIC = 0x434C5353;         // "CLSS"
+    public static final int VERSION = 1;
+    public static final int RECORD_LENGTH = 8 + 4 + 3 * 4;
+
+    private final DataInputStream input;
+
+
+    public SensorSessionReader(File file) throws IOException {
+        this(new FileInputStream(file));
+    }
+
+
+    public SensorSessionReader(InputStream inputStream) throws IOException {
+        input = new DataInputStream(new BufferedInputStream(inputStream));
+        if (input.readInt() != MAGIC) {
+            input.close();
+            throw new IOException("Not a recorded sensor session");
+        }
+        final int version = input.readInt();
+        if (version != VERSION) {
+            input.close();
+            throw new IOException("Unsupported sensor session version " + version);
+        }
+    }
+
+
+    /**
+     * Reads the next sample into the given SensorData.
+     * @return false at the end of the session
+     */
+    public boolean read(SensorData out) throws IOException {
+        final long timestamp;
+        try {
+            timestamp = input.readLong();
+        } catch (EOFException e) {
+            return false;
+        }
+        try {
+            out.set(timestamp, input.readInt(), input.readFloat(), input.readFloat(), input.readFloat());
+        } catch (EOFException e) {
+            // The last record has been truncated (for example the recording was interrupted)
+            return false;
+        }
+        return true;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
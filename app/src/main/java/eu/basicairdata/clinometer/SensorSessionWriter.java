@@ -0,0 +1,179 @@
+package eu.basicairdata.clinometer;
+
+import android.hardware.Sensor;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records the raw samples of a session into a file, that can be replayed later
+ * by a ReplaySensorProvider.
+ *
+ * The writer is a SensorDataListener placed in front of another one: each sample is written
+ * and then passed to the next listener unchanged.
+ *
+ * The samples of different sensors can arrive slightly out of order (for example a gyroscope batch
+ * delivered after an accelerometer one): they are held in a reorder window of REORDER_WINDOW ns
+ * and written in timestamp order, so that the file is chronological across the types.
+ * The samples older than the last one written are late: they are not recorded, and counted by getLateSamples().
+ *
+ * The file starts with the header (SensorSessionReader.MAGIC and SensorSessionReader.VERSION),
+ * followed by one record of SensorSessionReader.RECORD_LENGTH bytes per sample:
+ * the timestamp (long), the sensor type (int), x, y and z (float), big-endian.
+ */
+public class SensorSessionWriter implements SensorDataListener, Closeable {
+
+    public static final long REORDER_WINDOW = 100000000;   // 100 ms
+
+    private static final int PENDING_CAPACITY = 1024;
+
+    private final DataOutputStream output;
+    private final SensorDataListener next;
+
+    // The samples of the reorder window, sorted by timestamp
+    private final long[] pendingTimestamps = new long[PENDING_CAPACITY];
+    private final int[] pendingTypes = new int[PENDING_CAPACITY];
+    private final float[] pendingValues = new float[3 * PENDING_CAPACITY];
+    private int pendingCount = 0;
+    private long newestTimestamp = Long.MIN_VALUE;
+    private long lastWrittenTimestamp = Long.MIN_VALUE;
+
+    private long samples = 0;
+    private long lateSamples = 0;
+    private boolean isFailed = false;
+
+
+    public SensorSessionWriter(File file, SensorDataListener next) throws IOException {
+        this(new FileOutputStream(file), next);
+    }
+
+
+    public SensorSessionWriter(OutputStream outputStream, SensorDataListener next) throws IOException {
+        this.output = new DataOutputStream(new BufferedOutputStream(outputStream));
+        this.next = next;
+        output.writeInt(SensorSessionReader.MAGIC);
+        output.writeInt(SensorSessionReader.VERSION);
+    }
+
+
+    /**
+     * Writes a sample, immediately and without reordering.
+     */
+    public void write(long timestamp, int sensorType, float x, float y, float z) throws IOException {
+        output.writeLong(timestamp);
+        output.writeInt(sensorType);
+        output.writeFloat(x);
+        output.writeFloat(y);
+        output.writeFloat(z);
+        samples++;
+    }
+
+
+    /**
+     * The number of samples written.
+     */
+    public long getSamples() {
+        return samples;
+    }
+
+
+    /**
+     * The number of samples arrived after the reorder window, and not recorded.
+     */
+    public long getLateSamples() {
+        return lateSamples;
+    }
+
+
+    /**
+     * Returns true if a write failed; the following samples are passed to the next listener, but not recorded.
+     */
+    public boolean isFailed() {
+        return isFailed;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!isFailed) writePending(Long.MAX_VALUE);
+        } finally {
+            output.close();
+        }
+    }
+
+
+    @Override
+    public void onSensorChanged(SensorData data) {
+        record(data.timestamp, data.sensorType, data.x, data.y, data.z);
+        if (next != null) next.onSensorChanged(data);
+    }
+
+
+    @Override
+    public void onSensorBatch(int[] sensorTypes, long[] timestamps, float[] values, int count) {
+        for (int i = 0; i < count; i++) record(timestamps[i], sensorTypes[i], values[3 * i], values[3 * i + 1], values[3 * i + 2]);
+        if (next != null) next.onSensorBatch(sensorTypes, timestamps, values, count);
+    }
+
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        if (next != null) next.onAccuracyChanged(sensor, accuracy);
+    }
+
+
+    private void record(long timestamp, int sensorType, float x, float y, float z) {
+        if (isFailed) return;
+        if (timestamp < lastWrittenTimestamp) {
+            lateSamples++;
+            return;
+        }
+        try {
+            if (pendingCount == PENDING_CAPACITY) writePending(pendingTimestamps[0]);
+            // Insertion sort: the samples usually arrive in order, and are appended at the end
+            int i = pendingCount;
+            while (i > 0 && pendingTimestamps[i - 1] > timestamp) {
+                pendingTimestamps[i] = pendingTimestamps[i - 1];
+                pendingTypes[i] = pendingTypes[i - 1];
+                System.arraycopy(pendingValues, 3 * (i - 1), pendingValues, 3 * i, 3);
+                i--;
+            }
+            pendingTimestamps[i] = timestamp;
+            pendingTypes[i] = sensorType;
+            pendingValues[3 * i] = x;
+            pendingValues[3 * i + 1] = y;
+            pendingValues[3 * i + 2] = z;
+            pendingCount++;
+            if (timestamp > newestTimestamp) newestTimestamp = timestamp;
+            writePending(newestTimestamp - REORDER_WINDOW);
+        } catch (IOException e) {
+            isFailed = true;
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     * Writes the pending samples with timestamp <= limit.
+     */
+    private void writePending(long limit) throws IOException {
+        int written = 0;
+        while (written < pendingCount && pendingTimestamps[written] <= limit) {
+            write(pendingTimestamps[written], pendingTypes[written],
+                    pendingValues[3 * written], pendingValues[3 * written + 1], pendingValues[3 * written + 2]);
+            lastWrittenTimestamp = pendingTimestamps[written];
+            written++;
+        }
+        if (written == 0) return;
+        pendingCount -= written;
+        System.arraycopy(pendingTimestamps, written, pendingTimestamps, 0, pendingCount);
+        System.arraycopy(pendingTypes, written, pendingTypes, 0, pendingCount);
+        System.arraycopy(pendingValues, 3 * written, pendingValues, 0, 3 * pendingCount);
+    }
+}
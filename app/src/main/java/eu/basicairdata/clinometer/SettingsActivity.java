@@ -68,6 +68,8 @@ import static eu.basicairdata.clinometer.ClinometerApplication.KEY_PREF_CAMERA_E
 import static eu.basicairdata.clinometer.ClinometerApplication.KEY_PREF_CAMERA_PERMISSION;
 import static eu.basicairdata.clinometer.ClinometerApplication.KEY_PREF_KEEP_SCREEN_ON;
 import static eu.basicairdata.clinometer.ClinometerApplication.KEY_PREF_ONLINE_HELP;
+import static eu.basicairdata.clinometer.ClinometerApplication.KEY_PREF_RECORD_SESSION;
+import static eu.basicairdata.clinometer.ClinometerApplication.KEY_PREF_SENSOR_SOURCE;
 
 
 public class SettingsActivity extends AppCompatActivity {
@@ -157,6 +159,11 @@ public class SettingsActivity extends AppCompatActivity {
                 }
             };
 
+            if (BuildConfig.DEBUG) {
+                findPreference(KEY_PREF_SENSOR_SOURCE).setVisible(true);
+                findPreference(KEY_PREF_RECORD_SESSION).setVisible(true);
+            }
+
             preferenceCameraToUse = findPreference(KEY_PREF_CAMERA);
 
             preferenceCameraPermission = findPreference(KEY_PREF_CAMERA_PERMISSION);
@@ -0,0 +1,223 @@
+package eu.basicairdata.clinometer;
+
+/**
+ * The order statistics (median, trimmed mean, k-th value) of the last samples of a signal,
+ * on a sliding window, in O(log n) for each sample and for each query.
+ *
+ * The samples of the window are kept sorted into a treap (a binary search tree balanced by
+ * random priorities), where each node stores the size and the sum of its subtree.
+ * The nodes are the slots of the ring of the window: the sample that leaves the window is removed
+ * from the tree, and its node is reused for the new sample, so nothing is allocated after the construction.
+ * The samples with the same value are ordered by node, so each node has a unique key.
+ */
+public class SlidingOrderStatistics {
+
+    private static final int NIL = -1;
+
+    private final int size;
+    private final float[] value;
+    private final int[] left;
+    private final int[] right;
+    private final int[] priority;
+    private final int[] count;              // The number of nodes of the subtree
+    private final double[] sum;             // The sum of the values of the subtree
+
+    private int root = NIL;
+    private int currentSample = -1;
+    private int loaded = 0;
+
+    // The results of split()
+    private int splitLeft;
+    private int splitRight;
+
+
+    public SlidingOrderStatistics(int size) {
+        if (size < 1) throw new IllegalArgumentException("The size must be at least 1");
+        this.size = size;
+        value = new float[size];
+        left = new int[size];
+        right = new int[size];
+        priority = new int[size];
+        count = new int[size];
+        sum = new double[size];
+        int seed = 0x2545F491;
+        for (int i = 0; i < size; i++) {
+            // Xorshift: the priorities don't depend on the values
+            seed ^= seed << 13;
+            seed ^= seed >>> 17;
+            seed ^= seed << 5;
+            priority[i] = seed;
+        }
+    }
+
+
+    public void loadSample(float sample) {
+        currentSample++;
+        if (currentSample == size) currentSample = 0;
+        final int node = currentSample;
+
+        if (loaded >= size) {
+            // The oldest sample leaves the window: split the tree into (< node), (node), (> node)
+            split(root, node, false);
+            final int lower = splitLeft;
+            split(splitRight, node, true);
+            root = merge(lower, splitRight);
+        } else loaded++;
+
+        value[node] = sample;
+        left[node] = NIL;
+        right[node] = NIL;
+        update(node);
+        split(root, node, false);
+        root = merge(merge(splitLeft, node), splitRight);
+    }
+
+
+    public void reset() {
+        root = NIL;
+        currentSample = -1;
+        loaded = 0;
+    }
+
+
+    /**
+     * The number of samples in the window.
+     */
+    public int getCount() {
+        return Math.min(loaded, size);
+    }
+
+
+    public boolean getLoaded() {
+        return loaded >= size;
+    }
+
+
+    /**
+     * The k-th smallest value of the window (k = 0 is the minimum).
+     */
+    public float getValue(int k) {
+        int t = root;
+        while (t != NIL) {
+            final int leftCount = getSubtreeCount(left[t]);
+            if (k < leftCount) t = left[t];
+            else if (k == leftCount) return value[t];
+            else {
+                k -= leftCount + 1;
+                t = right[t];
+            }
+        }
+        return 0;
+    }
+
+
+    /**
+     * The median of the window (the mean of the two central values if the number of samples is even).
+     */
+    public float getMedian() {
+        final int n = getCount();
+        if (n == 0) return 0;
+        if ((n & 1) == 1) return getValue(n / 2);
+        return (getValue(n / 2 - 1) + getValue(n / 2)) / 2;
+    }
+
+
+    /**
+     * The mean of the window without the lowest and the highest values.
+     *
+     * @param trim The fraction of the samples discarded at each end, from 0 (the mean) to 0.5 (the median)
+     */
+    public float getTrimmedMean(float trim) {
+        final int n = getCount();
+        if (n == 0) return 0;
+        final int discarded = Math.min((int) (n * trim), (n - 1) / 2);
+        return (float) ((getSumOfSmallest(n - discarded) - getSumOfSmallest(discarded)) / (n - 2 * discarded));
+    }
+
+
+    /**
+     * The sum of the k smallest values of the window.
+     */
+    private double getSumOfSmallest(int k) {
+        double result = 0;
+        int t = root;
+        while ((t != NIL) && (k > 0)) {
+            final int leftCount = getSubtreeCount(left[t]);
+            if (k <= leftCount) t = left[t];
+            else {
+                result += getSubtreeSum(left[t]) + value[t];
+                k -= leftCount + 1;
+                t = right[t];
+            }
+        }
+        return result;
+    }
+
+
+    // ----------------------------------------------------------------------------- Treap
+
+
+    /**
+     * True if the key of the node a precedes the key of the node b (by value, then by node).
+     */
+    private boolean precedes(int a, int b) {
+        return (value[a] < value[b]) || ((value[a] == value[b]) && (a < b));
+    }
+
+
+    /**
+     * Splits the tree t into splitLeft (the keys before the key of the node, or up to it if inclusive)
+     * and splitRight (the other keys).
+     */
+    private void split(int t, int node, boolean inclusive) {
+        if (t == NIL) {
+            splitLeft = NIL;
+            splitRight = NIL;
+            return;
+        }
+        if (precedes(t, node) || (inclusive && (t == node))) {
+            split(right[t], node, inclusive);
+            right[t] = splitLeft;
+            update(t);
+            splitLeft = t;
+        } else {
+            split(left[t], node, inclusive);
+            left[t] = splitRight;
+            update(t);
+            splitRight = t;
+        }
+    }
+
+
+    /**
+     * Merges two trees, where all the keys of a precede all the keys of b.
+     */
+    private int merge(int a, int b) {
+        if (a == NIL) return b;
+        if (b == NIL) return a;
+        if (priority[a] > priority[b]) {
+            right[a] = merge(right[a], b);
+            update(a);
+            return a;
+        }
+        left[b] = merge(a, left[b]);
+        update(b);
+        return b;
+    }
+
+
+    private void update(int t) {
+        count[t] = 1 + getSubtreeCount(left[t]) + getSubtreeCount(right[t]);
+        sum[t] = value[t] + getSubtreeSum(left[t]) + getSubtreeSum(right[t]);
+    }
+
+
+    private int getSubtreeCount(int t) {
+        return t == NIL ? 0 : count[t];
+    }
+
+
+    private double getSubtreeSum(int t) {
+        return t == NIL ? 0 : sum[t];
+    }
+}
@@ -0,0 +1,150 @@
+package eu.basicairdata.clinometer;
+
+/**
+ * Detects when a 3-axis signal (the angles, or the accelerations) is stationary, and notifies the changes
+ * to a Listener, instead of letting the users check the statistics at every sample.
+ *
+ * The signal is stationary when the window is full, the tolerance (1.96 sigma, as MeanVariance3.getTolerance())
+ * of each axis is below the threshold, and these conditions have held for at least the hold time.
+ * The detector returns to moving when the tolerance of any axis exceeds the threshold multiplied by the hysteresis,
+ * so the noise around the threshold does not generate a sequence of events.
+ * Optionally, a single sample farther than maxDeviation from the mean of the window is a movement:
+ * the window restarts from that sample.
+ *
+ * The variances are compared with the squares of the thresholds, updated incrementally by the MeanVariance3:
+ * each sample is O(1), without square roots. The Listener is called on the thread that loads the samples.
+ */
+public class StationarityDetector {
+
+    public interface Listener {
+        /**
+         * Called once, when the signal becomes stationary.
+         */
+        void onStationary(long timestamp);
+
+        /**
+         * Called when the signal stops being stationary, and every time a sample exceeds the max deviation
+         * (and the window restarts).
+         */
+        void onMoving(long timestamp);
+    }
+
+    public static final float DEFAULT_HYSTERESIS = 1.5f;
+
+    private static final double TOLERANCE_TO_SIGMA = 1 / 1.96d;
+
+    private final MeanVariance3 mv;
+    private Listener listener;
+
+    private double enterVariance = Double.MAX_VALUE;    // The variance below which the signal can be stationary
+    private double exitVariance = Double.MAX_VALUE;     // The variance above which the signal is moving
+    private float maxDeviation = Float.MAX_VALUE;
+    private long holdTime = 0;                          // ns
+
+    private boolean isStationary = false;
+    private boolean isCandidate = false;                // True if the conditions of stationarity are met, waiting for the hold time
+    private long candidateTimestamp = 0;                // The time when the conditions have been met
+
+
+    /**
+     * @param size The number of samples of the window
+     */
+    public StationarityDetector(int size) {
+        mv = new MeanVariance3(size);
+    }
+
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+
+    /**
+     * Sets the threshold of the tolerance, with the DEFAULT_HYSTERESIS.
+     */
+    public void setThreshold(float tolerance) {
+        setThreshold(tolerance, DEFAULT_HYSTERESIS);
+    }
+
+
+    /**
+     * @param tolerance The tolerance (1.96 sigma) below which the signal is stationary
+     * @param hysteresis The ratio (at least 1) between the tolerance that ends the stationarity and the tolerance
+     */
+    public void setThreshold(float tolerance, float hysteresis) {
+        final double sigma = tolerance * TOLERANCE_TO_SIGMA;
+        enterVariance = sigma * sigma;
+        exitVariance = enterVariance * Math.max(1, hysteresis) * Math.max(1, hysteresis);
+    }
+
+
+    /**
+     * Sets the max distance of a sample from the mean of the window; Float.MAX_VALUE to disable the check.
+     */
+    public void setMaxDeviation(float maxDeviation) {
+        this.maxDeviation = maxDeviation;
+    }
+
+
+    /**
+     * Sets the time, in ns, for which the conditions must hold before the signal is stationary.
+     */
+    public void setHoldTime(long holdTime) {
+        this.holdTime = holdTime;
+    }
+
+
+    public void loadSample(long timestamp, float x, float y, float z) {
+        if (mv.isReady() && ((Math.abs(mv.getMeanValue(0) - x) > maxDeviation)
+                || (Math.abs(mv.getMeanValue(1) - y) > maxDeviation)
+                || (Math.abs(mv.getMeanValue(2) - z) > maxDeviation))) {
+            mv.reset();
+            mv.loadSample(x, y, z);
+            isCandidate = false;
+            isStationary = false;
+            if (listener != null) listener.onMoving(timestamp);
+            return;
+        }
+
+        mv.loadSample(x, y, z);
+        if (isStationary) {
+            if ((mv.getVariance(0) > exitVariance) || (mv.getVariance(1) > exitVariance) || (mv.getVariance(2) > exitVariance)) {
+                isStationary = false;
+                isCandidate = false;
+                if (listener != null) listener.onMoving(timestamp);
+            }
+        } else if (mv.getLoaded() && (mv.getVariance(0) < enterVariance) && (mv.getVariance(1) < enterVariance) && (mv.getVariance(2) < enterVariance)) {
+            if (!isCandidate) {
+                isCandidate = true;
+                candidateTimestamp = timestamp;
+            }
+            if (timestamp - candidateTimestamp >= holdTime) {
+                isStationary = true;
+                if (listener != null) listener.onStationary(timestamp);
+            }
+        } else isCandidate = false;
+    }
+
+
+    /**
+     * Clears the window; the signal is not stationary until the window is full again. No events are sent.
+     */
+    public void reset() {
+        mv.reset();
+        isStationary = false;
+        isCandidate = false;
+    }
+
+
+    public boolean isStationary() {
+        return isStationary;
+    }
+
+
+    /**
+     * The statistics of the window.
+     */
+    public MeanVariance3 getMeanVariance() {
+        return mv;
+    }
+}
@@ -0,0 +1,246 @@
+package eu.basicairdata.clinometer;
+
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates the samples of a synthetic accelerometer and gyroscope, for the stress tests.
+ *
+ * The orientation follows a scripted trajectory: a list of keyframes (time, roll, pitch, yaw)
+ * linearly interpolated, held after the last keyframe (or restarted, if looping).
+ * The accelerometer measures the gravity in the frame of the device, the gyroscope
+ * the angular velocity of the trajectory; on both the generator can add:
+ * - Gaussian noise;
+ * - a bias drift (a random walk of the bias);
+ * - spikes, isolated samples with a large error;
+ * - dropouts, intervals without samples.
+ *
+ * The random sequence is seeded, so the same configuration always generates the same samples.
+ * The angles are in degrees, the accelerations in m/s^2 and the angular velocities in rad/s.
+ */
+public class SyntheticSensorGenerator {
+
+    public static final int MIN_RATE = 50;                  // Hz
+    public static final int MAX_RATE = 2000;                // Hz
+
+    private static final double DEG_TO_RAD = Math.PI / 180;
+
+    private int rate = 100;                                 // Hz
+    private boolean isLooping = false;
+
+    private float accelerationNoise = 0;                    // Standard deviation, m/s^2
+    private float angularVelocityNoise = 0;                 // Standard deviation, rad/s
+    private float accelerationBiasDrift = 0;                // Standard deviation of the random walk, m/s^2 per sqrt(s)
+    private float angularVelocityBiasDrift = 0;             // Standard deviation of the random walk, rad/s per sqrt(s)
+    private float spikeProbability = 0;                     // Probability that a sample is a spike
+    private float spikeAmplitude = 0;                       // m/s^2
+    private float dropoutProbability = 0;                   // Probability that a dropout starts on a sample
+    private float dropoutDuration = 0;                      // s
+
+    // The trajectory: the keyframes, as time (s), roll, pitch and yaw (deg)
+    private double[] keyframes = new double[4 * 8];
+    private int numberOfKeyframes = 0;
+
+    private final Random random;
+    private long sample = 0;                                // The number of the next sample
+    private long dropoutEnd = -1;                           // The number of the first sample after the dropout
+    private final float[] accelerationBias = new float[3];
+    private final float[] angularVelocityBias = new float[3];
+    private final double[] orientation = new double[6];     // roll, pitch, yaw and their rates, in rad and rad/s
+    private final double[] rates = new double[6];           // The same, in the middle of the last interval
+
+
+    public SyntheticSensorGenerator(long seed) {
+        random = new Random(seed);
+    }
+
+
+    // ----------------------------------------------------------------------------- Configuration
+
+
+    /**
+     * Sets the sampling rate, between MIN_RATE and MAX_RATE Hz.
+     */
+    public SyntheticSensorGenerator setRate(int rate) {
+        this.rate = Math.max(MIN_RATE, Math.min(MAX_RATE, rate));
+        return this;
+    }
+
+
+    public SyntheticSensorGenerator setLooping(boolean isLooping) {
+        this.isLooping = isLooping;
+        return this;
+    }
+
+
+    public SyntheticSensorGenerator setNoise(float accelerationNoise, float angularVelocityNoise) {
+        this.accelerationNoise = accelerationNoise;
+        this.angularVelocityNoise = angularVelocityNoise;
+        return this;
+    }
+
+
+    public SyntheticSensorGenerator setBiasDrift(float accelerationBiasDrift, float angularVelocityBiasDrift) {
+        this.accelerationBiasDrift = accelerationBiasDrift;
+        this.angularVelocityBiasDrift = angularVelocityBiasDrift;
+        return this;
+    }
+
+
+    public SyntheticSensorGenerator setSpikes(float probability, float amplitude) {
+        this.spikeProbability = probability;
+        this.spikeAmplitude = amplitude;
+        return this;
+    }
+
+
+    public SyntheticSensorGenerator setDropouts(float probability, float duration) {
+        this.dropoutProbability = probability;
+        this.dropoutDuration = duration;
+        return this;
+    }
+
+
+    /**
+     * Adds a keyframe to the trajectory. The keyframes must be added in chronological order.
+     *
+     * @param time The time from the beginning, in seconds
+     */
+    public SyntheticSensorGenerator addKeyframe(double time, float roll, float pitch, float yaw) {
+        if (numberOfKeyframes * 4 == keyframes.length) keyframes = Arrays.copyOf(keyframes, keyframes.length * 2);
+        final int i = numberOfKeyframes * 4;
+        keyframes[i] = time;
+        keyframes[i + 1] = roll * DEG_TO_RAD;
+        keyframes[i + 2] = pitch * DEG_TO_RAD;
+        keyframes[i + 3] = yaw * DEG_TO_RAD;
+        numberOfKeyframes++;
+        return this;
+    }
+
+
+    public int getRate() {
+        return rate;
+    }
+
+
+    /**
+     * The interval between two samples, in nanoseconds.
+     */
+    public long getPeriod() {
+        return 1000000000L / rate;
+    }
+
+
+    // ----------------------------------------------------------------------------- Generation
+
+
+    /**
+     * Generates the next pair of samples.
+     * The timestamps are startTimestamp plus the ideal time of the sample.
+     *
+     * @return false if the sample falls into a dropout; in this case acceleration and
+     *         angularVelocity are not changed
+     */
+    public boolean next(long startTimestamp, SensorData acceleration, SensorData angularVelocity) {
+        final long n = sample++;
+        final double t = (double) n / rate;
+        final long timestamp = startTimestamp + n * getPeriod();
+
+        // Bias drift: a random walk, with increments scaled to the sampling interval
+        final double sqrtDt = Math.sqrt(1.0 / rate);
+        for (int i = 0; i < 3; i++) {
+            accelerationBias[i] += (float) (random.nextGaussian() * accelerationBiasDrift * sqrtDt);
+            angularVelocityBias[i] += (float) (random.nextGaussian() * angularVelocityBiasDrift * sqrtDt);
+        }
+
+        if (n < dropoutEnd) return false;
+        if ((dropoutProbability > 0) && (random.nextFloat() < dropoutProbability)) {
+            dropoutEnd = n + Math.max(1, (long) (dropoutDuration * rate));
+            return false;
+        }
+
+        // The gyroscope measures the mean angular velocity of the interval that ends with the sample
+        getOrientation(t, orientation);
+        getOrientation(t - 0.5 / rate, rates);
+        final double roll = orientation[0];
+        final double pitch = orientation[1];
+        final double rollRate = rates[3];
+        final double pitchRate = rates[4];
+        final double yawRate = rates[5];
+        final double sinRoll = Math.sin(roll);
+        final double cosRoll = Math.cos(roll);
+        final double sinPitch = Math.sin(pitch);
+        final double cosPitch = Math.cos(pitch);
+
+        // The gravity in the frame of the device (Z-Y-X Euler angles); the device at rest measures +g on Z
+        float ax = (float) (-SensorManager.GRAVITY_EARTH * sinPitch) + accelerationBias[0] + noise(accelerationNoise);
+        float ay = (float) (SensorManager.GRAVITY_EARTH * sinRoll * cosPitch) + accelerationBias[1] + noise(accelerationNoise);
+        float az = (float) (SensorManager.GRAVITY_EARTH * cosRoll * cosPitch) + accelerationBias[2] + noise(accelerationNoise);
+        if ((spikeProbability > 0) && (random.nextFloat() < spikeProbability)) {
+            final float spike = random.nextBoolean() ? spikeAmplitude : -spikeAmplitude;
+            switch (random.nextInt(3)) {
+                case 0:     ax += spike;    break;
+                case 1:     ay += spike;    break;
+                default:    az += spike;
+            }
+        }
+        acceleration.set(timestamp, Sensor.TYPE_ACCELEROMETER, ax, ay, az);
+
+        // The angular velocity in the frame of the device, from the rates of the Euler angles
+        angularVelocity.set(timestamp, Sensor.TYPE_GYROSCOPE,
+                (float) (rollRate - yawRate * sinPitch) + angularVelocityBias[0] + noise(angularVelocityNoise),
+                (float) (pitchRate * cosRoll + yawRate * cosPitch * sinRoll) + angularVelocityBias[1] + noise(angularVelocityNoise),
+                (float) (-pitchRate * sinRoll + yawRate * cosPitch * cosRoll) + angularVelocityBias[2] + noise(angularVelocityNoise));
+        return true;
+    }
+
+
+    /**
+     * Restarts the generation from the first sample. The random sequence is not restarted.
+     */
+    public void reset() {
+        sample = 0;
+        dropoutEnd = -1;
+        Arrays.fill(accelerationBias, 0);
+        Arrays.fill(angularVelocityBias, 0);
+    }
+
+
+    private float noise(float standardDeviation) {
+        return standardDeviation == 0 ? 0 : (float) (random.nextGaussian() * standardDeviation);
+    }
+
+
+    /**
+     * Interpolates the trajectory at the given time.
+     * The result is roll, pitch, yaw (rad) and their rates (rad/s), constant along each segment.
+     */
+    private void getOrientation(double t, double[] result) {
+        Arrays.fill(result, 0);
+        if (numberOfKeyframes == 0) return;
+        final double duration = keyframes[(numberOfKeyframes - 1) * 4];
+        if (isLooping && (duration > 0)) t = t % duration;
+
+        int k = 0;
+        while ((k < numberOfKeyframes - 1) && (keyframes[(k + 1) * 4] <= t)) k++;
+        final int i = k * 4;
+        if ((k == numberOfKeyframes - 1) || (t < keyframes[i])) {
+            // Before the first or after the last keyframe: the orientation is held
+            result[0] = keyframes[i + 1];
+            result[1] = keyframes[i + 2];
+            result[2] = keyframes[i + 3];
+            return;
+        }
+        final double segment = keyframes[i + 4] - keyframes[i];
+        final double f = (t - keyframes[i]) / segment;
+        for (int a = 0; a < 3; a++) {
+            final double from = keyframes[i + 1 + a];
+            final double to = keyframes[i + 5 + a];
+            result[a] = from + (to - from) * f;
+            result[a + 3] = (to - from) / segment;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package eu.basicairdata.clinometer;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.os.SystemClock;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A SensorProvider that publishes the samples of a SyntheticSensorGenerator,
+ * in real time, from a dedicated thread, like a live sensor.
+ * It is used to find the rate at which the pipeline saturates: the samples that the
+ * listener is not able to consume are counted by getOverflows().
+ */
+public class SyntheticSensorProvider extends SensorProvider {
+
+    private static final String TAG = "SyntheticSensorProvider";
+
+    private final SyntheticSensorGenerator generator;
+    private volatile Thread generatorThread;
+    private volatile long generatedSamples = 0;
+
+
+    public SyntheticSensorProvider(Context context, SyntheticSensorGenerator generator) {
+        super(context);
+        this.generator = generator;
+    }
+
+
+    @Override
+    public void register(SensorDataListener listener, int sensorType, int delay) {
+        // The rate is set on the generator, the delay is not used
+        this.listener = listener;
+        if (generatorThread != null) return;
+        generatorThread = new Thread(this::generate, TAG);
+        generatorThread.start();
+    }
+
+
+    @Override
+    public void unregister() {
+        final Thread thread = generatorThread;
+        generatorThread = null;
+        if (thread != null) LockSupport.unpark(thread);
+        listener = null;
+    }
+
+
+    @Override
+    public boolean contains(int sensorType) {
+        return sensorType == Sensor.TYPE_ACCELEROMETER || sensorType == Sensor.TYPE_GYROSCOPE;
+    }
+
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        // The phone sensors are not used by this provider
+    }
+
+
+    /**
+     * The number of pairs of samples (accelerometer and gyroscope) generated, dropouts excluded.
+     */
+    public long getGeneratedSamples() {
+        return generatedSamples;
+    }
+
+
+    private void generate() {
+        final SensorData acceleration = new SensorData();
+        final SensorData angularVelocity = new SensorData();
+        final long period = generator.getPeriod();
+        final long startTimestamp = SystemClock.elapsedRealtimeNanos();
+        long nextTimestamp = startTimestamp;
+
+        generator.reset();
+        while (generatorThread == Thread.currentThread()) {
+            final long delay = nextTimestamp - SystemClock.elapsedRealtimeNanos();
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+                continue;
+            }
+            if (generator.next(startTimestamp, acceleration, angularVelocity)) {
+                publish(acceleration.timestamp, acceleration.sensorType, acceleration.x, acceleration.y, acceleration.z);
+                publish(angularVelocity.timestamp, angularVelocity.sensorType, angularVelocity.x, angularVelocity.y, angularVelocity.z);
+                generatedSamples++;
+            }
+            nextTimestamp += period;
+        }
+    }
+}
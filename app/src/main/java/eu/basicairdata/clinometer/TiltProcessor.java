@@ -0,0 +1,682 @@
+package eu.basicairdata.clinometer;
+
+import android.hardware.Sensor;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The signal processing of the Clinometer: it filters the accelerometer samples,
+ * applies the calibration, computes the angles and manages the (auto) locking of the measurement.
+ *
+ * When the mode of the device angles is active, the angles computed by the WIT device are used
+ * instead of the accelerometer: only the calibration is applied, and the filters are skipped.
+ *
+ * The samples are processed on the thread where they are delivered (the SensorProcessingThread);
+ * the results are published as an immutable TiltSnapshot, and the Listener is notified on the
+ * main thread. The notifications are coalesced: if the main thread is busy, it receives
+ * only the last snapshot.
+ */
+public class TiltProcessor implements SensorDataListener, StationarityDetector.Listener {
+
+    public interface Listener {
+        /**
+         * Called on the main thread when a new snapshot is available.
+         */
+        void onTiltChanged(TiltSnapshot snapshot);
+
+        /**
+         * Called on the main thread when the measurement has been locked.
+         * The snapshot contains the locked angles.
+         */
+        void onTiltLocked(TiltSnapshot snapshot);
+
+        /**
+         * Called on the main thread when a toggle of the lock has been applied:
+         * the measurement has been unlocked (wasLocked), or the lock request has been set or cleared.
+         */
+        void onLockChanged(boolean wasLocked);
+    }
+
+    private static final float AUTOLOCK_HORIZON_CHECK_THRESHOLD = 5.0f; // The zone of horizon check (+- 5 degrees)
+    private static final long  AUTOLOCK_HOLD_TIME = 200000000L;         // ns, the angles must be steady for this time before locking
+    private static final int   SIZE_OF_MEANVARIANCE = 200;              // 2 seconds
+    private static final int   SIZE_OF_GRAVITY_WINDOW = 16;             // The window of the estimate of the gravity
+    private static final float PRECISION_RATE = 100;                    // Hz, the rate of the tilt (the grid of the SensorResampler)
+    private static final int   PRECISION_FIRST_LEVEL = 1;               // The long-term statistics start from 1 s
+    private static final float TRIMMED_MEAN_TRIM = 0.25f;               // The fraction discarded at each end by the trimmed mean
+
+    public static final int    GRAVITY_ESTIMATOR_MEAN = 0;              // The estimators of the gravity on its window
+    public static final int    GRAVITY_ESTIMATOR_MEDIAN = 1;
+    public static final int    GRAVITY_ESTIMATOR_TRIMMED_MEAN = 2;
+
+    private GravityFilter gravityFilter = new EmaGravityFilter();
+    private boolean useDeviceAngles = false;                     // True to use the angles computed by the WIT device
+    private int gravityEstimator = GRAVITY_ESTIMATOR_MEAN;
+
+    private volatile boolean prefAutoLock = false;
+    private volatile boolean prefAutoLockHorizonCheck = true;
+    private volatile float prefAutoLockTolerance;
+
+    // Written only on the processing thread, read also by the UI
+    private volatile boolean isLocked = false;                   // True if the angles are locked by user
+    private volatile boolean isLockRequested = false;
+    private boolean isHorizonCheckPending = false;              // The Auto Locking failed the horizon check, and retries while stationary
+
+    private final float[] gravity              = {0, 0, 0};    // The (filtered) current accelerometers values
+    private final float[] gravity_reference    = {0, 0, 0};    // The mean of the last calibrated gravity values
+    private final float[] gravity_gain         = {1, 1, 1};
+    private final float[] gravity_offset       = {0, 0, 0};
+    private final float[] gravity_calibrated   = {0, 0, 0};    // The (filtered) current calibrated accelerometers values
+    private final float[] gravity_estimate     = {0, 0, 0};    // The estimate (mean, median or trimmed mean) of the last calibrated values
+
+    private final float[] angle                = {0, 0, 0};    // The (filtered) current angles (in degrees)
+
+    private final TiltSolver tiltSolver = new TiltSolver();
+
+    private final float[][] calibrationMatrix = {{1, 0, 0}, {0, 1, 0}, {0, 0, 1}};
+
+    private final float[] magneticField        = {0, 0, 0};    // The last (calibrated) magnetic field
+    private boolean hasMagneticField = false;
+    private float heading = Float.NaN;                  // The azimuth of the Y axis (in degrees)
+    private float dipDirection = Float.NaN;             // The azimuth of the line of maximum slope (in degrees)
+
+    private float angleXY = 0;                          // The angle on the horizontal plane (in degrees)
+    private float angleXYZ = 0;                         // The angle between XY vector and the vertical (in degrees)
+
+    private final StationarityDetector stationarity = new StationarityDetector(SIZE_OF_MEANVARIANCE);  // Of the angles, for the Auto-Locking
+    private final MeanVariance3 mvAngle = stationarity.getMeanVariance();
+    private final MeanVariance3 mvGravity = new MeanVariance3(SIZE_OF_GRAVITY_WINDOW);
+    private final CascadedMeanVariance[] cmvAngle = {                   // The long-term statistics of the angles, while they are steady
+            new CascadedMeanVariance(PRECISION_RATE),
+            new CascadedMeanVariance(PRECISION_RATE),
+            new CascadedMeanVariance(PRECISION_RATE) };
+    private final float[] precisionMean = new float[3];
+    private final float[] precisionTolerance = new float[3];
+    private final SlidingOrderStatistics osGravity0 = new SlidingOrderStatistics(SIZE_OF_GRAVITY_WINDOW);
+    private final SlidingOrderStatistics osGravity1 = new SlidingOrderStatistics(SIZE_OF_GRAVITY_WINDOW);
+    private final SlidingOrderStatistics osGravity2 = new SlidingOrderStatistics(SIZE_OF_GRAVITY_WINDOW);
+
+    private volatile TiltSnapshot snapshot = TiltSnapshot.EMPTY;
+    private volatile Listener listener;
+
+    private final Handler processingHandler = new Handler(SensorProcessingThread.getProcessingLooper());
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean isUpdatePosted = new AtomicBoolean(false);
+
+    private final Runnable updateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            isUpdatePosted.set(false);
+            final Listener listener = TiltProcessor.this.listener;
+            if (listener != null) listener.onTiltChanged(snapshot);
+        }
+    };
+
+
+    public TiltProcessor(Listener listener) {
+        this.listener = listener;
+        stationarity.setHoldTime(AUTOLOCK_HOLD_TIME);
+        stationarity.setListener(this);
+    }
+
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+        if (listener == null) mainHandler.removeCallbacksAndMessages(null);
+    }
+
+
+    /**
+     * The last snapshot published.
+     */
+    public TiltSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+
+    public boolean isLocked() {
+        return isLocked;
+    }
+
+
+    public boolean isLockRequested() {
+        return isLockRequested;
+    }
+
+
+    /**
+     * Unlocks the measurement if it is locked, otherwise sets or clears the lock request.
+     * The toggle is applied on the processing thread, between two samples, and notified by onLockChanged.
+     */
+    public void toggleLock() {
+        processingHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final boolean wasLocked = isLocked;
+                if (isLocked) {
+                    isLocked = false;
+                    isLockRequested = false;
+                    resetPrecision();           // The device can have been moved while locked
+                } else isLockRequested = !isLockRequested;
+                postLockChanged(wasLocked);
+                processLockRequest(snapshot.getTimestamp());
+            }
+        });
+    }
+
+
+    /**
+     * Sets or clears the lock request, if the measurement is not locked.
+     * The request is applied on the processing thread, and notified by onLockChanged.
+     */
+    public void setLockRequested(final boolean lockRequested) {
+        processingHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (isLocked || (isLockRequested == lockRequested)) return;
+                isLockRequested = lockRequested;
+                postLockChanged(false);
+                processLockRequest(snapshot.getTimestamp());
+            }
+        });
+    }
+
+
+    public void setAutoLock(boolean autoLock, boolean horizonCheck, final float tolerance) {
+        prefAutoLock = autoLock;
+        prefAutoLockHorizonCheck = horizonCheck;
+        prefAutoLockTolerance = tolerance;
+        processingHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                stationarity.setThreshold(tolerance);
+            }
+        });
+    }
+
+
+    /**
+     * Selects the GravityFilter (GravityFilter.TYPE_*).
+     * The new filter is applied on the processing thread, before the next sample.
+     */
+    public void setFilter(final int filterType) {
+        processingHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                switch (filterType) {
+                    case GravityFilter.TYPE_COMPLEMENTARY:
+                        if (!(gravityFilter instanceof ComplementaryGravityFilter)) gravityFilter = new ComplementaryGravityFilter();
+                        break;
+                    case GravityFilter.TYPE_QUATERNION:
+                        if (!(gravityFilter instanceof QuaternionOrientation)) gravityFilter = new QuaternionOrientation();
+                        break;
+                    case GravityFilter.TYPE_ONE_EURO:
+                        if (!(gravityFilter instanceof OneEuroGravityFilter)) gravityFilter = new OneEuroGravityFilter();
+                        break;
+                    default:
+                        if (!(gravityFilter instanceof EmaGravityFilter)) gravityFilter = new EmaGravityFilter();
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Selects the estimator of the gravity on its window (GRAVITY_ESTIMATOR_*).
+     * The median and the trimmed mean are robust to the bumps and to the vibrations, that move the mean.
+     * The new estimator is applied on the processing thread, before the next sample.
+     */
+    public void setGravityEstimator(final int estimator) {
+        processingHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (gravityEstimator == estimator) return;
+                gravityEstimator = estimator;
+                osGravity0.reset();
+                osGravity1.reset();
+                osGravity2.reset();
+            }
+        });
+    }
+
+
+    /**
+     * Selects the source of the angles: the angles computed by the WIT device
+     * (WITDeviceChannel.TYPE_DEVICE_ANGLE) or the accelerometer (and gyroscope) of the provider.
+     * The new mode is applied on the processing thread, before the next sample.
+     */
+    public void setDeviceAngles(final boolean deviceAngles) {
+        processingHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (useDeviceAngles == deviceAngles) return;
+                useDeviceAngles = deviceAngles;
+                gravityFilter.reset();
+                stationarity.reset();           // The window must not mix the angles of the two sources
+                resetPrecision();
+            }
+        });
+    }
+
+
+    /**
+     * Sets the calibration of the accelerometers.
+     * The new values are applied on the processing thread, before the next sample.
+     *
+     * @param gain The gains of the 3 axes
+     * @param offset The offsets of the 3 axes
+     * @param angleCalibration The angles for calibration: alpha, beta, gamma (in degrees)
+     */
+    public void setCalibration(float[] gain, float[] offset, float[] angleCalibration) {
+        final float[] g = gain.clone();
+        final float[] o = offset.clone();
+        final float[] a = angleCalibration.clone();
+        processingHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                System.arraycopy(g, 0, gravity_gain, 0, 3);
+                System.arraycopy(o, 0, gravity_offset, 0, 3);
+
+                calibrationMatrix[0][0] = (float) (Math.cos(Math.toRadians(a[2])) * Math.cos(Math.toRadians(a[0])) + Math.sin(Math.toRadians(a[2])) * Math.sin(Math.toRadians(a[1])) * Math.sin(Math.toRadians(a[0])));
+                calibrationMatrix[0][1] = (float) (Math.cos(Math.toRadians(a[1])) * Math.sin(Math.toRadians(a[0])));
+                calibrationMatrix[0][2] = (float) (-Math.sin(Math.toRadians(a[2])) * Math.cos(Math.toRadians(a[0])) + Math.cos(Math.toRadians(a[2])) * Math.sin(Math.toRadians(a[1])) * Math.sin(Math.toRadians(a[0])));
+
+                calibrationMatrix[1][0] = (float) (-Math.cos(Math.toRadians(a[2])) * Math.sin(Math.toRadians(a[0])) + Math.sin(Math.toRadians(a[2])) * Math.sin(Math.toRadians(a[1])) * Math.cos(Math.toRadians(a[0])));
+                calibrationMatrix[1][1] = (float) (Math.cos(Math.toRadians(a[1])) * Math.cos(Math.toRadians(a[0])));
+                calibrationMatrix[1][2] = (float) (Math.sin(Math.toRadians(a[2])) * Math.sin(Math.toRadians(a[0])) + Math.cos(Math.toRadians(a[2])) * Math.sin(Math.toRadians(a[1])) * Math.cos(Math.toRadians(a[0])));
+
+                calibrationMatrix[2][0] = (float) (Math.sin(Math.toRadians(a[2])) * Math.cos(Math.toRadians(a[1])));
+                calibrationMatrix[2][1] = (float) (-Math.sin(Math.toRadians(a[1])));
+                calibrationMatrix[2][2] = (float) (Math.cos(Math.toRadians(a[2])) * Math.cos(Math.toRadians(a[1])));
+            }
+        });
+    }
+
+
+    @Override
+    public void onSensorChanged(SensorData event) {
+        if (processSample(event.timestamp, event.sensorType, event.x, event.y, event.z)) {
+            retryAutoLock(event.timestamp);
+            if (!isLocked) publish(event.timestamp);
+            postUpdate();
+        }
+    }
+
+
+    /**
+     * Processes a batch of samples, in the order in which they have been received.
+     * The signal processing runs on every sample of the batch, while the snapshot is published once per batch.
+     */
+    @Override
+    public void onSensorBatch(int[] sensorTypes, long[] timestamps, float[] values, int count) {
+        long lastTimestamp = Long.MIN_VALUE;        // The timestamp of the last sample of the tilt
+        for (int i = 0; i < count; i++) {
+            if (processSample(timestamps[i], sensorTypes[i], values[3 * i], values[3 * i + 1], values[3 * i + 2])) {
+                lastTimestamp = timestamps[i];
+                retryAutoLock(lastTimestamp);
+            }
+        }
+        if (lastTimestamp != Long.MIN_VALUE) {
+            if (!isLocked) publish(lastTimestamp);
+            postUpdate();
+        }
+    }
+
+
+    /**
+     * Processes a sample of any sensor.
+     * The gyroscope is fed to the filter as it comes, so the rotation between two samples of the accelerometer
+     * is integrated before the second one is applied.
+     * While the measurement is locked the samples of the tilt and of the gyroscope are discarded.
+     *
+     * @return true if the sample is a sample of the tilt (of the accelerometer, or of the angles of the device)
+     */
+    private boolean processSample(long timestamp, int sensorType, float x, float y, float z) {
+        if (sensorType == WITDeviceChannel.TYPE_DEVICE_ANGLE) {
+            if (!useDeviceAngles) return false;
+            if (!isLocked) processDeviceAngleSample(timestamp, x, y);
+            return true;
+        } else if (sensorType == Sensor.TYPE_MAGNETIC_FIELD) {
+            updateMagneticField(x, y, z);
+            return false;
+        } else if (useDeviceAngles) {
+            // The samples of the accelerometer and of the gyroscope are not needed
+            return false;
+        } else if (sensorType == Sensor.TYPE_GYROSCOPE) {
+            if (!isLocked) gravityFilter.updateAngularVelocity(timestamp, x, y, z);
+            return false;
+        } else if (sensorType == Sensor.TYPE_ACCELEROMETER) {
+            if (!isLocked) processAccelerometerSample(timestamp, x, y, z);
+            return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Stores the magnetic field for the heading, and passes it to the filters that use it (the QuaternionOrientation).
+     * The heading is updated with the next sample of the tilt.
+     */
+    private void updateMagneticField(float x, float y, float z) {
+        magneticField[0] = x;
+        magneticField[1] = y;
+        magneticField[2] = z;
+        hasMagneticField = true;
+        if (gravityFilter instanceof QuaternionOrientation) ((QuaternionOrientation) gravityFilter).updateMagneticField(x, y, z);
+    }
+
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+
+    }
+
+
+    /**
+     * The angles have become stationary: the Auto Locking locks the measurement, if requested.
+     */
+    @Override
+    public void onStationary(long timestamp) {
+        if (isLockRequested && prefAutoLock) autoLock(timestamp);
+    }
+
+
+    /**
+     * The angles have moved: the Auto Locking stops retrying, and the long-term statistics restart.
+     */
+    @Override
+    public void onMoving(long timestamp) {
+        isHorizonCheckPending = false;
+        resetPrecision();
+    }
+
+
+    /**
+     * Applies a new lock request: it locks immediately without Auto Locking, or if the angles
+     * are already stationary; otherwise the lock waits for onStationary.
+     */
+    private void processLockRequest(long timestamp) {
+        isHorizonCheckPending = false;
+        if (isLockRequested) {
+            if (!prefAutoLock) {
+                isLockRequested = false;
+                isLocked = true;
+                postLocked();
+            } else if (stationarity.isStationary()) {
+                autoLock(timestamp);
+            }
+        }
+    }
+
+
+    /**
+     * Repeats the Auto Locking that failed the horizon check, while the angles are stationary.
+     */
+    private void retryAutoLock(long timestamp) {
+        if (isHorizonCheckPending && isLockRequested && prefAutoLock && stationarity.isStationary()) autoLock(timestamp);
+    }
+
+
+    /**
+     * Locks the measurement when the angles are stationary, after the horizon check.
+     * If the check fails, the window is kept, and the check is repeated with the next samples
+     * until the angles move (see retryAutoLock).
+     */
+    private void autoLock(long timestamp) {
+        if (prefAutoLockHorizonCheck
+                && (Math.abs(angle[2]) < AUTOLOCK_HORIZON_CHECK_THRESHOLD)
+                && (Math.abs(mvAngle.getMeanValue(2)) >= prefAutoLockTolerance)) {
+            isHorizonCheckPending = true;
+            return;
+        }
+        isHorizonCheckPending = false;
+
+        // The angles of the device are already filtered by the device: they are locked as they are
+        if (!useDeviceAngles) solveAngles(gravity_estimate[0], gravity_estimate[1], gravity_estimate[2]);
+
+        Log.d("SpiritLevel", "------------------------------------------------------------------");
+        Log.d("SpiritLevel", String.format("Auto Locking Tolerance = %1.4f", prefAutoLockTolerance));
+        Log.d("SpiritLevel", (String.format("Measurement locked - Angle0: Mean=%+1.4f Uncertainty=%+1.4f", mvAngle.getMeanValue(0), mvAngle.getTolerance(0))));
+        Log.d("SpiritLevel", (String.format("Measurement locked - Angle1: Mean=%+1.4f Uncertainty=%+1.4f", mvAngle.getMeanValue(1), mvAngle.getTolerance(1))));
+        Log.d("SpiritLevel", (String.format("Measurement locked - Angle2: Mean=%+1.4f Uncertainty=%+1.4f", mvAngle.getMeanValue(2), mvAngle.getTolerance(2))));
+
+        publish(timestamp);
+        if (snapshot.hasPrecision()) {
+            for (int i = 0; i < 3; i++) {
+                Log.d("SpiritLevel", (String.format("Measurement locked - Angle%d over %1.0f s: Mean=%+1.4f Uncertainty=%+1.4f",
+                        i, snapshot.getPrecisionDuration(), snapshot.getPrecisionMean(i), snapshot.getPrecisionTolerance(i))));
+            }
+        }
+        Log.d("SpiritLevel", "------------------------------------------------------------------");
+
+        isLockRequested = false;
+        isLocked = true;
+        postLocked();
+
+        stationarity.reset();
+    }
+
+
+    /**
+     * Filters a new accelerometer sample and updates the angles.
+     */
+    private void processAccelerometerSample(long timestamp, float x, float y, float z) {
+        // Filtered gravity reads
+
+        gravity_reference[0] = gravity_estimate[0];
+        gravity_reference[1] = gravity_estimate[1];
+        gravity_reference[2] = gravity_estimate[2];
+        gravityFilter.updateAcceleration(timestamp,
+                (x - gravity_offset[0]) / gravity_gain[0],
+                (y - gravity_offset[1]) / gravity_gain[1],
+                (z - gravity_offset[2]) / gravity_gain[2],
+                gravity_reference, gravity);
+
+        // Apply Calibration values
+
+        gravity_calibrated[0] = gravity[0] * calibrationMatrix[0][0] + gravity[1] * calibrationMatrix[0][1] + gravity[2] * calibrationMatrix[0][2];
+        gravity_calibrated[1] = gravity[0] * calibrationMatrix[1][0] + gravity[1] * calibrationMatrix[1][1] + gravity[2] * calibrationMatrix[1][2];
+        gravity_calibrated[2] = gravity[0] * calibrationMatrix[2][0] + gravity[1] * calibrationMatrix[2][1] + gravity[2] * calibrationMatrix[2][2];
+
+        estimateGravity();
+
+        // Calculate Angles
+
+        solveAngles(gravity_estimate[0], gravity_estimate[1], gravity_estimate[2]);
+
+        if (hasMagneticField) updateHeading(gravity_estimate[0], gravity_estimate[1], gravity_estimate[2]);
+
+        // Load angles into the long-term statistics, and into Auto-Locking MeanVariances (it can lock the measurement, see onStationary)
+
+        loadPrecisionSample();
+        stationarity.loadSample(timestamp, angle[0], angle[1], angle[2]);
+    }
+
+
+    /**
+     * Loads the calibrated gravity into the window, and updates its estimate.
+     * The order statistics are updated only when they are used.
+     */
+    private void estimateGravity() {
+        mvGravity.loadSample(gravity_calibrated[0], gravity_calibrated[1], gravity_calibrated[2]);
+        switch (gravityEstimator) {
+            case GRAVITY_ESTIMATOR_MEDIAN:
+            case GRAVITY_ESTIMATOR_TRIMMED_MEAN:
+                osGravity0.loadSample(gravity_calibrated[0]);
+                osGravity1.loadSample(gravity_calibrated[1]);
+                osGravity2.loadSample(gravity_calibrated[2]);
+                if (gravityEstimator == GRAVITY_ESTIMATOR_MEDIAN) {
+                    gravity_estimate[0] = osGravity0.getMedian();
+                    gravity_estimate[1] = osGravity1.getMedian();
+                    gravity_estimate[2] = osGravity2.getMedian();
+                } else {
+                    gravity_estimate[0] = osGravity0.getTrimmedMean(TRIMMED_MEAN_TRIM);
+                    gravity_estimate[1] = osGravity1.getTrimmedMean(TRIMMED_MEAN_TRIM);
+                    gravity_estimate[2] = osGravity2.getTrimmedMean(TRIMMED_MEAN_TRIM);
+                }
+                break;
+            default:
+                gravity_estimate[0] = mvGravity.getMeanValue(0);
+                gravity_estimate[1] = mvGravity.getMeanValue(1);
+                gravity_estimate[2] = mvGravity.getMeanValue(2);
+        }
+    }
+
+
+    /**
+     * Updates the angles from the angles computed by the WIT device.
+     * The roll and the pitch give directly the unit vector of the gravity, so the EMA,
+     * the averages of the gravity and the normalization are skipped; only the calibration is applied.
+     *
+     * @param roll The roll computed by the device, atan2(y, z), in degrees
+     * @param pitch The pitch computed by the device, atan2(-x, sqrt(y^2 + z^2)), in degrees
+     */
+    private void processDeviceAngleSample(long timestamp, float roll, float pitch) {
+        final double r = Math.toRadians(roll);
+        final double p = Math.toRadians(pitch);
+        final float cosPitch = (float) Math.cos(p);
+        final float ux = (float) -Math.sin(p);
+        final float uy = (float) Math.sin(r) * cosPitch;
+        final float uz = (float) Math.cos(r) * cosPitch;
+
+        // Apply Calibration values
+
+        gravity_calibrated[0] = ux * calibrationMatrix[0][0] + uy * calibrationMatrix[0][1] + uz * calibrationMatrix[0][2];
+        gravity_calibrated[1] = ux * calibrationMatrix[1][0] + uy * calibrationMatrix[1][1] + uz * calibrationMatrix[1][2];
+        gravity_calibrated[2] = ux * calibrationMatrix[2][0] + uy * calibrationMatrix[2][1] + uz * calibrationMatrix[2][2];
+
+        // Calculate Angles
+
+        solveAngles(gravity_calibrated[0], gravity_calibrated[1], gravity_calibrated[2]);
+
+        if (hasMagneticField) updateHeading(gravity_calibrated[0], gravity_calibrated[1], gravity_calibrated[2]);
+
+        // Load angles into the long-term statistics, and into Auto-Locking MeanVariances (it can lock the measurement, see onStationary)
+
+        loadPrecisionSample();
+        stationarity.loadSample(timestamp, angle[0], angle[1], angle[2]);
+    }
+
+
+    /**
+     * Computes the angles of the given gravity vector (angle[], angleXY and angleXYZ) by the TiltSolver.
+     */
+    private void solveAngles(float x, float y, float z) {
+        tiltSolver.solve(x, y, z);
+        angle[0] = tiltSolver.getAngle(0);
+        angle[1] = tiltSolver.getAngle(1);
+        angle[2] = tiltSolver.getAngle(2);
+        angleXY = tiltSolver.getAngleXY();
+        angleXYZ = tiltSolver.getAngleXYZ();
+    }
+
+
+    /**
+     * Updates the heading and the dip direction, compensated for the tilt, from the gravity and the last magnetic field.
+     * The magnetic field is rotated with the same calibration matrix of the gravity.
+     * East = M x G and North = G x East are the horizontal axes, expressed in the frame of the device.
+     *
+     * @param gx, gy, gz The calibrated gravity (the up direction, of any length)
+     */
+    private void updateHeading(float gx, float gy, float gz) {
+        final float mx = magneticField[0] * calibrationMatrix[0][0] + magneticField[1] * calibrationMatrix[0][1] + magneticField[2] * calibrationMatrix[0][2];
+        final float my = magneticField[0] * calibrationMatrix[1][0] + magneticField[1] * calibrationMatrix[1][1] + magneticField[2] * calibrationMatrix[1][2];
+        final float mz = magneticField[0] * calibrationMatrix[2][0] + magneticField[1] * calibrationMatrix[2][1] + magneticField[2] * calibrationMatrix[2][2];
+
+        float ex = my * gz - mz * gy;
+        float ey = mz * gx - mx * gz;
+        float ez = mx * gy - my * gx;
+        final float normE = (float) Math.sqrt(ex * ex + ey * ey + ez * ez);
+        final float normG = (float) Math.sqrt(gx * gx + gy * gy + gz * gz);
+        if ((normE < 1E-6f) || (normG < 1E-6f)) return;          // Free fall, or magnetic field vertical
+        ex /= normE;
+        ey /= normE;
+        ez /= normE;
+        final float ux = gx / normG;
+        final float uy = gy / normG;
+        final float uz = gz / normG;
+        final float nx = uy * ez - uz * ey;
+        final float ny = uz * ex - ux * ez;
+
+        // The azimuth of the Y axis
+        heading = (FastTrig.RAD_TO_DEG * FastTrig.atan2(ey, ny) + 360) % 360;
+
+        // The azimuth of the line of maximum slope: the projection of the "down" vector on the XY plane, (-ux, -uy, 0)
+        dipDirection = ((ux * ux + uy * uy) > 1E-12f)
+                ? (FastTrig.RAD_TO_DEG * FastTrig.atan2(-ux * ex - uy * ey, -ux * nx - uy * ny) + 360) % 360
+                : 0;
+    }
+
+
+    /**
+     * Publishes the current angles as a new snapshot.
+     */
+    private void publish(long timestamp) {
+        // The long-term statistics of the longest level already covered
+        int level = cmvAngle[0].getNumberOfLevels() - 1;
+        while ((level >= PRECISION_FIRST_LEVEL) && !cmvAngle[0].getLoaded(level)) level--;
+        float precisionDuration = 0;
+        if (level >= PRECISION_FIRST_LEVEL) {
+            precisionDuration = cmvAngle[0].getDuration(level);
+            for (int i = 0; i < 3; i++) {
+                precisionMean[i] = cmvAngle[i].getMeanValue(level);
+                precisionTolerance[i] = cmvAngle[i].getTolerance(level);
+            }
+        }
+        snapshot = new TiltSnapshot(timestamp, angle[0], angle[1], angle[2], angleXY, angleXYZ, heading, dipDirection,
+                precisionDuration, precisionMean, precisionTolerance);
+    }
+
+
+    /**
+     * Loads the angles into the long-term statistics while they are steady: the window of the Auto Locking is full,
+     * and its tolerances are within the threshold that ends the stationarity. Otherwise the statistics restart.
+     */
+    private void loadPrecisionSample() {
+        final float maxTolerance = prefAutoLockTolerance * StationarityDetector.DEFAULT_HYSTERESIS;
+        if (mvAngle.getLoaded() && (mvAngle.getTolerance(0) <= maxTolerance)
+                && (mvAngle.getTolerance(1) <= maxTolerance) && (mvAngle.getTolerance(2) <= maxTolerance)) {
+            for (int i = 0; i < 3; i++) cmvAngle[i].loadSample(angle[i]);
+        } else resetPrecision();
+    }
+
+
+    private void resetPrecision() {
+        for (CascadedMeanVariance cmv : cmvAngle) cmv.reset();
+    }
+
+
+    /**
+     * Notifies the listener on the main thread. If a notification is already pending,
+     * it will deliver the last snapshot, and no new notifications are posted.
+     */
+    private void postUpdate() {
+        if (!isUpdatePosted.getAndSet(true)) mainHandler.post(updateRunnable);
+    }
+
+
+    private void postLockChanged(final boolean wasLocked) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final Listener listener = TiltProcessor.this.listener;
+                if (listener != null) listener.onLockChanged(wasLocked);
+            }
+        });
+    }
+
+
+    private void postLocked() {
+        final TiltSnapshot lockedSnapshot = snapshot;
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final Listener listener = TiltProcessor.this.listener;
+                if (listener != null) listener.onTiltLocked(lockedSnapshot);
+            }
+        });
+    }
+}
@@ -0,0 +1,170 @@
+package eu.basicairdata.clinometer;
+
+/**
+ * An immutable snapshot of the measured angles, published by the TiltProcessor.
+ * It can be read safely from any thread, for example by the Views during onDraw.
+ *
+ * Together with the angles, it contains their long-term statistics for the precision work:
+ * the mean and the tolerance of the angles over the longest period (1 s, 10 s or 60 s)
+ * in which the angles have been steady.
+ */
+public final class TiltSnapshot {
+
+    public static final TiltSnapshot EMPTY = new TiltSnapshot(0, 0, 0, 0, 0, 0, Float.NaN, Float.NaN);
+
+    private final long timestamp;           // The timestamp of the last sample processed, ns
+    private final float angle0;             // The angles of the axes with the horizontal plane (in degrees)
+    private final float angle1;
+    private final float angle2;
+    private final float angleXY;            // The angle on the horizontal plane (in degrees)
+    private final float angleXYZ;           // The angle between XY vector and the vertical (in degrees)
+    private final float heading;            // The azimuth of the Y axis (in degrees), NaN without magnetometer
+    private final float dipDirection;       // The azimuth of the line of maximum slope of the XY plane (in degrees)
+    private final float precisionDuration;  // The period of the long-term statistics (in s), 0 if not available
+    private final float precisionMean0;     // The means of the angles over the period (in degrees)
+    private final float precisionMean1;
+    private final float precisionMean2;
+    private final float precisionTolerance0;    // The tolerances (1.96 sigma) of the angles over the period (in degrees)
+    private final float precisionTolerance1;
+    private final float precisionTolerance2;
+
+
+    public TiltSnapshot(long timestamp, float angle0, float angle1, float angle2, float angleXY, float angleXYZ,
+                        float heading, float dipDirection) {
+        this(timestamp, angle0, angle1, angle2, angleXY, angleXYZ, heading, dipDirection, 0, null, null);
+    }
+
+
+    /**
+     * @param precisionDuration The period of the long-term statistics, in s, or 0 if they are not available
+     * @param precisionMeans The means of the 3 angles over the period (copied), or null
+     * @param precisionTolerances The tolerances of the 3 angles over the period (copied), or null
+     */
+    public TiltSnapshot(long timestamp, float angle0, float angle1, float angle2, float angleXY, float angleXYZ,
+                        float heading, float dipDirection,
+                        float precisionDuration, float[] precisionMeans, float[] precisionTolerances) {
+        this.timestamp = timestamp;
+        this.angle0 = angle0;
+        this.angle1 = angle1;
+        this.angle2 = angle2;
+        this.angleXY = angleXY;
+        this.angleXYZ = angleXYZ;
+        this.heading = heading;
+        this.dipDirection = dipDirection;
+        final boolean hasPrecision = (precisionDuration > 0) && (precisionMeans != null) && (precisionTolerances != null);
+        this.precisionDuration = hasPrecision ? precisionDuration : 0;
+        this.precisionMean0 = hasPrecision ? precisionMeans[0] : Float.NaN;
+        this.precisionMean1 = hasPrecision ? precisionMeans[1] : Float.NaN;
+        this.precisionMean2 = hasPrecision ? precisionMeans[2] : Float.NaN;
+        this.precisionTolerance0 = hasPrecision ? precisionTolerances[0] : Float.NaN;
+        this.precisionTolerance1 = hasPrecision ? precisionTolerances[1] : Float.NaN;
+        this.precisionTolerance2 = hasPrecision ? precisionTolerances[2] : Float.NaN;
+    }
+
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+
+    public float getAngle(int axis) {
+        switch (axis) {
+            case 0:     return angle0;
+            case 1:     return angle1;
+            default:    return angle2;
+        }
+    }
+
+
+    /**
+     * Copies the three angles into the given array.
+     */
+    public void getAngles(float[] out) {
+        out[0] = angle0;
+        out[1] = angle1;
+        out[2] = angle2;
+    }
+
+
+    public float getAngleXY() {
+        return angleXY;
+    }
+
+
+    public float getAngleXYZ() {
+        return angleXYZ;
+    }
+
+
+    /**
+     * True if the magnetometer is available, and the azimuths are valid.
+     */
+    public boolean hasHeading() {
+        return !Float.isNaN(heading);
+    }
+
+
+    /**
+     * The magnetic azimuth of the Y axis of the device, from 0 to 360 degrees (clockwise from the magnetic North).
+     */
+    public float getHeading() {
+        return heading;
+    }
+
+
+    /**
+     * The magnetic azimuth of the line of maximum slope of the plane of the device (XY), from 0 to 360 degrees.
+     * Together with the dip (getAngleXYZ()) it gives the orientation of the plane where the device is laid.
+     */
+    public float getDipDirection() {
+        return dipDirection;
+    }
+
+
+    /**
+     * The strike of the plane of the device (right-hand rule: the dip direction - 90 degrees), from 0 to 360 degrees.
+     */
+    public float getStrike() {
+        return (dipDirection + 270) % 360;
+    }
+
+
+    /**
+     * True if the long-term statistics of the angles are available.
+     */
+    public boolean hasPrecision() {
+        return precisionDuration > 0;
+    }
+
+
+    /**
+     * The period of the long-term statistics of the angles, in s (0 if not available).
+     */
+    public float getPrecisionDuration() {
+        return precisionDuration;
+    }
+
+
+    /**
+     * The mean of an angle over the period of the long-term statistics (in degrees), NaN if not available.
+     */
+    public float getPrecisionMean(int axis) {
+        switch (axis) {
+            case 0:     return precisionMean0;
+            case 1:     return precisionMean1;
+            default:    return precisionMean2;
+        }
+    }
+
+
+    /**
+     * The tolerance (1.96 sigma) of an angle over the period of the long-term statistics (in degrees), NaN if not available.
+     */
+    public float getPrecisionTolerance(int axis) {
+        switch (axis) {
+            case 0:     return precisionTolerance0;
+            case 1:     return precisionTolerance1;
+            default:    return precisionTolerance2;
+        }
+    }
+}
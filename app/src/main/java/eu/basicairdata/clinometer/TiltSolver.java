@@ -0,0 +1,84 @@
+package eu.basicairdata.clinometer;
+
+/**
+ * Computes all the angles of the Clinometer from a gravity vector, in the frame of the device:
+ * - angle 0, 1, 2: the angles between the X, Y, Z axes and the horizontal plane, asin(g[i] / |g|);
+ * - angleXY: the direction of the gravity on the plane of the screen, in [0, 360);
+ * - angleXYZ: the angle between the gravity and the Z axis, acos(g[2] / |g|).
+ *
+ * The angles are computed in a single pass, sharing the norms and their reciprocals,
+ * with the FastTrig kernels. It is the only place where the angles are computed:
+ * the live, the locking and the calibration paths use it.
+ * An instance keeps the results of the last solve(), and does not allocate memory; it is not thread safe.
+ */
+public class TiltSolver {
+
+    private static final float MIN_NORM = 0.00001f;         // The minimum |g|, to avoid divisions by zero
+
+    private final float[] angle = {0, 0, 0};                // degrees
+    private float angleXY = 0;                              // degrees
+    private float angleXYZ = 0;                             // degrees
+    private float gravityXY = 0;                            // The norm of the vector over the screen plane
+    private float gravityXYZ = 0;                           // The norm of the spatial vector
+
+
+    /**
+     * Computes the angles of the given gravity vector (of any norm).
+     */
+    public void solve(float x, float y, float z) {
+        final float squaredXY = x * x + y * y;
+        gravityXY = (float) Math.sqrt(squaredXY);
+        gravityXYZ = (float) Math.sqrt(squaredXY + z * z);
+        final float inverseXYZ = 1 / Math.max(gravityXYZ, MIN_NORM);
+
+        angle[0] = FastTrig.RAD_TO_DEG * FastTrig.asin(x * inverseXYZ);
+        angle[1] = FastTrig.RAD_TO_DEG * FastTrig.asin(y * inverseXYZ);
+        angle[2] = FastTrig.RAD_TO_DEG * FastTrig.asin(z * inverseXYZ);
+
+        angleXY = 0;
+        angleXYZ = 0;
+        if (gravityXY > 0) {
+            final float asinXY = FastTrig.asin(y / gravityXY);
+            if (x >= 0) {
+                if (y < 0) angleXY = -FastTrig.RAD_TO_DEG * asinXY;
+                else angleXY = FastTrig.RAD_TO_DEG * (2 * FastTrig.PI - asinXY);
+            } else angleXY = FastTrig.RAD_TO_DEG * (FastTrig.PI + asinXY);
+
+            angleXYZ = FastTrig.RAD_TO_DEG * FastTrig.acos(z * inverseXYZ);
+        }
+    }
+
+
+    /**
+     * The angle between the given axis (0 = X, 1 = Y, 2 = Z) and the horizontal plane, in degrees.
+     */
+    public float getAngle(int axis) {
+        return angle[axis];
+    }
+
+
+    /**
+     * The direction of the gravity on the plane of the screen, in degrees; 0 if the screen is horizontal.
+     */
+    public float getAngleXY() {
+        return angleXY;
+    }
+
+
+    /**
+     * The angle between the gravity and the Z axis, in degrees; 0 if the screen is horizontal.
+     */
+    public float getAngleXYZ() {
+        return angleXYZ;
+    }
+
+
+    public float getGravityXY() {
+        return gravityXY;
+    }
+
+
+    public float getGravityXYZ() {
+        return gravityXYZ;
+    }
+}
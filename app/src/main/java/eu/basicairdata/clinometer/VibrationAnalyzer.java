@@ -0,0 +1,249 @@
+package eu.basicairdata.clinometer;
+
+import android.hardware.Sensor;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The analysis of the vibrations: the dominant frequency, its amplitude and the RMS of the
+ * dynamic acceleration, computed by a streaming FFT of the raw accelerometer samples.
+ *
+ * The analyzer is a SensorDataListener placed in front of another one (as the SensorResampler):
+ * it receives the samples on the SensorProcessingThread, at the rate of the sensor,
+ * and passes all of them, unchanged, to the next listener.
+ * When it is enabled, every HOP samples it analyzes the last SIZE samples of the 3 axes:
+ * the mean (the gravity) is removed, a Hann window is applied, and the power spectra of the axes are summed.
+ * The amplitude of the peak is computed from the energy of its main lobe, so it does not depend
+ * on the position of the frequency between two bins.
+ * The buffers are allocated by the constructor: the analysis does not allocate,
+ * except the small immutable Result published to the Listener, on the main thread.
+ */
+public class VibrationAnalyzer implements SensorDataListener {
+
+    public interface Listener {
+        /**
+         * Called on the main thread when a new analysis is available.
+         */
+        void onVibrationChanged(Result result);
+    }
+
+    /**
+     * The result of an analysis.
+     */
+    public static class Result {
+        private final float frequency;
+        private final float amplitude;
+        private final float rms;
+        private final float sampleRate;
+
+        Result(float frequency, float amplitude, float rms, float sampleRate) {
+            this.frequency = frequency;
+            this.amplitude = amplitude;
+            this.rms = rms;
+            this.sampleRate = sampleRate;
+        }
+
+        /**
+         * The frequency of the peak of the spectrum, in Hz.
+         */
+        public float getFrequency() {
+            return frequency;
+        }
+
+        /**
+         * The amplitude (0-peak) of the vibration at the frequency of the peak, in m/s².
+         */
+        public float getAmplitude() {
+            return amplitude;
+        }
+
+        /**
+         * The RMS of the dynamic acceleration (the magnitude, without the gravity) over the window, in m/s².
+         */
+        public float getRms() {
+            return rms;
+        }
+
+        /**
+         * The rate of the samples analyzed, in Hz.
+         */
+        public float getSampleRate() {
+            return sampleRate;
+        }
+    }
+
+    public static final int SIZE = 256;                 // The samples of the window (1.28 s at 200 Hz)
+    public static final int HOP = 64;                   // The samples between two analyses
+    private static final int LOBE = 2;                  // The half width of the main lobe of the Hann window, in bins
+
+    private final SensorDataListener next;
+    private volatile Listener listener;
+    private volatile boolean enabled = false;
+
+    private final FFT fft = new FFT(SIZE);
+    private final float[] window = new float[SIZE];
+    private final float windowEnergy;                   // The sum of the squares of the window
+
+    // The last SIZE samples
+    private final float[][] samples = new float[3][SIZE];
+    private final long[] timestamps = new long[SIZE];
+    private int position = 0;                           // The index of the next sample
+    private int loaded = 0;                             // The samples loaded since the start, up to SIZE
+    private int newSamples = 0;                         // The samples loaded since the last analysis
+
+    private final float[] re = new float[SIZE];
+    private final float[] im = new float[SIZE];
+    private final float[] power = new float[SIZE / 2 + 1];
+
+    private volatile Result result;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean isUpdatePosted = new AtomicBoolean(false);
+
+    private final Runnable updateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            isUpdatePosted.set(false);
+            final Listener listener = VibrationAnalyzer.this.listener;
+            if (listener != null) listener.onVibrationChanged(result);
+        }
+    };
+
+
+    /**
+     * @param next The listener that receives all the samples, or null
+     */
+    public VibrationAnalyzer(SensorDataListener next) {
+        this.next = next;
+        float energy = 0;
+        for (int i = 0; i < SIZE; i++) {
+            window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / SIZE));
+            energy += window[i] * window[i];
+        }
+        windowEnergy = energy;
+    }
+
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+        if (listener == null) mainHandler.removeCallbacksAndMessages(null);
+    }
+
+
+    /**
+     * Enables or disables the analysis. When disabled, the samples are only passed to the next listener.
+     * The window restarts empty every time the analysis is enabled.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+
+    /**
+     * The last result, or null if no analysis has been done yet.
+     */
+    public Result getResult() {
+        return result;
+    }
+
+
+    @Override
+    public void onSensorChanged(SensorData data) {
+        if (data.sensorType == Sensor.TYPE_ACCELEROMETER) {
+            if (enabled) load(data.timestamp, data.x, data.y, data.z);
+            else loaded = 0;
+        }
+        if (next != null) next.onSensorChanged(data);
+    }
+
+
+    @Override
+    public void onSensorBatch(int[] sensorTypes, long[] timestamps, float[] values, int count) {
+        if (enabled) {
+            for (int i = 0; i < count; i++) {
+                if (sensorTypes[i] == Sensor.TYPE_ACCELEROMETER) load(timestamps[i], values[3 * i], values[3 * i + 1], values[3 * i + 2]);
+            }
+        } else loaded = 0;
+        if (next != null) next.onSensorBatch(sensorTypes, timestamps, values, count);
+    }
+
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        if (next != null) next.onAccuracyChanged(sensor, accuracy);
+    }
+
+
+    private void load(long timestamp, float x, float y, float z) {
+        if (loaded == 0) newSamples = 0;
+        timestamps[position] = timestamp;
+        samples[0][position] = x;
+        samples[1][position] = y;
+        samples[2][position] = z;
+        position = (position + 1) % SIZE;
+        if (loaded < SIZE) loaded++;
+        newSamples++;
+        if ((loaded == SIZE) && (newSamples >= HOP)) {
+            newSamples = 0;
+            analyze();
+        }
+    }
+
+
+    /**
+     * Analyzes the window and publishes the result.
+     * The oldest sample of the window is at the current position.
+     */
+    private void analyze() {
+        final long duration = timestamps[(position + SIZE - 1) % SIZE] - timestamps[position];
+        if (duration <= 0) return;
+        final float sampleRate = (SIZE - 1) * 1E9f / duration;
+
+        for (int k = 0; k <= SIZE / 2; k++) power[k] = 0;
+        float sumOfSquares = 0;
+        for (int axis = 0; axis < 3; axis++) {
+            final float[] s = samples[axis];
+            float mean = 0;
+            for (int i = 0; i < SIZE; i++) mean += s[i];
+            mean /= SIZE;
+            for (int i = 0; i < SIZE; i++) {
+                final float value = s[(position + i) % SIZE] - mean;
+                sumOfSquares += value * value;
+                re[i] = value * window[i];
+                im[i] = 0;
+            }
+            fft.transform(re, im);
+            for (int k = 0; k <= SIZE / 2; k++) power[k] += re[k] * re[k] + im[k] * im[k];
+        }
+
+        // The peak, excluding the DC and the Nyquist bins
+        int peak = 1;
+        for (int k = 2; k < SIZE / 2; k++) if (power[k] > power[peak]) peak = k;
+
+        // The position of the peak between the bins, by a parabola on the magnitudes
+        final float a = (float) Math.sqrt(power[peak - 1]);
+        final float b = (float) Math.sqrt(power[peak]);
+        final float c = (float) Math.sqrt(power[peak + 1]);
+        final float denominator = a - 2 * b + c;
+        final float delta = denominator < 0 ? Math.max(-0.5f, Math.min(0.5f, 0.5f * (a - c) / denominator)) : 0;
+
+        // The amplitude of a sinusoid from the energy of the main lobe (Parseval):
+        // the one-sided energy of A cos() is SIZE * A^2 * windowEnergy / 4
+        float lobeEnergy = 0;
+        for (int k = Math.max(1, peak - LOBE); k <= Math.min(SIZE / 2 - 1, peak + LOBE); k++) lobeEnergy += power[k];
+
+        result = new Result(
+                (peak + delta) * sampleRate / SIZE,
+                (float) Math.sqrt(4 * lobeEnergy / (SIZE * windowEnergy)),
+                (float) Math.sqrt(sumOfSquares / SIZE),
+                sampleRate);
+        if (!isUpdatePosted.getAndSet(true)) mainHandler.post(updateRunnable);
+    }
+}
@@ -1,5 +1,8 @@
 package eu.basicairdata.clinometer;
 
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
 import android.os.Bundle;
 import android.util.Log;
 import android.widget.Button;
@@ -18,11 +21,15 @@ import com.wit.witsdk.modular.sensor.modular.processor.constant.WitSensorKey;
 import com.wit.witsdk.modular.witsensorapi.modular.spp.Bwt901cl;
 import com.wit.witsdk.modular.witsensorapi.modular.spp.interfaces.IBwt901clRecordObserver;
 
+import java.nio.ByteBuffer;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * 功能：主界面
@@ -50,12 +57,58 @@ public class WITActivity extends AppCompatActivity implements IBluetoothFoundObs
      */
     private static final String TAG = "MainActivity";
 
+    /**
+     * 直接读取并解码设备的原始数据流，而不是通过SDK的字符串数据
+     * Reads and decodes the raw byte stream of the devices, instead of using the String values of the SDK
+     */
+    private static final boolean USE_DIRECT_DECODING = true;
+
+    /**
+     * 维特标准协议命令 (寄存器 KEY 和 CALSW)
+     * Commands of the WIT standard protocol (registers KEY and CALSW)
+     */
+    private static final byte[] COMMAND_UNLOCK                    = {(byte) 0xFF, (byte) 0xAA, (byte) 0x69, (byte) 0x88, (byte) 0xB5};
+    private static final byte[] COMMAND_ACCELERATION_CALIBRATION  = {(byte) 0xFF, (byte) 0xAA, (byte) 0x01, (byte) 0x01, (byte) 0x00};
+
     /**
      * 设备列表
      * Device List
      */
     private List<Bwt901cl> bwt901clList = new ArrayList<>();
 
+    /**
+     * 其他数据记录观察者 (例如 WITSensorProvider)
+     * The other record observers (for example the WITSensorProvider)
+     */
+    private static final List<IBwt901clRecordObserver> recordObservers = new CopyOnWriteArrayList<>();
+
+    /**
+     * 直接连接的设备列表
+     * The list of the devices connected directly
+     */
+    private final List<WITSerialReader> serialReaderList = new CopyOnWriteArrayList<>();
+
+    /**
+     * 原始数据流的监听者 (在读取线程中遍历，不分配内存)
+     * The listeners of the raw byte streams (iterated on the reading threads, without allocations)
+     */
+    private static volatile WITSerialReader.Listener[] streamListeners = new WITSerialReader.Listener[0];
+
+    /**
+     * 将原始数据分发给所有的监听者
+     * Dispatches the raw bytes to all the listeners
+     */
+    private static final WITSerialReader.Listener streamDispatcher = new WITSerialReader.Listener() {
+        @Override
+        public void onBytes(String deviceName, ByteBuffer bytes, long timestamp) {
+            final int position = bytes.position();
+            for (WITSerialReader.Listener listener : streamListeners) {
+                bytes.position(position);
+                listener.onBytes(deviceName, bytes, timestamp);
+            }
+        }
+    };
+
     /**
      * 控制自动刷新线程是否工作
      * Controls whether the auto-refresh thread works
@@ -74,15 +127,50 @@ public class WITActivity extends AppCompatActivity implements IBluetoothFoundObs
     public static  WITActivity getInstance(){
         return singleton;
     }
-    public float accX;
-    public float accY;
-    public float accZ;
-    public float gyrX;
-    public float gyrY;
-    public float gyrZ;
-    public float angX;
-    public float angY;
-    public float angZ;
+
+    /**
+     * 注册数据记录观察者，包括已连接的设备和以后找到的设备
+     * Registers a record observer on the connected devices and on the devices found later
+     */
+    public static void registerRecordObserver(IBwt901clRecordObserver observer) {
+        if (recordObservers.contains(observer)) return;
+        recordObservers.add(observer);
+        if (singleton != null) {
+            for (Bwt901cl bwt901cl : singleton.bwt901clList) bwt901cl.registerRecordObserver(observer);
+        }
+    }
+
+    /**
+     * 注册原始数据流的监听者
+     * Registers a listener of the raw byte streams of the devices connected directly
+     */
+    public static synchronized void registerStreamListener(WITSerialReader.Listener listener) {
+        for (WITSerialReader.Listener l : streamListeners) if (l == listener) return;
+        WITSerialReader.Listener[] listeners = Arrays.copyOf(streamListeners, streamListeners.length + 1);
+        listeners[streamListeners.length] = listener;
+        streamListeners = listeners;
+    }
+
+    /**
+     * 移除原始数据流的监听者
+     * Removes a listener of the raw byte streams
+     */
+    public static synchronized void removeStreamListener(WITSerialReader.Listener listener) {
+        List<WITSerialReader.Listener> listeners = new ArrayList<>(Arrays.asList(streamListeners));
+        listeners.remove(listener);
+        streamListeners = listeners.toArray(new WITSerialReader.Listener[0]);
+    }
+
+    /**
+     * 移除数据记录观察者
+     * Removes a record observer from all the devices
+     */
+    public static void removeRecordObserver(IBwt901clRecordObserver observer) {
+        recordObservers.remove(observer);
+        if (singleton != null) {
+            for (Bwt901cl bwt901cl : singleton.bwt901clList) bwt901cl.removeRecordObserver(observer);
+        }
+    }
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -90,6 +178,10 @@ public class WITActivity extends AppCompatActivity implements IBluetoothFoundObs
         singleton = this;
         setContentView(R.layout.activity_wit);
 
+        // 每个设备的数据通道
+        // The data channels of the devices
+        WITDeviceRegistry.getInstance();
+
         try {
             WitBluetoothManager.requestPermissions(this);
             // 初始化蓝牙管理器，这里会申请蓝牙权限
@@ -176,12 +268,16 @@ public class WITActivity extends AppCompatActivity implements IBluetoothFoundObs
         for (int i = 0; i < bwt901clList.size(); i++) {
             Bwt901cl bwt901cl = bwt901clList.get(i);
             bwt901cl.removeRecordObserver(this);
+            for (IBwt901clRecordObserver observer : recordObservers) bwt901cl.removeRecordObserver(observer);
             bwt901cl.close();
         }
 
+        for (WITSerialReader serialReader : serialReaderList) serialReader.close();
+
         // 清除所有设备
         // Erase all devices
         bwt901clList.clear();
+        serialReaderList.clear();
 
         // 开始搜索蓝牙
         // Start searching for bluetooth
@@ -261,6 +357,21 @@ public class WITActivity extends AppCompatActivity implements IBluetoothFoundObs
                 return;
             }
         }
+        for (WITSerialReader serialReader : serialReaderList) {
+            if (Objects.equals(serialReader.getDeviceName(), bwt901cl.getDeviceName())) return;
+        }
+
+        // 直接读取原始数据流 (设备必须已配对)
+        // Reads directly the raw byte stream (the device must be paired)
+        if (USE_DIRECT_DECODING) {
+            BluetoothDevice device = findBondedDevice(bwt901cl.getDeviceName());
+            if (device != null) {
+                WITSerialReader serialReader = new WITSerialReader(device, bwt901cl.getDeviceName(), streamDispatcher);
+                serialReaderList.add(serialReader);
+                serialReader.start();
+                return;
+            }
+        }
         // 添加到设备列表
         // add to device list
         bwt901clList.add(bwt901cl);
@@ -268,6 +379,7 @@ public class WITActivity extends AppCompatActivity implements IBluetoothFoundObs
         // 注册数据记录
         // Registration data record
         bwt901cl.registerRecordObserver(this);
+        for (IBwt901clRecordObserver observer : recordObservers) bwt901cl.registerRecordObserver(observer);
 
         // 打开设备
         // Turn on the device
@@ -280,6 +392,31 @@ public class WITActivity extends AppCompatActivity implements IBluetoothFoundObs
         }
     }
 
+    /**
+     * 查找已配对的设备
+     * Finds a paired device by name
+     */
+    @SuppressLint("MissingPermission")
+    private static BluetoothDevice findBondedDevice(String deviceName) {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if ((adapter == null) || (deviceName == null)) return null;
+        for (BluetoothDevice device : adapter.getBondedDevices()) {
+            if (deviceName.equals(device.getName())) return device;
+        }
+        return null;
+    }
+
+    /**
+     * 向直接连接的设备发送命令 (先解锁寄存器)
+     * Sends a command to the devices connected directly (unlocking the registers first)
+     */
+    private void sendToSerialReaders(byte[] command) {
+        for (WITSerialReader serialReader : serialReaderList) {
+            serialReader.send(COMMAND_UNLOCK);
+            serialReader.send(command);
+        }
+    }
+
     /**
      * 当需要记录数据时会回调这个方法
      * This method will be called back when data needs to be recorded
@@ -320,6 +457,12 @@ public class WITActivity extends AppCompatActivity implements IBluetoothFoundObs
                 text.append(deviceData);
 
             }
+            for (WITSerialReader serialReader : serialReaderList) {
+                WITDeviceChannel channel = WITDeviceRegistry.getInstance().getChannel(serialReader.getDeviceName());
+                text.append(serialReader.getDeviceName()).append("\n");
+                text.append(String.format(Locale.US, "%.1f Hz \t%d frames \t%d errors \t%d overflows\n",
+                        channel.getSampleRate(), channel.getFrames(), channel.getChecksumErrors(), channel.getOverflows()));
+            }
 
             TextView deviceDataTextView = findViewById(R.id.deviceDataTextView);
             runOnUiThread(() -> {
@@ -355,20 +498,10 @@ public class WITActivity extends AppCompatActivity implements IBluetoothFoundObs
         builder.append(getString(R.string.electricQuantityPercentage)).append(":").append(bwt901cl.getDeviceData(WitSensorKey.ElectricQuantityPercentage)).append("\n");
         builder.append(getString(com.wit.sdk.R.string.versionNumber)).append(":").append(bwt901cl.getDeviceData(WitSensorKey.VersionNumber)).append("\n");
 
-        accX = getFloat(bwt901cl.getDeviceData((WitSensorKey.AccX)));
-        accY = getFloat(bwt901cl.getDeviceData((WitSensorKey.AccY)));
-        accZ = getFloat(bwt901cl.getDeviceData((WitSensorKey.AccZ)));
-        angX = getFloat(bwt901cl.getDeviceData((WitSensorKey.AngleX)));
-        angY = getFloat(bwt901cl.getDeviceData((WitSensorKey.AngleY)));
-        angZ = getFloat(bwt901cl.getDeviceData((WitSensorKey.AngleZ)));
-        gyrX = getFloat(bwt901cl.getDeviceData((WitSensorKey.AsX)));
-        gyrY = getFloat(bwt901cl.getDeviceData((WitSensorKey.AsY)));
-        gyrZ = getFloat(bwt901cl.getDeviceData((WitSensorKey.AsZ)));
-
             return builder.toString();
 }
 
-    private float getFloat(String string){
+    static float parseFloat(String string){
         float f;
         try {
             // Convert the string to a float using Float.valueOf() method
@@ -400,6 +533,7 @@ public class WITActivity extends AppCompatActivity implements IBluetoothFoundObs
             // send command
             bwt901cl.appliedCalibration();
         }
+        sendToSerialReaders(COMMAND_ACCELERATION_CALIBRATION);
         Toast.makeText(this, "OK", Toast.LENGTH_LONG).show();
     }
 
@@ -407,6 +541,11 @@ public class WITActivity extends AppCompatActivity implements IBluetoothFoundObs
      * 让所有设备开始磁场校准
      * Let all devices begin magnetic field calibration
      *
+     * 直接解码的设备只使用应用的硬铁/软铁校准，设备的输出保持原始值 (避免双重校正)；
+     * SDK 的设备没有原始数据，使用设备自己的校准
+     * The devices decoded directly use only the hard-iron / soft-iron calibration of the app, and their output is left raw
+     * (to avoid a double correction); the devices of the SDK have no raw stream, and use the calibration of the device
+     *
      * @author huangyajun
      * @date 2022/6/29 10:25
      */
@@ -420,6 +559,12 @@ public class WITActivity extends AppCompatActivity implements IBluetoothFoundObs
             // send command
             bwt901cl.startFieldCalibration();
         }
+        // 只为直接解码的设备开始应用的硬铁/软铁校准 (SDK 的设备输出已经由设备校正)
+        // Starts the hard-iron / soft-iron calibration of the app only for the devices decoded directly
+        // (the output of the devices of the SDK is already corrected by the device)
+        for (WITSerialReader serialReader : serialReaderList) {
+            WITDeviceRegistry.getInstance().getChannel(serialReader.getDeviceName()).startMagneticCalibration();
+        }
         Toast.makeText(this, "OK", Toast.LENGTH_LONG).show();
     }
 
@@ -427,6 +572,9 @@ public class WITActivity extends AppCompatActivity implements IBluetoothFoundObs
      * 让所有设备结束磁场校准
      * Let's all devices end the magnetic field calibration
      *
+     * 直接解码的设备结束应用的校准，SDK 的设备结束设备的校准
+     * The devices decoded directly end the calibration of the app, the devices of the SDK the calibration of the device
+     *
      * @author huangyajun
      * @date 2022/6/29 10:25
      */
@@ -440,6 +588,12 @@ public class WITActivity extends AppCompatActivity implements IBluetoothFoundObs
             // send command
             bwt901cl.endFieldCalibration();
         }
+        // 结束直接解码的设备的应用硬铁/软铁校准并保存
+        // Ends the hard-iron / soft-iron calibration of the app of the devices decoded directly, and saves it
+        for (WITSerialReader serialReader : serialReaderList) {
+            WITDeviceChannel channel = WITDeviceRegistry.getInstance().getChannel(serialReader.getDeviceName());
+            if (channel.endMagneticCalibration() != null) WITDeviceRegistry.getInstance().saveMagneticCalibration(channel);
+        }
         Toast.makeText(this, "OK", Toast.LENGTH_LONG).show();
     }
 
@@ -0,0 +1,327 @@
+package eu.basicairdata.clinometer;
+
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The sample channel of a single WIT Motion device.
+ *
+ * Each channel has its own WITFrameDecoder, its own queue towards the SensorProcessingThread,
+ * its own magnetic calibration (persisted by device name by the WITDeviceRegistry) and its own statistics,
+ * so that several devices connected at the same time never mix their samples.
+ * The channels are created and owned by the WITDeviceRegistry.
+ * The calibration of the accelerometer is the one of the app (CalibrationActivity), applied by the TiltProcessor.
+ *
+ * The frames decoded from one read of the serial port arrive together, with the same time of arrival:
+ * the frames of each type are spread backwards from the arrival, at the frame period estimated
+ * from the arrivals, so that the timestamps of each type keep increasing at the rate of the device.
+ *
+ * The decoding and the magnetic calibration run on the thread of the device;
+ * the statistics are updated, and the subscribers are called, on the SensorProcessingThread.
+ */
+public class WITDeviceChannel implements SensorDataListener {
+
+    /**
+     * The sensor type of the angles computed by the device: roll, pitch and yaw, in degrees.
+     * Roll = atan2(y, z) and pitch = atan2(-x, sqrt(y^2 + z^2)) of the acceleration, fused with the gyroscope.
+     */
+    public static final int TYPE_DEVICE_ANGLE = Sensor.TYPE_DEVICE_PRIVATE_BASE + WITFrameDecoder.FRAME_ANGLE;
+
+    private static final float DEG_TO_RAD = (float) (Math.PI / 180);
+    private static final int SIZE_OF_MEANVARIANCE = 100;     // 0.5 s at 200 Hz
+    private static final int CHUNK_CAPACITY = 128;          // Frames decoded from one read (1024 bytes = 93 frames)
+    private static final int FRAME_TYPES = 4;               // From FRAME_ACCELERATION to FRAME_MAGNETIC_FIELD
+    private static final long DEFAULT_FRAME_PERIOD = 5000000;   // ns, 200 Hz, until the period is measured
+    private static final float FRAME_PERIOD_ALPHA = 0.1f;   // The weight of a read in the estimation of the period
+
+    private final String deviceName;
+    private final WITFrameDecoder decoder = new WITFrameDecoder();
+    private final SensorDispatcher dispatcher = new SensorDispatcher();
+    private final CopyOnWriteArrayList<SensorDataListener> subscribers = new CopyOnWriteArrayList<>();
+
+    // The hard-iron and soft-iron calibration of the magnetometer, and the range measured during its calibration
+    private volatile MagneticCalibration magneticCalibration = MagneticCalibration.IDENTITY;
+    private volatile boolean isMagneticCalibrationRunning = false;
+    private final float[] magneticMin = new float[3];
+    private final float[] magneticMax = new float[3];
+    private final float[] magneticField = new float[3];
+
+    // The frames of the current read, and the timing of the reads, used on the thread of the device
+    private final int[] chunkTypes = new int[CHUNK_CAPACITY];
+    private final float[] chunkValues = new float[CHUNK_CAPACITY * 3];
+    private final int[] chunkCounts = new int[FRAME_TYPES];
+    private final long[] lastFrameTimestamps = new long[FRAME_TYPES];
+    private long lastArrival = Long.MIN_VALUE;
+    private double framePeriod = DEFAULT_FRAME_PERIOD;
+
+    // Statistics, updated on the SensorProcessingThread
+    private final MeanVariance3 mvAcceleration = new MeanVariance3(SIZE_OF_MEANVARIANCE);
+    private long samples = 0;
+    private long firstTimestamp = 0;
+    private volatile float sampleRate = 0;                  // Published for the other threads
+
+
+    WITDeviceChannel(String deviceName) {
+        this.deviceName = deviceName;
+        dispatcher.setListener(this);
+        Arrays.fill(lastFrameTimestamps, Long.MIN_VALUE);
+    }
+
+
+    public String getDeviceName() {
+        return deviceName;
+    }
+
+
+    public void subscribe(SensorDataListener listener) {
+        subscribers.addIfAbsent(listener);
+    }
+
+
+    public void unsubscribe(SensorDataListener listener) {
+        subscribers.remove(listener);
+    }
+
+
+    public void setMagneticCalibration(MagneticCalibration magneticCalibration) {
+        this.magneticCalibration = magneticCalibration;
+    }
+
+
+    public MagneticCalibration getMagneticCalibration() {
+        return magneticCalibration;
+    }
+
+
+    /**
+     * Starts the calibration of the magnetometer: the device must be rotated in all the directions
+     * until endMagneticCalibration() is called.
+     */
+    public synchronized void startMagneticCalibration() {
+        for (int i = 0; i < 3; i++) {
+            magneticMin[i] = Float.POSITIVE_INFINITY;
+            magneticMax[i] = Float.NEGATIVE_INFINITY;
+        }
+        isMagneticCalibrationRunning = true;
+    }
+
+
+    /**
+     * Ends the calibration of the magnetometer and applies it.
+     *
+     * @return The new calibration, or null if the device has not been rotated enough
+     *         (the previous calibration is kept)
+     */
+    public synchronized MagneticCalibration endMagneticCalibration() {
+        if (!isMagneticCalibrationRunning) return null;
+        isMagneticCalibrationRunning = false;
+        final MagneticCalibration newCalibration = MagneticCalibration.fromRange(magneticMin, magneticMax);
+        if (newCalibration != null) magneticCalibration = newCalibration;
+        return newCalibration;
+    }
+
+
+    /**
+     * Decodes the raw bytes of the device and queues the samples.
+     * Called on the thread of the WITSerialReader.
+     *
+     * @param timestamp The time of arrival of the bytes
+     */
+    void onBytes(ByteBuffer bytes, long timestamp) {
+        int frames = 0;
+        int frame;
+        while ((frame = decoder.decode(bytes)) != WITFrameDecoder.FRAME_NONE) {
+            if ((frame < WITFrameDecoder.FRAME_ACCELERATION) || (frame > WITFrameDecoder.FRAME_MAGNETIC_FIELD)) continue;
+            if (frames == CHUNK_CAPACITY) {
+                publishChunk(frames, timestamp);
+                frames = 0;
+            }
+            chunkTypes[frames] = frame;
+            chunkValues[3 * frames] = decoder.getX();
+            chunkValues[3 * frames + 1] = decoder.getY();
+            chunkValues[3 * frames + 2] = decoder.getZ();
+            frames++;
+        }
+        if (frames > 0) publishChunk(frames, timestamp);
+    }
+
+
+    /**
+     * Queues the frames of a read. The frames of each type are timestamped backwards from the arrival,
+     * one frame period apart, and always after the previous frame of the same type.
+     */
+    private void publishChunk(int frames, long arrival) {
+        Arrays.fill(chunkCounts, 0);
+        for (int i = 0; i < frames; i++) chunkCounts[chunkTypes[i] - WITFrameDecoder.FRAME_ACCELERATION]++;
+
+        // The period of the device, from the number of accelerations received since the previous read
+        final int accelerations = chunkCounts[0];
+        if ((lastArrival != Long.MIN_VALUE) && (accelerations > 0) && (arrival > lastArrival)) {
+            framePeriod += FRAME_PERIOD_ALPHA * ((double) (arrival - lastArrival) / accelerations - framePeriod);
+        }
+        if (accelerations > 0) lastArrival = arrival;
+
+        for (int i = 0; i < frames; i++) {
+            final int type = chunkTypes[i] - WITFrameDecoder.FRAME_ACCELERATION;
+            final int framesAfter = --chunkCounts[type];            // The frames of the same type still to publish
+            long timestamp = arrival - (long) (framesAfter * framePeriod);
+            if (timestamp <= lastFrameTimestamps[type]) timestamp = lastFrameTimestamps[type] + 1;
+            lastFrameTimestamps[type] = timestamp;
+            final float x = chunkValues[3 * i];
+            final float y = chunkValues[3 * i + 1];
+            final float z = chunkValues[3 * i + 2];
+            switch (chunkTypes[i]) {
+                case WITFrameDecoder.FRAME_ACCELERATION:
+                    publishAcceleration(timestamp,
+                            x * SensorManager.GRAVITY_EARTH,
+                            y * SensorManager.GRAVITY_EARTH,
+                            z * SensorManager.GRAVITY_EARTH);
+                    break;
+                case WITFrameDecoder.FRAME_ANGULAR_VELOCITY:
+                    publishAngularVelocity(timestamp, x, y, z);
+                    break;
+                case WITFrameDecoder.FRAME_ANGLE:
+                    publishAngle(timestamp, x, y, z);
+                    break;
+                case WITFrameDecoder.FRAME_MAGNETIC_FIELD:
+                    publishMagneticField(timestamp, x, y, z);
+                    break;
+            }
+        }
+    }
+
+
+    /**
+     * Queues an acceleration, in m/s^2.
+     */
+    void publishAcceleration(long timestamp, float x, float y, float z) {
+        dispatcher.publish(timestamp, Sensor.TYPE_ACCELEROMETER, x, y, z);
+    }
+
+
+    /**
+     * Queues an angular velocity, given in deg/s as sent by the device.
+     */
+    void publishAngularVelocity(long timestamp, float x, float y, float z) {
+        dispatcher.publish(timestamp, Sensor.TYPE_GYROSCOPE, x * DEG_TO_RAD, y * DEG_TO_RAD, z * DEG_TO_RAD);
+    }
+
+
+    /**
+     * Queues the angles computed by the device (roll, pitch, yaw), in degrees.
+     * They are not calibrated here: the calibration of the accelerometer doesn't apply to the fused angles.
+     */
+    void publishAngle(long timestamp, float roll, float pitch, float yaw) {
+        dispatcher.publish(timestamp, TYPE_DEVICE_ANGLE, roll, pitch, yaw);
+    }
+
+
+    /**
+     * Queues a magnetic field, in the raw units of the device, applying the magnetic calibration.
+     * The units don't matter for the heading, that depends only on the direction of the field.
+     */
+    void publishMagneticField(long timestamp, float x, float y, float z) {
+        if (isMagneticCalibrationRunning) {
+            synchronized (this) {
+                magneticMin[0] = Math.min(magneticMin[0], x);
+                magneticMin[1] = Math.min(magneticMin[1], y);
+                magneticMin[2] = Math.min(magneticMin[2], z);
+                magneticMax[0] = Math.max(magneticMax[0], x);
+                magneticMax[1] = Math.max(magneticMax[1], y);
+                magneticMax[2] = Math.max(magneticMax[2], z);
+            }
+        }
+        magneticCalibration.apply(x, y, z, magneticField);
+        dispatcher.publish(timestamp, Sensor.TYPE_MAGNETIC_FIELD, magneticField[0], magneticField[1], magneticField[2]);
+    }
+
+
+    // ----------------------------------------------------------------------------- Statistics
+
+
+    /**
+     * The number of valid frames received from the device.
+     */
+    public long getFrames() {
+        return decoder.getFrames();
+    }
+
+
+    /**
+     * The number of frames discarded because of a wrong checksum.
+     */
+    public long getChecksumErrors() {
+        return decoder.getChecksumErrors();
+    }
+
+
+    /**
+     * The number of samples discarded because the subscribers were not able to keep up.
+     */
+    public long getOverflows() {
+        return dispatcher.getOverflows();
+    }
+
+
+    /**
+     * The mean rate of the acceleration samples delivered, in Hz.
+     * It can be read from any thread.
+     */
+    public float getSampleRate() {
+        return sampleRate;
+    }
+
+
+    /**
+     * The mean values of the last accelerations, in m/s^2.
+     * To be called on the SensorProcessingThread (for example by a subscriber).
+     */
+    public float getMeanAcceleration(int axis) {
+        return mvAcceleration.getMeanValue(axis);
+    }
+
+
+    /**
+     * The tolerance (confidence 95%) of the last accelerations, in m/s^2.
+     * To be called on the SensorProcessingThread (for example by a subscriber).
+     */
+    public float getAccelerationTolerance(int axis) {
+        return mvAcceleration.getTolerance(axis);
+    }
+
+
+    // ----------------------------------------------------------------------------- Delivery
+
+
+    @Override
+    public void onSensorChanged(SensorData data) {
+        for (SensorDataListener subscriber : subscribers) subscriber.onSensorChanged(data);
+    }
+
+
+    @Override
+    public void onSensorBatch(int[] sensorTypes, long[] timestamps, float[] values, int count) {
+        long lastTimestamp = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            if (sensorTypes[i] != Sensor.TYPE_ACCELEROMETER) continue;
+            mvAcceleration.loadSample(values[3 * i], values[3 * i + 1], values[3 * i + 2]);
+            if (samples == 0) firstTimestamp = timestamps[i];
+            lastTimestamp = timestamps[i];
+            samples++;
+        }
+        if ((lastTimestamp != Long.MIN_VALUE) && (samples > 1) && (lastTimestamp > firstTimestamp)) {
+            sampleRate = (samples - 1) * 1E9f / (lastTimestamp - firstTimestamp);
+        }
+        for (SensorDataListener subscriber : subscribers) subscriber.onSensorBatch(sensorTypes, timestamps, values, count);
+    }
+
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        for (SensorDataListener subscriber : subscribers) subscriber.onAccuracyChanged(sensor, accuracy);
+    }
+}
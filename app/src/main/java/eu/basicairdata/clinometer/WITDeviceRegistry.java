@@ -0,0 +1,189 @@
+package eu.basicairdata.clinometer;
+
+import android.hardware.SensorManager;
+import android.os.SystemClock;
+
+import androidx.preference.PreferenceManager;
+
+import com.wit.witsdk.modular.sensor.modular.processor.constant.WitSensorKey;
+import com.wit.witsdk.modular.witsensorapi.modular.spp.Bwt901cl;
+import com.wit.witsdk.modular.witsensorapi.modular.spp.interfaces.IBwt901clRecordObserver;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static eu.basicairdata.clinometer.ClinometerApplication.KEY_PREF_MAGNETIC_CALIBRATION;
+
+/**
+ * The registry of the WIT Motion devices.
+ *
+ * It receives the data of all the devices (both the raw byte streams of the WITSerialReaders
+ * and the records of the WIT SDK) and routes them, by device name, to one WITDeviceChannel per device.
+ * The listeners can subscribe to a single device, or to the first device connected.
+ */
+public class WITDeviceRegistry implements WITSerialReader.Listener, IBwt901clRecordObserver {
+
+    private static WITDeviceRegistry instance;
+
+    private final ConcurrentHashMap<String, WITDeviceChannel> channels = new ConcurrentHashMap<>();
+    private final List<SensorDataListener> firstDeviceSubscribers = new ArrayList<>();
+    private volatile WITDeviceChannel firstChannel;
+
+
+    public static synchronized WITDeviceRegistry getInstance() {
+        if (instance == null) {
+            instance = new WITDeviceRegistry();
+            WITActivity.registerStreamListener(instance);
+            WITActivity.registerRecordObserver(instance);
+        }
+        return instance;
+    }
+
+
+    private WITDeviceRegistry() {
+    }
+
+
+    /**
+     * Returns the channel of the device with the given name, creating it if needed.
+     * A channel can be requested before its device is connected.
+     */
+    public WITDeviceChannel getChannel(String deviceName) {
+        final WITDeviceChannel channel = channels.get(deviceName);
+        return channel != null ? channel : createChannel(deviceName);
+    }
+
+
+    /**
+     * Returns the channel of the first device connected, or null if no devices are connected yet.
+     */
+    public WITDeviceChannel getFirstChannel() {
+        return firstChannel;
+    }
+
+
+    /**
+     * The names of the devices known by the registry.
+     */
+    public List<String> getDeviceNames() {
+        return new ArrayList<>(channels.keySet());
+    }
+
+
+    /**
+     * Subscribes a listener to the samples of a device.
+     *
+     * @param deviceName The name of the device, or null for the first device connected
+     */
+    public synchronized void subscribe(String deviceName, SensorDataListener listener) {
+        if (deviceName != null) {
+            getChannel(deviceName).subscribe(listener);
+            return;
+        }
+        if (!firstDeviceSubscribers.contains(listener)) firstDeviceSubscribers.add(listener);
+        if (firstChannel != null) firstChannel.subscribe(listener);
+    }
+
+
+    /**
+     * Removes a listener from the samples of a device.
+     *
+     * @param deviceName The name of the device, or null for the first device connected
+     */
+    public synchronized void unsubscribe(String deviceName, SensorDataListener listener) {
+        if (deviceName != null) {
+            final WITDeviceChannel channel = channels.get(deviceName);
+            if (channel != null) channel.unsubscribe(listener);
+            return;
+        }
+        firstDeviceSubscribers.remove(listener);
+        if (firstChannel != null) firstChannel.unsubscribe(listener);
+    }
+
+
+    private synchronized WITDeviceChannel createChannel(String deviceName) {
+        WITDeviceChannel channel = channels.get(deviceName);
+        if (channel == null) {
+            channel = new WITDeviceChannel(deviceName);
+            final MagneticCalibration magneticCalibration = loadMagneticCalibration(deviceName);
+            if (magneticCalibration != null) channel.setMagneticCalibration(magneticCalibration);
+            channels.put(deviceName, channel);
+        }
+        return channel;
+    }
+
+
+    /**
+     * Saves the magnetic calibration of the channel into the preferences, by device name.
+     */
+    public void saveMagneticCalibration(WITDeviceChannel channel) {
+        final ClinometerApplication application = ClinometerApplication.getInstance();
+        if (application == null) return;
+        PreferenceManager.getDefaultSharedPreferences(application).edit()
+                .putString(KEY_PREF_MAGNETIC_CALIBRATION + channel.getDeviceName(), channel.getMagneticCalibration().encode())
+                .apply();
+    }
+
+
+    private static MagneticCalibration loadMagneticCalibration(String deviceName) {
+        final ClinometerApplication application = ClinometerApplication.getInstance();
+        if (application == null) return null;
+        return MagneticCalibration.decode(PreferenceManager.getDefaultSharedPreferences(application)
+                .getString(KEY_PREF_MAGNETIC_CALIBRATION + deviceName, null));
+    }
+
+
+    /**
+     * Marks the channel as connected; the first one receives the subscribers of the first device.
+     */
+    private synchronized void onConnected(WITDeviceChannel channel) {
+        if (firstChannel != null) return;
+        firstChannel = channel;
+        for (SensorDataListener listener : firstDeviceSubscribers) channel.subscribe(listener);
+    }
+
+
+    /**
+     * Called on the thread of a WITSerialReader when new bytes are available.
+     */
+    @Override
+    public void onBytes(String deviceName, ByteBuffer bytes, long timestamp) {
+        final WITDeviceChannel channel = getChannel(deviceName);
+        if (firstChannel == null) onConnected(channel);
+        channel.onBytes(bytes, timestamp);
+    }
+
+
+    /**
+     * Called on the thread of the WIT SDK when a new record is available.
+     * The timestamp is taken on arrival, on the same clock of SensorEvent.timestamp.
+     * The magnetic field of the SDK is already corrected by the calibration of the device,
+     * so the calibration of the app is never applied to it.
+     */
+    @Override
+    public void onRecord(Bwt901cl bwt901cl) {
+        final long timestamp = SystemClock.elapsedRealtimeNanos();
+        final WITDeviceChannel channel = getChannel(bwt901cl.getDeviceName());
+        if (firstChannel == null) onConnected(channel);
+        if (channel.getMagneticCalibration() != MagneticCalibration.IDENTITY) channel.setMagneticCalibration(MagneticCalibration.IDENTITY);
+
+        channel.publishAcceleration(timestamp,
+                WITActivity.parseFloat(bwt901cl.getDeviceData(WitSensorKey.AccX)) * SensorManager.GRAVITY_EARTH,
+                WITActivity.parseFloat(bwt901cl.getDeviceData(WitSensorKey.AccY)) * SensorManager.GRAVITY_EARTH,
+                WITActivity.parseFloat(bwt901cl.getDeviceData(WitSensorKey.AccZ)) * SensorManager.GRAVITY_EARTH);
+        channel.publishAngularVelocity(timestamp,
+                WITActivity.parseFloat(bwt901cl.getDeviceData(WitSensorKey.AsX)),
+                WITActivity.parseFloat(bwt901cl.getDeviceData(WitSensorKey.AsY)),
+                WITActivity.parseFloat(bwt901cl.getDeviceData(WitSensorKey.AsZ)));
+        channel.publishAngle(timestamp,
+                WITActivity.parseFloat(bwt901cl.getDeviceData(WitSensorKey.AngleX)),
+                WITActivity.parseFloat(bwt901cl.getDeviceData(WitSensorKey.AngleY)),
+                WITActivity.parseFloat(bwt901cl.getDeviceData(WitSensorKey.AngleZ)));
+        channel.publishMagneticField(timestamp,
+                WITActivity.parseFloat(bwt901cl.getDeviceData(WitSensorKey.HX)),
+                WITActivity.parseFloat(bwt901cl.getDeviceData(WitSensorKey.HY)),
+                WITActivity.parseFloat(bwt901cl.getDeviceData(WitSensorKey.HZ)));
+    }
+}
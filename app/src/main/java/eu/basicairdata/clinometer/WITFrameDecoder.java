@@ -0,0 +1,168 @@
+package eu.basicairdata.clinometer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A streaming decoder of the serial protocol of the WIT Motion BWT901CL.
+ *
+ * The device sends frames of 11 bytes: 0x55, the type, 4 little-endian int16 words
+ * and the checksum (the low byte of the sum of the first 10 bytes).
+ * The bytes can be fed in chunks of any size; the decoder keeps the partial frames
+ * between the calls and resynchronizes on the next 0x55 after a corrupted frame.
+ *
+ * The values of the last decoded frame are available through getX(), getY() and getZ():
+ * - FRAME_ACCELERATION: g
+ * - FRAME_ANGULAR_VELOCITY: deg/s
+ * - FRAME_ANGLE: deg (roll, pitch, yaw)
+ * - FRAME_MAGNETIC_FIELD: raw counts of the magnetometer
+ */
+public class WITFrameDecoder {
+
+    public static final int FRAME_NONE              = 0;
+    public static final int FRAME_ACCELERATION      = 0x51;
+    public static final int FRAME_ANGULAR_VELOCITY  = 0x52;
+    public static final int FRAME_ANGLE             = 0x53;
+    public static final int FRAME_MAGNETIC_FIELD    = 0x54;
+
+    private static final byte FRAME_HEADER = 0x55;
+    private static final int FRAME_LENGTH = 11;
+
+    private static final float ACCELERATION_SCALE     = 16.0f / 32768.0f;
+    private static final float ANGULAR_VELOCITY_SCALE = 2000.0f / 32768.0f;
+    private static final float ANGLE_SCALE            = 180.0f / 32768.0f;
+    private static final float TEMPERATURE_SCALE      = 1.0f / 100.0f;
+
+    private final byte[] frame = new byte[FRAME_LENGTH];
+    private int length = 0;                             // The number of bytes of the current frame
+
+    private volatile long frames = 0;                   // The number of valid frames decoded (written by the thread of the device only)
+    private volatile long checksumErrors = 0;           // The number of frames discarded (written by the thread of the device only)
+
+    private float x;
+    private float y;
+    private float z;
+    private float temperature;
+
+
+    /**
+     * Consumes the bytes of the buffer until a frame is completed.
+     * The buffer position is left after the last byte consumed, so the method
+     * can be called again with the same buffer to decode the next frame.
+     *
+     * @return The type of the decoded frame, or FRAME_NONE if the buffer has been consumed
+     *         without completing a frame
+     */
+    public int decode(ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            final byte b = buffer.get();
+            if ((length == 0) && (b != FRAME_HEADER)) continue;
+            frame[length++] = b;
+            if (length == FRAME_LENGTH) {
+                final int type = parseFrame();
+                if (type != FRAME_NONE) return type;
+            }
+        }
+        return FRAME_NONE;
+    }
+
+
+    public void reset() {
+        length = 0;
+    }
+
+
+    public float getX() {
+        return x;
+    }
+
+
+    public float getY() {
+        return y;
+    }
+
+
+    public float getZ() {
+        return z;
+    }
+
+
+    /**
+     * The temperature (in °C) sent with the acceleration and the angular velocity frames.
+     */
+    public float getTemperature() {
+        return temperature;
+    }
+
+
+    public long getFrames() {
+        return frames;
+    }
+
+
+    public long getChecksumErrors() {
+        return checksumErrors;
+    }
+
+
+    /**
+     * Parses the complete frame into the fields.
+     * @return The type of the frame, or FRAME_NONE if the checksum is wrong
+     */
+    private int parseFrame() {
+        int sum = 0;
+        for (int i = 0; i < FRAME_LENGTH - 1; i++) sum += frame[i];
+        if ((byte) sum != frame[FRAME_LENGTH - 1]) {
+            checksumErrors++;
+            resync();
+            return FRAME_NONE;
+        }
+        length = 0;
+        frames++;
+
+        final int type = frame[1] & 0xFF;
+        switch (type) {
+            case FRAME_ACCELERATION:
+                x = word(2) * ACCELERATION_SCALE;
+                y = word(4) * ACCELERATION_SCALE;
+                z = word(6) * ACCELERATION_SCALE;
+                temperature = word(8) * TEMPERATURE_SCALE;
+                break;
+            case FRAME_ANGULAR_VELOCITY:
+                x = word(2) * ANGULAR_VELOCITY_SCALE;
+                y = word(4) * ANGULAR_VELOCITY_SCALE;
+                z = word(6) * ANGULAR_VELOCITY_SCALE;
+                temperature = word(8) * TEMPERATURE_SCALE;
+                break;
+            case FRAME_ANGLE:
+                x = word(2) * ANGLE_SCALE;
+                y = word(4) * ANGLE_SCALE;
+                z = word(6) * ANGLE_SCALE;
+                break;
+            case FRAME_MAGNETIC_FIELD:
+                x = word(2);
+                y = word(4);
+                z = word(6);
+                break;
+        }
+        return type;
+    }
+
+
+    /**
+     * Discards the header of a corrupted frame and restarts from the next 0x55 (if any).
+     */
+    private void resync() {
+        int start = 1;
+        while ((start < FRAME_LENGTH) && (frame[start] != FRAME_HEADER)) start++;
+        length = FRAME_LENGTH - start;
+        System.arraycopy(frame, start, frame, 0, length);
+    }
+
+
+    /**
+     * Returns the signed little-endian int16 that starts at the given position of the frame.
+     */
+    private int word(int i) {
+        return (short) ((frame[i] & 0xFF) | (frame[i + 1] << 8));
+    }
+}
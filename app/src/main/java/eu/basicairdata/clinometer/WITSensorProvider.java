@@ -0,0 +1,74 @@
+package eu.basicairdata.clinometer;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+
+/**
+ * A SensorProvider driven by a WIT Motion BWT901CL.
+ * The samples come from the WITDeviceChannel of the device, in the WITDeviceRegistry:
+ * each device has its own channel, so several devices can be connected at the same time.
+ * The listener receives one sample per packet, at the rate of the device,
+ * in the units of the Android sensors (m/s^2 and rad/s), on the SensorProcessingThread,
+ * together with the magnetic field (calibrated, in the raw units of the device)
+ * and the angles computed by the device (WITDeviceChannel.TYPE_DEVICE_ANGLE).
+ */
+public class WITSensorProvider extends SensorProvider {
+
+    private final String deviceName;
+
+    /**
+     * Creates a provider bound to the first device connected.
+     */
+    public WITSensorProvider(Context context) {
+        this(context, null);
+    }
+
+    /**
+     * Creates a provider bound to the device with the given name.
+     */
+    public WITSensorProvider(Context context, String deviceName) {
+        super(context);
+        this.deviceName = deviceName;
+    }
+
+    public String getDeviceName() {
+        return deviceName;
+    }
+
+    @Override
+    public void register(SensorDataListener listener, int sensorType, int delay) {
+        // The sampling rate is set on the WIT device, the delay is not used
+        if (this.listener != null) WITDeviceRegistry.getInstance().unsubscribe(deviceName, this.listener);
+        this.listener = listener;
+        WITDeviceRegistry.getInstance().subscribe(deviceName, listener);
+    }
+
+    @Override
+    public void unregister() {
+        if (listener != null) WITDeviceRegistry.getInstance().unsubscribe(deviceName, listener);
+        listener = null;
+    }
+
+    @Override
+    public boolean contains(int sensorType) {
+        return sensorType == Sensor.TYPE_ACCELEROMETER || sensorType == Sensor.TYPE_GYROSCOPE
+                || sensorType == Sensor.TYPE_MAGNETIC_FIELD || sensorType == WITDeviceChannel.TYPE_DEVICE_ANGLE;
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        // The phone sensors are not used by this provider
+    }
+
+    /**
+     * The number of samples discarded because the listener was not able to keep up.
+     */
+    @Override
+    public long getOverflows() {
+        final WITDeviceChannel channel = (deviceName == null)
+                ? WITDeviceRegistry.getInstance().getFirstChannel()
+                : WITDeviceRegistry.getInstance().getChannel(deviceName);
+        return channel == null ? 0 : channel.getOverflows();
+    }
+}
@@ -0,0 +1,117 @@
+package eu.basicairdata.clinometer;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Reads the raw byte stream of a WIT Motion Bluetooth 2.0 (SPP) device on a dedicated thread.
+ * The bytes are passed as they arrive to the Listener, together with the time of arrival,
+ * without any conversion into Strings; the decoding is done by a WITFrameDecoder.
+ */
+public class WITSerialReader extends Thread {
+
+    private static final String TAG = "WITSerialReader";
+    private static final UUID SPP_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+    private static final int BUFFER_SIZE = 1024;
+
+    public interface Listener {
+        /**
+         * Called on the thread of the reader when new bytes are available.
+         * The buffer is owned by the reader and is valid only during the call.
+         *
+         * @param deviceName The name of the device
+         * @param bytes The bytes received, between the position and the limit of the buffer
+         * @param timestamp The time of arrival, in the same clock of SensorEvent.timestamp
+         */
+        void onBytes(String deviceName, ByteBuffer bytes, long timestamp);
+    }
+
+    private final BluetoothDevice device;
+    private final String deviceName;
+    private final Listener listener;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+
+    private volatile BluetoothSocket socket;
+    private volatile boolean isClosed = false;
+
+
+    public WITSerialReader(BluetoothDevice device, String deviceName, Listener listener) {
+        super(TAG + "-" + deviceName);
+        this.device = device;
+        this.deviceName = deviceName;
+        this.listener = listener;
+    }
+
+
+    public String getDeviceName() {
+        return deviceName;
+    }
+
+
+    @SuppressLint("MissingPermission")
+    @Override
+    public void run() {
+        try {
+            socket = device.createRfcommSocketToServiceRecord(SPP_UUID);
+            socket.connect();
+            final InputStream inputStream = socket.getInputStream();
+            while (!isClosed) {
+                final int length = inputStream.read(buffer);
+                if (length < 0) break;
+                final long timestamp = SystemClock.elapsedRealtimeNanos();
+                byteBuffer.clear();
+                byteBuffer.limit(length);
+                listener.onBytes(deviceName, byteBuffer, timestamp);
+            }
+        } catch (IOException e) {
+            if (!isClosed) Log.w(TAG, "Connection to " + deviceName + " lost: " + e.getMessage());
+        } finally {
+            close();
+        }
+    }
+
+
+    /**
+     * Sends a command to the device.
+     * @return true if the command has been sent
+     */
+    public boolean send(byte[] command) {
+        final BluetoothSocket socket = this.socket;
+        if ((socket == null) || isClosed) return false;
+        try {
+            final OutputStream outputStream = socket.getOutputStream();
+            outputStream.write(command);
+            outputStream.flush();
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to send the command to " + deviceName + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+
+    /**
+     * Closes the connection and stops the thread.
+     */
+    public void close() {
+        isClosed = true;
+        final BluetoothSocket socket = this.socket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
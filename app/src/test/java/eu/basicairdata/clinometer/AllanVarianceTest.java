@@ -0,0 +1,126 @@
+package eu.basicairdata.clinometer;
+
+import android.hardware.Sensor;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The streaming AllanVariance against the direct (non-overlapping) estimator, the slopes of the
+ * Allan deviation for the white noise and the random walk, and the AllanVarianceAnalyzer on a recorded session.
+ */
+public class AllanVarianceTest {
+
+    private static final int SAMPLES = 1 << 16;
+
+
+    @Test
+    public void matchesTheDirectEstimator() {
+        final Random random = new Random(1);
+        final double[] samples = new double[SAMPLES];
+        final AllanVariance allanVariance = new AllanVariance();
+        for (int i = 0; i < SAMPLES; i++) {
+            samples[i] = 9.81 + 0.05 * random.nextGaussian();
+            allanVariance.loadSample(samples[i]);
+        }
+
+        assertEquals(SAMPLES, allanVariance.getSamples());
+        for (int level = 0; level < allanVariance.getNumberOfLevels(); level++) {
+            final int m = 1 << level;
+            assertEquals(m, allanVariance.getAveragingFactor(level));
+            assertEquals(directAllanDeviation(samples, m), allanVariance.getAllanDeviation(level),
+                    1e-9 * directAllanDeviation(samples, m));
+        }
+    }
+
+
+    @Test
+    public void whiteNoiseHasSlopeMinusOneHalf() {
+        final Random random = new Random(2);
+        final double sigma = 0.05;
+        final AllanVariance allanVariance = new AllanVariance();
+        for (int i = 0; i < SAMPLES; i++) allanVariance.loadSample(sigma * random.nextGaussian());
+
+        // ADEV(m) = sigma / sqrt(m)
+        assertEquals(sigma, allanVariance.getAllanDeviation(0), 0.02 * sigma);
+        assertEquals(sigma / 8, allanVariance.getAllanDeviation(6), 0.1 * sigma / 8);
+        assertEquals(-0.5, slope(allanVariance, 0, 8), 0.05);
+    }
+
+
+    @Test
+    public void randomWalkHasSlopePlusOneHalf() {
+        final Random random = new Random(3);
+        final AllanVariance allanVariance = new AllanVariance();
+        double walk = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            walk += 0.001 * random.nextGaussian();
+            allanVariance.loadSample(walk);
+        }
+        assertEquals(0.5, slope(allanVariance, 2, 8), 0.1);
+    }
+
+
+    @Test
+    public void analyzerLoadsARecordedSession() throws IOException {
+        // 10 minutes at 100 Hz of accelerometer and gyroscope, through a SensorSessionWriter
+        final Random random = new Random(4);
+        final ByteArrayOutputStream file = new ByteArrayOutputStream();
+        final SensorSessionWriter writer = new SensorSessionWriter(file, null);
+        final int samples = 60000;
+        for (int i = 0; i < samples; i++) {
+            final long timestamp = i * 10000000L;
+            writer.write(timestamp, Sensor.TYPE_ACCELEROMETER, (float) (0.02 * random.nextGaussian()), 0, 9.81f);
+            writer.write(timestamp, Sensor.TYPE_GYROSCOPE, (float) (0.001 * random.nextGaussian()), 0, 0);
+        }
+        writer.close();
+
+        final AllanVarianceAnalyzer analyzer = new AllanVarianceAnalyzer();
+        try (SensorSessionReader reader = new SensorSessionReader(new ByteArrayInputStream(file.toByteArray()))) {
+            analyzer.load(reader);
+        }
+
+        assertEquals(0.01, analyzer.getSamplePeriod(Sensor.TYPE_ACCELEROMETER), 1e-9);
+        assertEquals(0.01, analyzer.getSamplePeriod(Sensor.TYPE_GYROSCOPE), 1e-9);
+        assertTrue(analyzer.getNumberOfLevels(Sensor.TYPE_ACCELEROMETER) >= 14);
+        assertEquals(10.24, analyzer.getTau(Sensor.TYPE_ACCELEROMETER, 10), 1e-9);
+        assertEquals(0.02, analyzer.getAllanDeviation(Sensor.TYPE_ACCELEROMETER, 0, 0), 0.001);
+        assertEquals(0.001, analyzer.getAllanDeviation(Sensor.TYPE_GYROSCOPE, 0, 0), 0.00005);
+        // The constant axes have no noise
+        assertEquals(0, analyzer.getAllanDeviation(Sensor.TYPE_ACCELEROMETER, 2, 0), 0);
+    }
+
+
+    /**
+     * The slope of the Allan deviation in a log-log plot, between two levels.
+     */
+    private static double slope(AllanVariance allanVariance, int fromLevel, int toLevel) {
+        return Math.log(allanVariance.getAllanDeviation(toLevel) / allanVariance.getAllanDeviation(fromLevel))
+                / Math.log((double) allanVariance.getAveragingFactor(toLevel) / allanVariance.getAveragingFactor(fromLevel));
+    }
+
+
+    /**
+     * The non-overlapping Allan deviation of the averages of blocks of m samples, computed directly.
+     */
+    private static double directAllanDeviation(double[] samples, int m) {
+        final int blocks = samples.length / m;
+        double previous = 0;
+        double sumOfSquares = 0;
+        for (int i = 0; i < blocks; i++) {
+            double average = 0;
+            for (int j = 0; j < m; j++) average += samples[i * m + j];
+            average /= m;
+            if (i > 0) sumOfSquares += (average - previous) * (average - previous);
+            previous = average;
+        }
+        return Math.sqrt(sumOfSquares / (2 * (blocks - 1)));
+    }
+}
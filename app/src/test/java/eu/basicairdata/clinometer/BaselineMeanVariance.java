@@ -0,0 +1,118 @@
+package eu.basicairdata.clinometer;
+
+/**
+ * The original MeanVariance (version 1.2.4), used as the reference of the tests and of the benchmarks:
+ * two passes over the window for each sample, and two passes over the last N samples for each query.
+ *
+ * It is a copy of the original code, except for the logs, and for the variance:
+ * the original divided the field instead of the sum (variance /= nsamples), so getVariance() was always 0
+ * and getStdDeviation() returned the square root of the sum of the squared deviations.
+ * The tolerance is unchanged: 1.96 * sqrt(sum of the squared deviations) / sqrt(n), that is 1.96 sigma.
+ */
+class BaselineMeanVariance {
+
+    private final float[] sample;
+    private int currentSample = -1;
+    private int loaded = 0;
+
+    private float meanValue = 0;
+    private float variance = 0;
+    private float stdDeviation = 0;
+    private float tolerance = 0;
+
+
+    BaselineMeanVariance(int size) {
+        sample = new float[size];
+    }
+
+
+    void loadSample(float sample) {
+        currentSample++;
+        if (currentSample == this.sample.length) currentSample = 0;
+        this.sample[currentSample] = sample;
+        loaded++;
+        calculate();
+    }
+
+
+    float getMeanValue() {
+        return meanValue;
+    }
+
+
+    float getVariance() {
+        return variance;
+    }
+
+
+    float getStdDeviation() {
+        return stdDeviation;
+    }
+
+
+    float getTolerance() {
+        return tolerance;
+    }
+
+
+    private void calculate() {
+        int nsamples = Math.min(sample.length, loaded);
+        double mv = 0;
+        for (int i = 0; i < nsamples; i++) mv += sample[i];
+        mv /= nsamples;
+        meanValue = (float) mv;
+
+        double var = 0;
+        for (int i = 0; i < nsamples; i++) var += (sample[i] - mv) * (sample[i] - mv);
+        variance = (float) (var / nsamples);
+        stdDeviation = (float) Math.sqrt(variance);
+
+        tolerance = (float) (1.96d * Math.sqrt(var) / Math.sqrt(nsamples));
+    }
+
+
+    /**
+     * As the original, it returns 0 if number_of_last_samples is not less than the samples of the window.
+     */
+    float getMeanValue(int number_of_last_samples) {
+        int nsamples = Math.min(sample.length, loaded);
+        if (number_of_last_samples <= 0) return meanValue;
+        if (number_of_last_samples >= nsamples) return 0;
+        double mv = 0;
+        int index = (loaded - number_of_last_samples) % nsamples;
+        for (int i = 0; i < number_of_last_samples; i++) {
+            mv += sample[index];
+            index++;
+            if (index == nsamples) index = 0;
+        }
+        return (float) (mv / number_of_last_samples);
+    }
+
+
+    /**
+     * As the original, it returns 0 if number_of_last_samples is not less than the samples of the window.
+     */
+    float getTolerance(int number_of_last_samples) {
+        int nsamples = Math.min(sample.length, loaded);
+        if (number_of_last_samples <= 0) return tolerance;
+        if (number_of_last_samples >= nsamples) return 0;
+        double mv = 0;
+        int index = (loaded - number_of_last_samples) % nsamples;
+        for (int i = 0; i < number_of_last_samples; i++) {
+            mv += sample[index];
+            index++;
+            if (index == nsamples) index = 0;
+        }
+        mv /= number_of_last_samples;
+
+        double var = 0;
+        index = (loaded - number_of_last_samples) % nsamples;
+        for (int i = 0; i < number_of_last_samples; i++) {
+            var += (sample[index] - mv) * (sample[index] - mv);
+            index++;
+            if (index == nsamples) index = 0;
+        }
+        var /= number_of_last_samples;
+        return (float) (1.96d * Math.sqrt(var) / Math.sqrt(number_of_last_samples));
+    }
+}
@@ -0,0 +1,111 @@
+package eu.basicairdata.clinometer;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The CascadedMeanVariance against a brute-force two-pass computation over the samples covered by each level,
+ * and the law of total variance (with the population variances) that combines the blocks of a level.
+ */
+public class CascadedMeanVarianceTest {
+
+    private static final float RATE = 100;                  // Hz
+
+
+    @Test
+    public void combinesTheBlocksWithTheLawOfTotalVariance() {
+        // Two levels of 2 samples and of 2 blocks
+        final CascadedMeanVariance cmv = new CascadedMeanVariance(10, new float[] { 0.2f, 0.4f });
+        for (float value : new float[] { 1, 2, 3, 4 }) cmv.loadSample(value);
+
+        // The blocks (1, 2) and (3, 4): the mean of their variances (0.25) plus the variance of their means (1.5, 3.5)
+        // is the population variance of 1, 2, 3, 4
+        assertEquals(2.5f, cmv.getMeanValue(1), 0);
+        assertEquals(0.25f + 1, cmv.getVariance(1), 1e-6);
+        assertEquals(1.96 * Math.sqrt(1.25), cmv.getTolerance(1), 1e-6);
+        // The first level contains the last block
+        assertEquals(3.5f, cmv.getMeanValue(0), 0);
+        assertEquals(0.25f, cmv.getVariance(0), 1e-6);
+    }
+
+
+    @Test
+    public void matchesTheTwoPassComputationOnTheBoundaries() {
+        // 2 minutes: all the levels end with the last sample
+        final float[] samples = signal(12000);
+        final CascadedMeanVariance cmv = load(samples);
+        for (int level = 0; level < cmv.getNumberOfLevels(); level++) {
+            assertTrue(cmv.getLoaded(level));
+            final int size = Math.round(cmv.getDuration(level) * RATE);
+            assertLevel(cmv, level, samples, samples.length - size, samples.length);
+        }
+    }
+
+
+    @Test
+    public void levelsCoverTheirLastCompleteBlocks() {
+        // 37 samples after a common boundary: each level covers the blocks completed by the level below
+        final float[] samples = signal(12037);
+        final CascadedMeanVariance cmv = load(samples);
+        assertLevel(cmv, 0, samples, samples.length - 10, samples.length);
+        assertLevel(cmv, 1, samples, 12030 - 100, 12030);
+        assertLevel(cmv, 2, samples, 12000 - 1000, 12000);
+        assertLevel(cmv, 3, samples, 12000 - 6000, 12000);
+    }
+
+
+    @Test
+    public void levelsAreLoadedAfterTheirDuration() {
+        final CascadedMeanVariance cmv = new CascadedMeanVariance(RATE);
+        final float[] samples = signal(1000);
+        for (float sample : samples) cmv.loadSample(sample);
+        assertTrue(cmv.getLoaded(0));
+        assertTrue(cmv.getLoaded(1));
+        assertTrue(cmv.getLoaded(2));
+        assertFalse(cmv.getLoaded(3));
+        cmv.reset();
+        assertFalse(cmv.getLoaded(0));
+    }
+
+
+    /**
+     * The gravity, with the noise of a MEMS sensor and a slow drift, where the naive sum of squares loses the variance.
+     */
+    private static float[] signal(int n) {
+        final Random random = new Random(0);
+        final float[] samples = new float[n];
+        for (int i = 0; i < n; i++) {
+            samples[i] = (float) (9.81 + 0.01 * random.nextGaussian() + 0.005 * Math.sin(2 * Math.PI * i / (30 * RATE)));
+        }
+        return samples;
+    }
+
+
+    private static CascadedMeanVariance load(float[] samples) {
+        final CascadedMeanVariance cmv = new CascadedMeanVariance(RATE);
+        for (float sample : samples) cmv.loadSample(sample);
+        return cmv;
+    }
+
+
+    /**
+     * Compares a level with the mean and the population variance of samples[from..to), computed in two passes.
+     */
+    private static void assertLevel(CascadedMeanVariance cmv, int level, float[] samples, int from, int to) {
+        double mean = 0;
+        for (int i = from; i < to; i++) mean += samples[i];
+        mean /= to - from;
+        double variance = 0;
+        for (int i = from; i < to; i++) variance += (samples[i] - mean) * (samples[i] - mean);
+        variance /= to - from;
+
+        assertEquals("Mean of the level " + level, mean, cmv.getMeanValue(level), 1e-6 * mean);
+        assertEquals("Variance of the level " + level, variance, cmv.getVariance(level), 1e-4 * variance);
+        assertEquals("Tolerance of the level " + level, 1.96 * Math.sqrt(variance), cmv.getTolerance(level), 1e-4 * 1.96 * Math.sqrt(variance));
+    }
+}
@@ -0,0 +1,99 @@
+package eu.basicairdata.clinometer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of a call of FastTrig.asin, acos and atan2, against java.lang.Math,
+ * on random arguments (the asin and acos in [-1, 1], the atan2 on the whole plane).
+ *
+ * It runs on the JVM of the unit tests, with the main method (for example from the IDE);
+ * the absolute times on a phone are higher, the ratios similar.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FastTrigBenchmark {
+
+    private static final int VALUES = 4096;                 // A power of 2
+
+    private final float[] x = new float[VALUES];
+    private final float[] y = new float[VALUES];
+    private int index = 0;
+
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(0);
+        for (int i = 0; i < VALUES; i++) {
+            x[i] = 2 * random.nextFloat() - 1;
+            y[i] = 2 * random.nextFloat() - 1;
+        }
+    }
+
+
+    @Benchmark
+    public double mathAsin() {
+        return Math.asin(x[nextIndex()]);
+    }
+
+
+    @Benchmark
+    public float fastTrigAsin() {
+        return FastTrig.asin(x[nextIndex()]);
+    }
+
+
+    @Benchmark
+    public double mathAcos() {
+        return Math.acos(x[nextIndex()]);
+    }
+
+
+    @Benchmark
+    public float fastTrigAcos() {
+        return FastTrig.acos(x[nextIndex()]);
+    }
+
+
+    @Benchmark
+    public double mathAtan2() {
+        final int i = nextIndex();
+        return Math.atan2(y[i], x[i]);
+    }
+
+
+    @Benchmark
+    public float fastTrigAtan2() {
+        final int i = nextIndex();
+        return FastTrig.atan2(y[i], x[i]);
+    }
+
+
+    private int nextIndex() {
+        index = (index + 1) & (VALUES - 1);
+        return index;
+    }
+
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(FastTrigBenchmark.class.getSimpleName()).build()).run();
+    }
+}
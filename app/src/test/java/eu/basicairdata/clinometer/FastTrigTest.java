@@ -0,0 +1,134 @@
+package eu.basicairdata.clinometer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The max errors of FastTrig against java.lang.Math, on dense grids, and the bounds documented in FastTrig:
+ * asin 2.8E-7 rad, acos 4.1E-7 rad, atan2 3.2E-7 rad.
+ * The grids include the ends (+-1, +-0), the floats next to +-1 where sqrt(1 - x) is steep,
+ * and the steep and flat octants of atan2, near the axes and near the diagonals.
+ */
+public class FastTrigTest {
+
+    private static final double ASIN_BOUND = 2.8E-7;
+    private static final double ACOS_BOUND = 4.1E-7;
+    private static final double ATAN2_BOUND = 3.2E-7;
+
+    private static final int STEPS = 1000000;               // Of the grids on [-1, 1] and on the circle
+
+
+    @Test
+    public void asinIsWithinTheBound() {
+        double maxError = 0;
+        for (float x : arguments()) maxError = Math.max(maxError, Math.abs(FastTrig.asin(x) - Math.asin(x)));
+        assertTrue("asin max error " + maxError, maxError <= ASIN_BOUND);
+    }
+
+
+    @Test
+    public void acosIsWithinTheBound() {
+        double maxError = 0;
+        for (float x : arguments()) maxError = Math.max(maxError, Math.abs(FastTrig.acos(x) - Math.acos(x)));
+        assertTrue("acos max error " + maxError, maxError <= ACOS_BOUND);
+    }
+
+
+    @Test
+    public void asinAndAcosAtTheEnds() {
+        assertEquals(0, FastTrig.asin(0f), ASIN_BOUND);
+        assertEquals(0, FastTrig.asin(-0f), ASIN_BOUND);
+        assertEquals(Math.PI / 2, FastTrig.asin(1), ASIN_BOUND);
+        assertEquals(-Math.PI / 2, FastTrig.asin(-1), ASIN_BOUND);
+        assertEquals(Math.PI / 2, FastTrig.acos(0f), ACOS_BOUND);
+        assertEquals(Math.PI / 2, FastTrig.acos(-0f), ACOS_BOUND);
+        assertEquals(0, FastTrig.acos(1), ACOS_BOUND);
+        assertEquals(Math.PI, FastTrig.acos(-1), ACOS_BOUND);
+        // The arguments outside of [-1, 1] are clamped, instead of NaN
+        assertEquals(Math.PI / 2, FastTrig.asin(Math.nextUp(1f)), ASIN_BOUND);
+        assertEquals(-Math.PI / 2, FastTrig.asin(Math.nextDown(-1f)), ASIN_BOUND);
+        assertEquals(Math.PI, FastTrig.acos(-1.0001f), ACOS_BOUND);
+    }
+
+
+    @Test
+    public void atan2IsWithinTheBoundOnTheCircle() {
+        double maxError = 0;
+        for (int i = 0; i <= STEPS; i++) {
+            final double angle = -Math.PI + 2 * Math.PI * i / STEPS;
+            for (float radius : new float[] { 1E-3f, 1, 9.81f, 1E3f }) {
+                final float x = radius * (float) Math.cos(angle);
+                final float y = radius * (float) Math.sin(angle);
+                maxError = Math.max(maxError, atan2Error(y, x));
+            }
+        }
+        assertTrue("atan2 max error " + maxError, maxError <= ATAN2_BOUND);
+    }
+
+
+    @Test
+    public void atan2IsWithinTheBoundInTheSteepAndFlatOctants() {
+        // The ratios near 0 (flat or steep, near the axes) and near 1 (near the diagonals, where the octants change)
+        double maxError = 0;
+        for (int i = 0; i <= STEPS; i++) {
+            final float t = (float) i / STEPS;
+            final float nearDiagonal = 1 - t * 1E-3f;
+            for (float ratio : new float[] { t, t * 1E-3f, nearDiagonal }) {
+                for (int quadrant = 0; quadrant < 4; quadrant++) {
+                    final float sx = (quadrant & 1) == 0 ? 1 : -1;
+                    final float sy = (quadrant & 2) == 0 ? 1 : -1;
+                    maxError = Math.max(maxError, atan2Error(sy * ratio, sx));      // Flat
+                    maxError = Math.max(maxError, atan2Error(sy, sx * ratio));      // Steep
+                }
+            }
+        }
+        assertTrue("atan2 max error " + maxError, maxError <= ATAN2_BOUND);
+    }
+
+
+    @Test
+    public void atan2OnTheAxes() {
+        assertEquals(0, FastTrig.atan2(0f, 1), ATAN2_BOUND);
+        assertEquals(Math.PI / 2, FastTrig.atan2(1, 0f), ATAN2_BOUND);
+        assertEquals(Math.PI / 2, FastTrig.atan2(1, -0f), ATAN2_BOUND);
+        assertEquals(-Math.PI / 2, FastTrig.atan2(-1, 0f), ATAN2_BOUND);
+        assertEquals(-Math.PI / 2, FastTrig.atan2(-1, -0f), ATAN2_BOUND);
+        assertEquals(Math.PI, FastTrig.atan2(0f, -1), ATAN2_BOUND);
+        assertEquals(Math.PI / 4, FastTrig.atan2(1, 1), ATAN2_BOUND);
+        assertEquals(-3 * Math.PI / 4, FastTrig.atan2(-1, -1), ATAN2_BOUND);
+        // The sign of the zeroes is ignored
+        assertEquals(0, FastTrig.atan2(-0f, 1), 0);
+        assertEquals(Math.PI, FastTrig.atan2(-0f, -1), ATAN2_BOUND);
+        assertEquals(0, FastTrig.atan2(0f, 0f), 0);
+        assertEquals(0, FastTrig.atan2(-0f, -0f), 0);
+    }
+
+
+    private static double atan2Error(float y, float x) {
+        final double error = Math.abs(FastTrig.atan2(y, x) - Math.atan2(y, x));
+        // On the negative X axis, pi and -pi are the same angle
+        return Math.min(error, Math.abs(error - 2 * Math.PI));
+    }
+
+
+    /**
+     * A uniform grid on [-1, 1], with +-0, and the 1000 floats next to +-1.
+     */
+    private static float[] arguments() {
+        final int ends = 1000;
+        final float[] arguments = new float[STEPS + 1 + 2 + 2 * ends];
+        int n = 0;
+        for (int i = 0; i <= STEPS; i++) arguments[n++] = -1 + 2f * i / STEPS;
+        arguments[n++] = 0f;
+        arguments[n++] = -0f;
+        float next = 1;
+        for (int i = 0; i < ends; i++) {
+            arguments[n++] = next;
+            arguments[n++] = -next;
+            next = Math.nextDown(next);
+        }
+        return arguments;
+    }
+}
@@ -0,0 +1,248 @@
+package eu.basicairdata.clinometer;
+
+import android.hardware.Sensor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Measures the trade-off between latency and jitter of a GravityFilter by replaying a recorded session
+ * that contains one step of the tilt: the device at rest, a quick rotation at stepTime, and the device at rest again
+ * (for some seconds, until the end of the session).
+ *
+ * The samples are fed to the filter as the TiltProcessor does, with the mean of the last outputs as reference;
+ * the tilt is computed on this mean, that is the value shown by the TiltProcessor (with the default estimator).
+ * The tilt is measured in the plane of the step, from the mean raw acceleration before the step (0)
+ * towards the mean raw acceleration of the second half of the final rest (the step amplitude):
+ * - delay: the time, from stepTime, to reach half of the step;
+ * - rise time: the time from 10% to 90% of the step;
+ * - settle time: the time, from stepTime, after which the tilt stays within SETTLE_TOLERANCE of the step;
+ * - jitter: the standard deviation of the tilt during the second half of the final rest.
+ *
+ * It is a harness of the tests, not part of the app: the sessions recorded on the device
+ * are analyzed on a desktop JVM by main(), or by FilterResponseAnalyzerTest.
+ */
+public class FilterResponseAnalyzer {
+
+    public static final float SETTLE_TOLERANCE = 0.1f;          // deg
+
+    private static final int SIZE_OF_REFERENCE = 16;            // The outputs averaged for the reference, as TiltProcessor
+
+    /**
+     * The response of a filter to the step.
+     */
+    public static class Result {
+        private final float stepAmplitude;
+        private final float delay;
+        private final float riseTime;
+        private final float settleTime;
+        private final float jitter;
+
+        Result(float stepAmplitude, float delay, float riseTime, float settleTime, float jitter) {
+            this.stepAmplitude = stepAmplitude;
+            this.delay = delay;
+            this.riseTime = riseTime;
+            this.settleTime = settleTime;
+            this.jitter = jitter;
+        }
+
+        /**
+         * The amplitude of the step, in degrees.
+         */
+        public float getStepAmplitude() {
+            return stepAmplitude;
+        }
+
+        /**
+         * The time from the start of the step to half of the step, in s.
+         */
+        public float getDelay() {
+            return delay;
+        }
+
+        /**
+         * The time from 10% to 90% of the step, in s.
+         */
+        public float getRiseTime() {
+            return riseTime;
+        }
+
+        /**
+         * The time from the start of the step to the settling within SETTLE_TOLERANCE, in s; NaN if it never settles.
+         */
+        public float getSettleTime() {
+            return settleTime;
+        }
+
+        /**
+         * The standard deviation of the tilt at rest after the step, in degrees.
+         */
+        public float getJitter() {
+            return jitter;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "step %.2f deg  delay %.3f s  rise %.3f s  settle(%.1f deg) %.3f s  jitter %.4f deg",
+                    stepAmplitude, delay, riseTime, SETTLE_TOLERANCE, settleTime, jitter);
+        }
+    }
+
+    // The samples of the session
+    private long[] timestamps = new long[1024];
+    private int[] types = new int[1024];
+    private float[] values = new float[1024 * 3];
+    private int count = 0;
+
+
+    /**
+     * Loads the samples of a recorded session. The reader is not closed.
+     */
+    public FilterResponseAnalyzer(SensorSessionReader reader) throws IOException {
+        final SensorData data = new SensorData();
+        while (reader.read(data)) {
+            if ((data.sensorType != Sensor.TYPE_ACCELEROMETER) && (data.sensorType != Sensor.TYPE_GYROSCOPE)) continue;
+            if (count == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, count * 2);
+                types = Arrays.copyOf(types, count * 2);
+                values = Arrays.copyOf(values, count * 6);
+            }
+            timestamps[count] = data.timestamp;
+            types[count] = data.sensorType;
+            values[3 * count] = data.x;
+            values[3 * count + 1] = data.y;
+            values[3 * count + 2] = data.z;
+            count++;
+        }
+    }
+
+
+    /**
+     * Replays the session into the filter and measures its response.
+     *
+     * @param filter The filter; it is reset before the replay
+     * @param stepTime The start of the step, in s from the first sample
+     */
+    public Result analyze(GravityFilter filter, double stepTime) {
+        if (count == 0) throw new IllegalStateException("The session is empty");
+        final long start = timestamps[0];
+        final long stepTimestamp = start + (long) (stepTime * 1E9);
+        final long end = timestamps[count - 1];
+        final long restTimestamp = stepTimestamp + (end - stepTimestamp) / 2;      // The second half of the final rest
+
+        // The plane of the step: v is the direction of the gravity before the step, u is orthogonal to it
+        final double[] before = new double[3];
+        final double[] after = new double[3];
+        meanAcceleration(start, stepTimestamp, before);
+        meanAcceleration(restTimestamp, end + 1, after);
+        final double[] v = normalize(before);
+        final double dot = after[0] * v[0] + after[1] * v[1] + after[2] * v[2];
+        final double[] u = normalize(new double[] { after[0] - dot * v[0], after[1] - dot * v[1], after[2] - dot * v[2] });
+        final double stepAmplitude = Math.toDegrees(Math.atan2(after[0] * u[0] + after[1] * u[1] + after[2] * u[2], dot));
+
+        // The replay
+        filter.reset();
+        final MeanVariance3 mvReference = new MeanVariance3(SIZE_OF_REFERENCE);
+        final float[] reference = new float[3];
+        final float[] gravity = new float[3];
+        double t10 = Double.NaN;
+        double t50 = Double.NaN;
+        double t90 = Double.NaN;
+        double lastOutside = stepTime;          // The last time outside of the tolerance
+        double sum = 0;
+        double sumOfSquares = 0;
+        int restSamples = 0;
+        for (int i = 0; i < count; i++) {
+            final float x = values[3 * i];
+            final float y = values[3 * i + 1];
+            final float z = values[3 * i + 2];
+            if (types[i] == Sensor.TYPE_GYROSCOPE) {
+                filter.updateAngularVelocity(timestamps[i], x, y, z);
+                continue;
+            }
+            filter.updateAcceleration(timestamps[i], x, y, z, reference, gravity);
+            mvReference.loadSample(gravity[0], gravity[1], gravity[2]);
+            reference[0] = mvReference.getMeanValue(0);
+            reference[1] = mvReference.getMeanValue(1);
+            reference[2] = mvReference.getMeanValue(2);
+
+            final double tilt = Math.toDegrees(Math.atan2(
+                    reference[0] * u[0] + reference[1] * u[1] + reference[2] * u[2],
+                    reference[0] * v[0] + reference[1] * v[1] + reference[2] * v[2]));
+            if (timestamps[i] < stepTimestamp) continue;
+            final double t = (timestamps[i] - start) * 1E-9;
+            final double fraction = tilt / stepAmplitude;
+            if (Double.isNaN(t10) && (fraction >= 0.1)) t10 = t;
+            if (Double.isNaN(t50) && (fraction >= 0.5)) t50 = t;
+            if (Double.isNaN(t90) && (fraction >= 0.9)) t90 = t;
+            if (Math.abs(tilt - stepAmplitude) > SETTLE_TOLERANCE) lastOutside = t;
+            if (timestamps[i] >= restTimestamp) {
+                sum += tilt;
+                sumOfSquares += tilt * tilt;
+                restSamples++;
+            }
+        }
+        final double mean = sum / restSamples;
+        final double endTime = (end - start) * 1E-9;
+        return new Result(
+                (float) stepAmplitude,
+                (float) (t50 - stepTime),
+                (float) (t90 - t10),
+                lastOutside >= (stepTime + endTime) / 2 ? Float.NaN : (float) (lastOutside - stepTime),
+                (float) Math.sqrt(Math.max(0, sumOfSquares / restSamples - mean * mean)));
+    }
+
+
+    private void meanAcceleration(long from, long to, double[] mean) {
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if ((types[i] != Sensor.TYPE_ACCELEROMETER) || (timestamps[i] < from) || (timestamps[i] >= to)) continue;
+            mean[0] += values[3 * i];
+            mean[1] += values[3 * i + 1];
+            mean[2] += values[3 * i + 2];
+            n++;
+        }
+        if (n == 0) throw new IllegalArgumentException("No samples of the accelerometer at rest");
+        mean[0] /= n;
+        mean[1] /= n;
+        mean[2] /= n;
+    }
+
+
+    private static double[] normalize(double[] vector) {
+        final double norm = Math.sqrt(vector[0] * vector[0] + vector[1] * vector[1] + vector[2] * vector[2]);
+        if (norm == 0) throw new IllegalArgumentException("The step has no amplitude");
+        vector[0] /= norm;
+        vector[1] /= norm;
+        vector[2] /= norm;
+        return vector;
+    }
+
+
+    /**
+     * Compares the filters on a recorded session, on a desktop JVM:
+     * FilterResponseAnalyzer session-file step-time [min-cutoff beta]
+     * The optional min-cutoff and beta are the parameters of the One Euro filter.
+     */
+    public static void main(String[] args) throws IOException {
+        if ((args.length != 2) && (args.length != 4)) {
+            System.out.println("Usage: FilterResponseAnalyzer session-file step-time [min-cutoff beta]");
+            return;
+        }
+        final FilterResponseAnalyzer analyzer;
+        try (SensorSessionReader reader = new SensorSessionReader(new File(args[0]))) {
+            analyzer = new FilterResponseAnalyzer(reader);
+        }
+        final double stepTime = Double.parseDouble(args[1]);
+        final OneEuroGravityFilter oneEuro = args.length == 4
+                ? new OneEuroGravityFilter(Float.parseFloat(args[2]), Float.parseFloat(args[3]))
+                : new OneEuroGravityFilter();
+        System.out.println("EMA            " + analyzer.analyze(new EmaGravityFilter(), stepTime));
+        System.out.println("Complementary  " + analyzer.analyze(new ComplementaryGravityFilter(), stepTime));
+        System.out.println("Quaternion     " + analyzer.analyze(new QuaternionOrientation(), stepTime));
+        System.out.println(String.format(Locale.US, "One Euro %.2f/%.2f ", oneEuro.getMinCutoff(), oneEuro.getBeta())
+                + analyzer.analyze(oneEuro, stepTime));
+    }
+}
@@ -0,0 +1,82 @@
+package eu.basicairdata.clinometer;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The FilterResponseAnalyzer on a synthetic session, recorded by a SensorSessionWriter:
+ * 5 s at rest, a roll step of 30 deg in 0.3 s, and 15 s at rest, with the noise of a MEMS sensor.
+ */
+public class FilterResponseAnalyzerTest {
+
+    private static final double STEP_TIME = 5;              // s
+    private static final float STEP = 30;                   // deg
+
+    private static FilterResponseAnalyzer analyzer;
+
+
+    @BeforeClass
+    public static void recordSession() throws IOException {
+        final SyntheticSensorGenerator generator = new SyntheticSensorGenerator(7)
+                .setRate(100)
+                .setNoise(0.05f, 0.005f)
+                .addKeyframe(0, 0, 0, 0)
+                .addKeyframe(STEP_TIME, 0, 0, 0)
+                .addKeyframe(STEP_TIME + 0.3, STEP, 0, 0)
+                .addKeyframe(20, STEP, 0, 0);
+        final ByteArrayOutputStream file = new ByteArrayOutputStream();
+        final SensorSessionWriter writer = new SensorSessionWriter(file, null);
+        final SensorData acceleration = new SensorData();
+        final SensorData angularVelocity = new SensorData();
+        for (int i = 0; i < 20 * generator.getRate(); i++) {
+            generator.next(0, acceleration, angularVelocity);
+            writer.onSensorChanged(angularVelocity);
+            writer.onSensorChanged(acceleration);
+        }
+        writer.close();
+
+        try (SensorSessionReader reader = new SensorSessionReader(new ByteArrayInputStream(file.toByteArray()))) {
+            analyzer = new FilterResponseAnalyzer(reader);
+        }
+    }
+
+
+    @Test
+    public void measuresTheStep() {
+        final FilterResponseAnalyzer.Result result = analyzer.analyze(new EmaGravityFilter(), STEP_TIME);
+        assertEquals(STEP, result.getStepAmplitude(), 0.05f);
+        assertTrue(result.getDelay() > 0);
+        assertTrue(result.getRiseTime() > 0);
+        assertTrue(result.getJitter() < 0.1f);
+    }
+
+
+    @Test
+    public void gyroAidedFiltersSettleFaster() {
+        final FilterResponseAnalyzer.Result ema = analyzer.analyze(new EmaGravityFilter(), STEP_TIME);
+        final FilterResponseAnalyzer.Result complementary = analyzer.analyze(new ComplementaryGravityFilter(), STEP_TIME);
+        final FilterResponseAnalyzer.Result quaternion = analyzer.analyze(new QuaternionOrientation(), STEP_TIME);
+
+        // The settle time includes the 0.3 s of the rotation
+        assertTrue(ema.toString(), ema.getSettleTime() > 1.5f);
+        assertTrue(complementary.toString(), complementary.getSettleTime() < 0.6f);
+        assertTrue(quaternion.toString(), quaternion.getSettleTime() < 0.6f);
+        assertTrue(complementary.getDelay() < ema.getDelay());
+        // With about the same noise
+        assertEquals(ema.getJitter(), complementary.getJitter(), 0.25f * ema.getJitter());
+    }
+
+
+    @Test
+    public void analysisIsRepeatable() {
+        final OneEuroGravityFilter filter = new OneEuroGravityFilter();
+        assertEquals(analyzer.analyze(filter, STEP_TIME).toString(), analyzer.analyze(filter, STEP_TIME).toString());
+    }
+}
@@ -0,0 +1,133 @@
+package eu.basicairdata.clinometer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The settle time and the noise floor of the gravity filters, on a synthetic roll step
+ * from 0 to 30 deg in 0.3 s at 100 Hz, with 0.05 m/s^2 and 0.005 rad/s of noise.
+ *
+ * The samples go through the same stages as the mean path of TiltProcessor:
+ * GravityFilter, mean of the last SIZE_OF_GRAVITY_WINDOW gravity values, TiltSolver.
+ * Measured: EMA settles (within 0.1 deg) in 1.74 s, the complementary filter in 0.14 s,
+ * both with a noise of about 0.033 deg sd.
+ */
+public class GravityFilterTest {
+
+    private static final int RATE = 100;                    // Hz
+    private static final int SIZE_OF_GRAVITY_WINDOW = 16;   // As TiltProcessor
+    private static final double STEP_END = 5.3;             // s
+    private static final float ROLL = 30;                   // deg
+    private static final float SETTLE_TOLERANCE = 0.1f;     // deg
+
+
+    /**
+     * The settle time and the noise of a filter on the roll step.
+     */
+    private static class Response {
+        double settleTime = -1;                             // s, -1 if never settled
+        double mean;                                        // deg
+        double noise;                                       // deg, sd
+    }
+
+
+    @Test
+    public void emaSettlesInAboutTwoSeconds() {
+        final Response response = measure(new EmaGravityFilter());
+        assertEquals(1.74, response.settleTime, 0.2);
+        assertEquals(ROLL, response.mean, 0.05);
+    }
+
+
+    @Test
+    public void complementarySettlesTenTimesFasterWithTheSameNoise() {
+        final Response ema = measure(new EmaGravityFilter());
+        final Response complementary = measure(new ComplementaryGravityFilter());
+        assertTrue("Settle time " + complementary.settleTime + " s", complementary.settleTime >= 0 && complementary.settleTime < 0.3);
+        assertTrue(complementary.settleTime * 10 < ema.settleTime);
+        assertEquals(ROLL, complementary.mean, 0.05);
+        assertEquals(ema.noise, complementary.noise, 0.2 * ema.noise);
+    }
+
+
+    @Test
+    public void quaternionSettlesAsTheComplementary() {
+        final Response response = measure(new QuaternionOrientation());
+        assertTrue("Settle time " + response.settleTime + " s", response.settleTime >= 0 && response.settleTime < 0.3);
+        assertEquals(ROLL, response.mean, 0.05);
+    }
+
+
+    @Test
+    public void quaternionKeepsTheOrientationAcrossAGap() {
+        // Still at 30 deg of roll, then a gap of 0.2 s in the data (common on SPP),
+        // and a first acceleration after it with a lateral acceleration of 3 m/s^2
+        final QuaternionOrientation filter = new QuaternionOrientation();
+        final float gy = (float) (9.81 * Math.sin(Math.toRadians(ROLL)));
+        final float gz = (float) (9.81 * Math.cos(Math.toRadians(ROLL)));
+        final float[] reference = new float[3];
+        final float[] gravity = new float[3];
+        long timestamp = 0;
+        for (int i = 0; i < 2 * RATE; i++) {
+            timestamp += 1000000000L / RATE;
+            filter.updateAngularVelocity(timestamp, 0, 0, 0);
+            filter.updateAcceleration(timestamp, 0, gy, gz, reference, gravity);
+        }
+        timestamp += 200000000L;
+        filter.updateAngularVelocity(timestamp, 0, 0, 0);
+        filter.updateAcceleration(timestamp, 3, gy, gz, reference, gravity);
+
+        // The fused orientation is kept, instead of being initialized from the disturbed sample (17 deg away)
+        final double cosine = (gravity[1] * gy + gravity[2] * gz)
+                / Math.sqrt(gravity[0] * gravity[0] + gravity[1] * gravity[1] + gravity[2] * gravity[2]) / 9.81;
+        final double error = Math.toDegrees(Math.acos(Math.min(1, cosine)));
+        assertTrue("Error after the gap " + error + " deg", error < 0.1);
+    }
+
+
+    private static Response measure(GravityFilter filter) {
+        final SyntheticSensorGenerator generator = new SyntheticSensorGenerator(7)
+                .setRate(RATE)
+                .setNoise(0.05f, 0.005f)
+                .addKeyframe(0, 0, 0, 0)
+                .addKeyframe(5, 0, 0, 0)
+                .addKeyframe(STEP_END, ROLL, 0, 0)
+                .addKeyframe(20, ROLL, 0, 0);
+        final MeanVariance3 mvGravity = new MeanVariance3(SIZE_OF_GRAVITY_WINDOW);
+        final TiltSolver solver = new TiltSolver();
+        final SensorData acceleration = new SensorData();
+        final SensorData angularVelocity = new SensorData();
+        final float[] reference = new float[3];
+        final float[] gravity = new float[3];
+        final Response response = new Response();
+        double sum = 0;
+        double sum2 = 0;
+        int n = 0;
+
+        for (int i = 0; i < 20 * RATE; i++) {
+            generator.next(0, acceleration, angularVelocity);
+            filter.updateAngularVelocity(angularVelocity.timestamp, angularVelocity.x, angularVelocity.y, angularVelocity.z);
+            filter.updateAcceleration(acceleration.timestamp, acceleration.x, acceleration.y, acceleration.z, reference, gravity);
+            mvGravity.loadSample(gravity[0], gravity[1], gravity[2]);
+            for (int axis = 0; axis < 3; axis++) reference[axis] = mvGravity.getMeanValue(axis);
+            solver.solve(reference[0], reference[1], reference[2]);
+
+            final double t = (double) i / RATE;
+            final float roll = solver.getAngle(1);
+            if (t > STEP_END) {
+                if (Math.abs(roll - ROLL) > SETTLE_TOLERANCE) response.settleTime = -1;
+                else if (response.settleTime < 0) response.settleTime = t - STEP_END;
+            }
+            if (t > 10) {
+                sum += roll;
+                sum2 += roll * roll;
+                n++;
+            }
+        }
+        response.mean = sum / n;
+        response.noise = Math.sqrt(sum2 / n - response.mean * response.mean);
+        return response;
+    }
+}
@@ -0,0 +1,108 @@
+package eu.basicairdata.clinometer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of a sample (load and query of the tolerance) of MeanVariance and MeanVariance3,
+ * against the original two-pass implementation, for the sizes of the windows of the app.
+ *
+ * It runs on the JVM of the unit tests, with the main method (for example from the IDE);
+ * the absolute times on a phone are higher, the ratios similar.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MeanVarianceBenchmark {
+
+    private static final int VALUES = 4096;                 // A power of 2
+
+    @Param({ "16", "200", "1000" })
+    public int size;
+
+    private final float[] values = new float[VALUES];
+    private int index = 0;
+    private MeanVariance meanVariance;
+    private MeanVariance3 meanVariance3;
+    private BaselineMeanVariance baseline;
+
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(0);
+        for (int i = 0; i < VALUES; i++) values[i] = 9.8f + 0.01f * (float) random.nextGaussian();
+        meanVariance = new MeanVariance(size);
+        meanVariance3 = new MeanVariance3(size);
+        baseline = new BaselineMeanVariance(size);
+        for (int i = 0; i < size; i++) {
+            meanVariance.loadSample(values[i]);
+            meanVariance3.loadSample(values[i], values[i], values[i]);
+            baseline.loadSample(values[i]);
+        }
+    }
+
+
+    @Benchmark
+    public float baseline() {
+        baseline.loadSample(nextValue());
+        return baseline.getTolerance();
+    }
+
+
+    @Benchmark
+    public float meanVariance() {
+        meanVariance.loadSample(nextValue());
+        return meanVariance.getTolerance();
+    }
+
+
+    @Benchmark
+    public float meanVariance3() {
+        final float value = nextValue();
+        meanVariance3.loadSample(value, value, value);
+        return meanVariance3.getTolerance(0) + meanVariance3.getTolerance(1) + meanVariance3.getTolerance(2);
+    }
+
+
+    @Benchmark
+    public float baselineLastSamples() {
+        baseline.loadSample(nextValue());
+        return baseline.getTolerance(size / 2);
+    }
+
+
+    @Benchmark
+    public float meanVarianceLastSamples() {
+        meanVariance.loadSample(nextValue());
+        return meanVariance.getTolerance(size / 2);
+    }
+
+
+    private float nextValue() {
+        index = (index + 1) & (VALUES - 1);
+        return values[index];
+    }
+
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MeanVarianceBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,140 @@
+package eu.basicairdata.clinometer;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * MeanVariance and MeanVariance3 (running sums and prefix sums) against the original two-pass
+ * implementation (BaselineMeanVariance), and the semantics of the tolerances:
+ * getTolerance() is 1.96 sigma of the samples, while getTolerance(n) is 1.96 sigma / sqrt(n),
+ * the uncertainty of the mean. The StationarityDetector converts its threshold with the first one.
+ */
+public class MeanVarianceTest {
+
+    private static final int SIZE = 100;
+    private static final int SAMPLES = 20000;               // Many times the window, to check the drift of the sums
+
+
+    @Test
+    public void matchesTheBaselineOnANoisySignal() {
+        compareWithBaseline(0, 0.5f);
+    }
+
+
+    @Test
+    public void matchesTheBaselineFarFromZero() {
+        // The gravity: a large mean with a small noise, where the naive sum of squares loses the variance
+        compareWithBaseline(9.80665f, 0.01f);
+    }
+
+
+    @Test
+    public void matchesTheBaselineWhileFilling() {
+        final MeanVariance mv = new MeanVariance(SIZE);
+        final BaselineMeanVariance baseline = new BaselineMeanVariance(SIZE);
+        final Random random = new Random(1);
+        for (int i = 0; i < SIZE / 2; i++) {
+            final float value = (float) random.nextGaussian();
+            mv.loadSample(value);
+            baseline.loadSample(value);
+        }
+        assertFalse(mv.getLoaded());
+        assertEquals(baseline.getMeanValue(), mv.getMeanValue(), 1e-6);
+        assertEquals(baseline.getTolerance(), mv.getTolerance(), 1e-5);
+        assertEquals(baseline.getMeanValue(10), mv.getMeanValue(10), 1e-6);
+        assertEquals(baseline.getTolerance(10), mv.getTolerance(10), 1e-5);
+    }
+
+
+    @Test
+    public void toleranceIsOnePointNineSixSigma() {
+        final MeanVariance mv = new MeanVariance(4);
+        for (float value : new float[] { 1, 2, 3, 4 }) mv.loadSample(value);
+        // Population variance of 1, 2, 3, 4
+        assertEquals(2.5f, mv.getMeanValue(), 0);
+        assertEquals(1.25f, mv.getVariance(), 1e-6);
+        assertEquals(Math.sqrt(1.25), mv.getStdDeviation(), 1e-6);
+        assertEquals(1.96 * Math.sqrt(1.25), mv.getTolerance(), 1e-6);
+        // The uncertainty of the mean of the last 2 samples (3, 4): sigma = 0.5
+        assertEquals(3.5f, mv.getMeanValue(2), 0);
+        assertEquals(1.96 * 0.5 / Math.sqrt(2), mv.getTolerance(2), 1e-6);
+    }
+
+
+    @Test
+    public void meanVariance3MatchesMeanVariance() {
+        final MeanVariance3 mv3 = new MeanVariance3(SIZE);
+        final MeanVariance[] mv = { new MeanVariance(SIZE), new MeanVariance(SIZE), new MeanVariance(SIZE) };
+        final Random random = new Random(2);
+        for (int i = 0; i < SAMPLES; i++) {
+            final float x = (float) random.nextGaussian();
+            final float y = 9.8f + 0.01f * (float) random.nextGaussian();
+            final float z = -3 + 0.1f * (float) random.nextGaussian();
+            mv3.loadSample(x, y, z);
+            mv[0].loadSample(x);
+            mv[1].loadSample(y);
+            mv[2].loadSample(z);
+        }
+        for (int axis = 0; axis < MeanVariance3.AXES; axis++) {
+            assertEquals(mv[axis].getMeanValue(), mv3.getMeanValue(axis), 1e-6);
+            assertEquals(mv[axis].getVariance(), mv3.getVariance(axis), 1e-6 * (1 + mv[axis].getVariance()));
+            assertEquals(mv[axis].getTolerance(), mv3.getTolerance(axis), 1e-5 * (1 + mv[axis].getTolerance()));
+            assertEquals(mv[axis].getMeanValue(30), mv3.getMeanValue(axis, 30), 1e-6);
+            assertEquals(mv[axis].getTolerance(30), mv3.getTolerance(axis, 30), 1e-6);
+        }
+    }
+
+
+    @Test
+    public void stationarityThresholdIsATolerance() {
+        // A square wave of amplitude a has sigma = a, so getTolerance() = 1.96 a
+        final float amplitude = 0.1f;
+        final float tolerance = 1.96f * amplitude;
+        assertTrue(isStationary(amplitude, tolerance * 1.01f));
+        assertFalse(isStationary(amplitude, tolerance * 0.99f));
+    }
+
+
+    private static boolean isStationary(float amplitude, float threshold) {
+        final StationarityDetector detector = new StationarityDetector(SIZE);
+        detector.setThreshold(threshold);
+        for (int i = 0; i < 2 * SIZE; i++) {
+            final float value = (i % 2 == 0) ? amplitude : -amplitude;
+            detector.loadSample(i, value, value, value);
+        }
+        assertEquals(1.96 * amplitude, detector.getMeanVariance().getTolerance(0), 1e-6);
+        return detector.isStationary();
+    }
+
+
+    private static void compareWithBaseline(float mean, float sigma) {
+        final MeanVariance mv = new MeanVariance(SIZE);
+        final BaselineMeanVariance baseline = new BaselineMeanVariance(SIZE);
+        final Random random = new Random(0);
+        final double meanTolerance = 1e-6 * (1 + Math.abs(mean));
+        final double varianceTolerance = 1e-4 * sigma * sigma;
+        final double toleranceTolerance = 1e-4 * sigma;
+
+        for (int i = 0; i < SAMPLES; i++) {
+            final float value = mean + sigma * (float) random.nextGaussian();
+            mv.loadSample(value);
+            baseline.loadSample(value);
+            if (i % 97 != 0) continue;
+
+            assertEquals(baseline.getMeanValue(), mv.getMeanValue(), meanTolerance);
+            assertEquals(baseline.getVariance(), mv.getVariance(), varianceTolerance);
+            assertEquals(baseline.getStdDeviation(), mv.getStdDeviation(), toleranceTolerance);
+            assertEquals(baseline.getTolerance(), mv.getTolerance(), toleranceTolerance);
+            for (int n : new int[] { 1, 2, 10, SIZE / 2, SIZE - 1 }) {
+                if (n >= Math.min(i + 1, SIZE)) continue;
+                assertEquals(baseline.getMeanValue(n), mv.getMeanValue(n), meanTolerance);
+                assertEquals(baseline.getTolerance(n), mv.getTolerance(n), toleranceTolerance);
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package eu.basicairdata.clinometer;
+
+import android.hardware.Sensor;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * The ownership contract of SensorData: the carriers are mutable and reused,
+ * and the steady-state ingest path (SensorDispatcher publish, drain into the SensorBatch, onSensorBatch) allocates nothing.
+ */
+public class SensorDataTest {
+
+    private static final int CYCLES = 1000000;
+    private static final long MAX_ALLOCATED_BYTES = 1024;   // The overhead of the measurement; far below 1 byte per sample
+
+
+    @Test
+    public void setReusesTheInstance() {
+        final SensorData data = new SensorData();
+        assertSame(data, data.set(1, Sensor.TYPE_ACCELEROMETER, 1, 2, 3));
+        assertSame(data, data.set(2, Sensor.TYPE_GYROSCOPE, 4, 5, 6));
+        assertEquals(2, data.timestamp);
+        assertEquals(Sensor.TYPE_GYROSCOPE, data.sensorType);
+        assertEquals(6, data.z, 0);
+    }
+
+
+    @Test
+    public void copyFromCopiesAllTheFields() {
+        final SensorData source = new SensorData(10, Sensor.TYPE_ACCELEROMETER, 1, 2, 3);
+        final SensorData copy = new SensorData();
+        assertSame(copy, copy.copyFrom(source));
+        source.set(11, Sensor.TYPE_GYROSCOPE, 4, 5, 6);
+        assertEquals(10, copy.timestamp);
+        assertEquals(Sensor.TYPE_ACCELEROMETER, copy.sensorType);
+        assertEquals(1, copy.x, 0);
+        assertEquals(2, copy.y, 0);
+        assertEquals(3, copy.z, 0);
+    }
+
+
+    @Test
+    public void ringDeliversIntoTheSameCarrier() {
+        final SensorSampleRing ring = new SensorSampleRing(4);
+        final SensorData out = new SensorData();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(ring.offer(i, Sensor.TYPE_ACCELEROMETER, i, 2 * i, 3 * i));
+            assertTrue(ring.poll(out));
+            assertEquals(i, out.timestamp);
+            assertEquals(3 * i, out.z, 0);
+        }
+        assertFalse(ring.poll(out));
+    }
+
+
+    @Test
+    public void steadyStateIngestAllocatesNothing() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        final BatchCounter counter = new BatchCounter();
+        final SensorDispatcher dispatcher = new SensorDispatcher(null, 256);
+        dispatcher.setListener(counter);
+        ingest(dispatcher, CYCLES);                         // Warm up, so that the measure doesn't include the JIT
+        counter.checksum = 0;
+        counter.samples = 0;
+
+        final long threadId = Thread.currentThread().getId();
+        final long before = threadBean.getThreadAllocatedBytes(threadId);
+        ingest(dispatcher, CYCLES);
+        final long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(CYCLES, counter.samples);
+        assertEquals((long) CYCLES * (CYCLES - 1) / 2, counter.checksum);
+        assertEquals(0, dispatcher.getOverflows());
+        assertTrue("Allocated " + allocated + " bytes for " + CYCLES + " samples", allocated < MAX_ALLOCATED_BYTES);
+    }
+
+
+    /**
+     * Publishes the samples in bursts and drains them, as the sensor thread and the Looper of the SensorDispatcher do.
+     * Without a Looper the drain is called here; where the Handler delivers the messages, it also runs on publish().
+     */
+    private static void ingest(SensorDispatcher dispatcher, int samples) {
+        for (int i = 0; i < samples; i++) {
+            dispatcher.publish(i, Sensor.TYPE_ACCELEROMETER, i, i, i);
+            if ((i & 63) == 63) dispatcher.drain();
+        }
+        dispatcher.drain();
+    }
+
+
+    /**
+     * A listener that does nothing with the batches but count them, so that the delivery can't be optimized away.
+     */
+    private static class BatchCounter implements SensorDataListener {
+        long samples = 0;
+        long checksum = 0;
+
+        @Override
+        public void onSensorChanged(SensorData data) {}
+
+        @Override
+        public void onSensorBatch(int[] sensorTypes, long[] timestamps, float[] values, int count) {
+            samples += count;
+            for (int i = 0; i < count; i++) checksum += timestamps[i];
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+    }
+}
@@ -0,0 +1,135 @@
+package eu.basicairdata.clinometer;
+
+import android.hardware.Sensor;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The SensorResampler with the input of a WIT device over SPP: bursts of frames read together,
+ * with the same time of arrival, and a gyroscope that never sends samples.
+ */
+public class SensorResamplerTest {
+
+    private static final long MS = 1000000;
+    private static final int RATE = 100;                    // Hz, of the grid and of the device
+
+
+    @Test
+    public void equalTimestampsAreDroppedAndCounted() {
+        final Collector collector = new Collector();
+        final SensorResampler resampler = new SensorResampler(collector, RATE, false);
+        final long[] timestamps = { 10 * MS, 10 * MS, 10 * MS, 20 * MS };
+        final int[] sensorTypes = { Sensor.TYPE_ACCELEROMETER, Sensor.TYPE_ACCELEROMETER, Sensor.TYPE_ACCELEROMETER, Sensor.TYPE_ACCELEROMETER };
+        resampler.onSensorBatch(sensorTypes, timestamps, new float[12], 4);
+        assertEquals(2, resampler.getDroppedSamples());
+    }
+
+
+    @Test
+    public void burstsOfTheDeviceAreSpreadAndAligned() {
+        final Collector collector = new Collector();
+        final SensorResampler resampler = new SensorResampler(collector, RATE, true);
+        final WITDeviceChannel channel = new WITDeviceChannel("WT901BLECL") {
+            @Override
+            void publishAcceleration(long timestamp, float x, float y, float z) {
+                resampler.onSensorBatch(new int[] { Sensor.TYPE_ACCELEROMETER }, new long[] { timestamp }, new float[] { x, y, z }, 1);
+            }
+
+            @Override
+            void publishAngularVelocity(long timestamp, float x, float y, float z) {
+                resampler.onSensorBatch(new int[] { Sensor.TYPE_GYROSCOPE }, new long[] { timestamp }, new float[] { x, y, z }, 1);
+            }
+        };
+
+        // 2 s of a device at 100 Hz, read in bursts of 4 groups (acceleration and angular velocity) every 40 ms
+        final int groupsPerRead = 4;
+        final int reads = 50;
+        for (int read = 1; read <= reads; read++) {
+            final ByteBuffer bytes = ByteBuffer.allocate(groupsPerRead * 2 * 11);
+            for (int group = 0; group < groupsPerRead; group++) {
+                bytes.put(frame(WITFrameDecoder.FRAME_ACCELERATION, 0, 0, 2048));       // 1 g on Z
+                bytes.put(frame(WITFrameDecoder.FRAME_ANGULAR_VELOCITY, 0, 0, 0));
+            }
+            bytes.flip();
+            channel.onBytes(bytes, read * groupsPerRead * 10 * MS);
+        }
+
+        assertEquals(reads * groupsPerRead, channel.getFrames() / 2);
+        assertEquals(0, resampler.getDroppedSamples());
+        assertEquals(0, resampler.getSkippedGridPoints());
+        assertFalse(resampler.isGyroscopeMissing());
+        assertEquals(10 * MS, resampler.getMeanInterval(Sensor.TYPE_ACCELEROMETER), 0.5 * MS);
+        // All the samples reach the grid, in order, with the gyroscope aligned to the accelerometer
+        assertTrue(collector.accelerations.size() >= reads * groupsPerRead - 2 * groupsPerRead);
+        assertEquals(collector.accelerations, collector.angularVelocities);
+        for (int i = 1; i < collector.accelerations.size(); i++) {
+            assertEquals(10 * MS, collector.accelerations.get(i) - collector.accelerations.get(i - 1));
+        }
+    }
+
+
+    @Test
+    public void accelerometerGoesOnAloneWithoutGyroscope() {
+        final Collector collector = new Collector();
+        final SensorResampler resampler = new SensorResampler(collector, RATE, true);
+        final int[] sensorTypes = { Sensor.TYPE_ACCELEROMETER };
+        final long[] timestamps = new long[1];
+        for (int i = 0; i <= 3 * RATE; i++) {
+            timestamps[0] = i * 10 * MS;
+            resampler.onSensorBatch(sensorTypes, timestamps, new float[3], 1);
+        }
+
+        assertTrue(resampler.isGyroscopeMissing());
+        assertTrue(collector.angularVelocities.isEmpty());
+        // After the timeout, the grid covers all the data received, from the beginning
+        assertEquals(3 * RATE + 1, collector.accelerations.size());
+        assertEquals(3000 * MS, (long) collector.accelerations.get(collector.accelerations.size() - 1));
+    }
+
+
+    /**
+     * A frame of the device: 0x55, the type, 4 little-endian int16 words and the checksum.
+     */
+    private static byte[] frame(int type, int x, int y, int z) {
+        final byte[] frame = new byte[11];
+        frame[0] = 0x55;
+        frame[1] = (byte) type;
+        final int[] words = { x, y, z, 0 };
+        for (int i = 0; i < words.length; i++) {
+            frame[2 + 2 * i] = (byte) words[i];
+            frame[3 + 2 * i] = (byte) (words[i] >> 8);
+        }
+        int sum = 0;
+        for (int i = 0; i < 10; i++) sum += frame[i];
+        frame[10] = (byte) sum;
+        return frame;
+    }
+
+
+    private static class Collector implements SensorDataListener {
+        final List<Long> accelerations = new ArrayList<>();
+        final List<Long> angularVelocities = new ArrayList<>();
+
+        @Override
+        public void onSensorChanged(SensorData data) {}
+
+        @Override
+        public void onSensorBatch(int[] sensorTypes, long[] timestamps, float[] values, int count) {
+            for (int i = 0; i < count; i++) {
+                if (sensorTypes[i] == Sensor.TYPE_ACCELEROMETER) accelerations.add(timestamps[i]);
+                else if (sensorTypes[i] == Sensor.TYPE_GYROSCOPE) angularVelocities.add(timestamps[i]);
+            }
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+    }
+}
@@ -0,0 +1,157 @@
+package eu.basicairdata.clinometer;
+
+import android.hardware.Sensor;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The round trip of a session: SensorSessionWriter (in timestamp order across the types)
+ * and SensorSessionPlayer (on the JVM, without Android), also looping as the ReplaySensorProvider does.
+ */
+public class SensorSessionTest {
+
+    private static final long MS = 1000000;
+
+
+    @Test
+    public void writerSortsTheSamplesAcrossTheTypes() throws IOException {
+        // A gyroscope batch delivered after the accelerometer one
+        final ByteArrayOutputStream file = new ByteArrayOutputStream();
+        final SensorSessionWriter writer = new SensorSessionWriter(file, null);
+        writer.onSensorBatch(new int[] { Sensor.TYPE_ACCELEROMETER, Sensor.TYPE_ACCELEROMETER },
+                new long[] { 10 * MS, 20 * MS }, new float[6], 2);
+        writer.onSensorBatch(new int[] { Sensor.TYPE_GYROSCOPE, Sensor.TYPE_GYROSCOPE },
+                new long[] { 5 * MS, 15 * MS }, new float[6], 2);
+        writer.close();
+
+        assertEquals(4, writer.getSamples());
+        assertEquals(0, writer.getLateSamples());
+        final List<Long> timestamps = play(file, SensorSessionPlayer.SPEED_MAX);
+        assertEquals(4, timestamps.size());
+        for (int i = 1; i < timestamps.size(); i++) assertTrue(timestamps.get(i) >= timestamps.get(i - 1));
+        assertEquals(5 * MS, (long) timestamps.get(0));
+        assertEquals(20 * MS, (long) timestamps.get(3));
+    }
+
+
+    @Test
+    public void writerDropsTheLateSamples() throws IOException {
+        final ByteArrayOutputStream file = new ByteArrayOutputStream();
+        final SensorSessionWriter writer = new SensorSessionWriter(file, null);
+        writer.onSensorBatch(new int[] { Sensor.TYPE_ACCELEROMETER, Sensor.TYPE_ACCELEROMETER },
+                new long[] { 10 * MS, 10 * MS + 2 * SensorSessionWriter.REORDER_WINDOW }, new float[6], 2);
+        // Older than the sample already written
+        writer.onSensorBatch(new int[] { Sensor.TYPE_GYROSCOPE }, new long[] { 5 * MS }, new float[3], 1);
+        writer.close();
+
+        assertEquals(2, writer.getSamples());
+        assertEquals(1, writer.getLateSamples());
+    }
+
+
+    @Test
+    public void playerKeepsTheTiming() throws IOException {
+        final ByteArrayOutputStream file = new ByteArrayOutputStream();
+        final SensorSessionWriter writer = new SensorSessionWriter(file, null);
+        for (int i = 0; i <= 20; i++) {
+            writer.onSensorBatch(new int[] { Sensor.TYPE_ACCELEROMETER }, new long[] { i * 10 * MS }, new float[3], 1);
+        }
+        writer.close();
+
+        // 200 ms of session, played 2 times faster
+        final long start = System.nanoTime();
+        assertEquals(21, play(file, 2).size());
+        final long elapsed = System.nanoTime() - start;
+        assertTrue("Played in " + elapsed / MS + " ms", elapsed >= 100 * MS);
+    }
+
+
+    @Test
+    public void loopingReplayKeepsTheTimestampsIncreasing() throws IOException, InterruptedException {
+        // 0.5 s of accelerometer and gyroscope at 100 Hz
+        final ByteArrayOutputStream file = new ByteArrayOutputStream();
+        final SensorSessionWriter writer = new SensorSessionWriter(file, null);
+        for (int i = 0; i <= 50; i++) {
+            writer.write(i * 10 * MS, Sensor.TYPE_GYROSCOPE, 0, 0, 0);
+            writer.write(i * 10 * MS, Sensor.TYPE_ACCELEROMETER, 0, 0, 9.81f);
+        }
+        writer.close();
+
+        final List<Long> timestamps = new ArrayList<>();
+        final SensorResampler resampler = new SensorResampler(new SensorDataListener() {
+            @Override
+            public void onSensorChanged(SensorData data) {}
+
+            @Override
+            public void onSensorBatch(int[] sensorTypes, long[] ts, float[] values, int count) {
+                for (int i = 0; i < count; i++) if (sensorTypes[i] == Sensor.TYPE_ACCELEROMETER) timestamps.add(ts[i]);
+            }
+
+            @Override
+            public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+        }, 100, true);
+
+        // Two passes, with the offset of the loop added as ReplaySensorProvider.publishSample does
+        final SensorSessionPlayer player = new SensorSessionPlayer(SensorSessionPlayer.SPEED_MAX);
+        final long[] loopOffset = { 0 };
+        final SensorDataListener publisher = new SensorDataListener() {
+            @Override
+            public void onSensorChanged(SensorData data) {}
+
+            @Override
+            public void onSensorBatch(int[] sensorTypes, long[] ts, float[] values, int count) {
+                final long[] shifted = new long[count];
+                for (int i = 0; i < count; i++) shifted[i] = ts[i] + loopOffset[0];
+                resampler.onSensorBatch(sensorTypes, shifted, values, count);
+            }
+
+            @Override
+            public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+        };
+        for (int pass = 0; pass < 2; pass++) {
+            try (SensorSessionReader reader = new SensorSessionReader(new ByteArrayInputStream(file.toByteArray()))) {
+                player.play(reader, publisher);
+            }
+            assertEquals(510 * MS, player.getLoopDuration());
+            loopOffset[0] += player.getLoopDuration();
+        }
+
+        // The second pass continues the grid of the first one, without gaps
+        assertEquals(0, resampler.getSkippedGridPoints());
+        for (int i = 1; i < timestamps.size(); i++) assertEquals(10 * MS, timestamps.get(i) - timestamps.get(i - 1));
+        assertEquals(102, timestamps.size());
+        assertEquals(1010 * MS, (long) timestamps.get(timestamps.size() - 1));
+    }
+
+
+    private static List<Long> play(ByteArrayOutputStream file, float speed) throws IOException {
+        final List<Long> timestamps = new ArrayList<>();
+        final SensorDataListener listener = new SensorDataListener() {
+            @Override
+            public void onSensorChanged(SensorData data) {}
+
+            @Override
+            public void onSensorBatch(int[] sensorTypes, long[] ts, float[] values, int count) {
+                for (int i = 0; i < count; i++) timestamps.add(ts[i]);
+            }
+
+            @Override
+            public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+        };
+        try (SensorSessionReader reader = new SensorSessionReader(new ByteArrayInputStream(file.toByteArray()))) {
+            new SensorSessionPlayer(speed).play(reader, listener);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+        return timestamps;
+    }
+}
@@ -0,0 +1,130 @@
+package eu.basicairdata.clinometer;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SlidingOrderStatistics against the sorting of a copy of the window, at every sample:
+ * while filling, after many wrap-arounds of the ring (every node evicted and reused), with many duplicated
+ * values, and after reset().
+ */
+public class SlidingOrderStatisticsTest {
+
+    private static final float[] TRIMS = { 0, 0.1f, 0.25f, 0.5f };
+
+
+    @Test
+    public void matchesTheSortedWindow() {
+        for (int size : new int[] { 1, 2, 3, 16, 17, 200 }) {
+            final Random random = new Random(size);
+            final SlidingOrderStatistics os = new SlidingOrderStatistics(size);
+            final ArrayDeque<Float> window = new ArrayDeque<>();
+            for (int i = 0; i < 20 * size + 7; i++) {
+                load(os, window, size, 9.81f + 0.05f * (float) random.nextGaussian());
+                assertMatches(os, window);
+            }
+        }
+    }
+
+
+    @Test
+    public void handlesTheDuplicatedValues() {
+        // A few values only, as the quantized output of a sensor: most of the samples are equal to others
+        final int size = 31;
+        final Random random = new Random(1);
+        final SlidingOrderStatistics os = new SlidingOrderStatistics(size);
+        final ArrayDeque<Float> window = new ArrayDeque<>();
+        for (int i = 0; i < 50 * size; i++) {
+            load(os, window, size, random.nextInt(4) * 0.5f);
+            assertMatches(os, window);
+        }
+
+        // All the values equal
+        for (int i = 0; i < 2 * size; i++) {
+            load(os, window, size, 1);
+            assertMatches(os, window);
+        }
+        assertEquals(1, os.getValue(0), 0);
+        assertEquals(1, os.getValue(size - 1), 0);
+    }
+
+
+    @Test
+    public void evictsTheOldestSampleAfterTheWrapAround() {
+        // An increasing ramp: the window always contains the last size values
+        final int size = 8;
+        final SlidingOrderStatistics os = new SlidingOrderStatistics(size);
+        for (int i = 0; i < 5 * size + 3; i++) {
+            os.loadSample(i);
+            final int first = Math.max(0, i - size + 1);
+            assertEquals(first, os.getValue(0), 0);
+            assertEquals(i, os.getValue(os.getCount() - 1), 0);
+        }
+        // A spike leaves the window after size samples
+        os.loadSample(1000);
+        for (int i = 0; i < size - 1; i++) os.loadSample(0);
+        assertEquals(1000, os.getValue(size - 1), 0);
+        os.loadSample(0);
+        assertEquals(0, os.getValue(size - 1), 0);
+    }
+
+
+    @Test
+    public void restartsAfterReset() {
+        final int size = 16;
+        final Random random = new Random(2);
+        final SlidingOrderStatistics os = new SlidingOrderStatistics(size);
+        final ArrayDeque<Float> window = new ArrayDeque<>();
+        for (int i = 0; i < 3 * size + 5; i++) os.loadSample((float) random.nextGaussian());
+        assertTrue(os.getLoaded());
+
+        os.reset();
+        assertEquals(0, os.getCount());
+        assertFalse(os.getLoaded());
+        assertEquals(0, os.getMedian(), 0);
+        assertEquals(0, os.getTrimmedMean(0.25f), 0);
+
+        // The window restarts empty: nothing of the samples before the reset remains
+        for (int i = 0; i < 3 * size; i++) {
+            load(os, window, size, 100 + (float) random.nextGaussian());
+            assertMatches(os, window);
+        }
+    }
+
+
+    private static void load(SlidingOrderStatistics os, ArrayDeque<Float> window, int size, float sample) {
+        os.loadSample(sample);
+        window.addLast(sample);
+        if (window.size() > size) window.removeFirst();
+    }
+
+
+    private static void assertMatches(SlidingOrderStatistics os, ArrayDeque<Float> window) {
+        final int n = window.size();
+        final float[] sorted = new float[n];
+        int j = 0;
+        for (float value : window) sorted[j++] = value;
+        Arrays.sort(sorted);
+
+        assertEquals(n, os.getCount());
+        for (int k = 0; k < n; k++) assertEquals("k = " + k, sorted[k], os.getValue(k), 0);
+
+        final float median = (n % 2 == 1) ? sorted[n / 2] : (sorted[n / 2 - 1] + sorted[n / 2]) / 2;
+        assertEquals(median, os.getMedian(), 0);
+
+        for (float trim : TRIMS) {
+            final int discarded = Math.min((int) (n * trim), (n - 1) / 2);
+            double sum = 0;
+            for (int k = discarded; k < n - discarded; k++) sum += sorted[k];
+            final double trimmedMean = sum / (n - 2 * discarded);
+            assertEquals("trim = " + trim, trimmedMean, os.getTrimmedMean(trim), 1e-5 * (1 + Math.abs(trimmedMean)));
+        }
+    }
+}
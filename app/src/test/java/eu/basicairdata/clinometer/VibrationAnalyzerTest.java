@@ -0,0 +1,86 @@
+package eu.basicairdata.clinometer;
+
+import android.hardware.Sensor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * The VibrationAnalyzer on synthetic sinusoids over the gravity: the peak bin, the frequency,
+ * the amplitude and the RMS, and the pass-through of the samples to the next listener.
+ */
+public class VibrationAnalyzerTest {
+
+    private static final float RATE = 200;                  // Hz
+    private static final float GRAVITY = 9.81f;
+
+
+    @Test
+    public void findsTheBinOfASinusoidOnABin() {
+        // 12.5 Hz is the bin 16 of 256 samples at 200 Hz
+        final VibrationAnalyzer.Result result = analyze(12.5f, 0.5f, VibrationAnalyzer.SIZE);
+        assertEquals(16, Math.round(result.getFrequency() * VibrationAnalyzer.SIZE / result.getSampleRate()));
+        assertEquals(12.5f, result.getFrequency(), 0.01f);
+        assertEquals(RATE, result.getSampleRate(), 0.01f);
+        assertEquals(0.5f, result.getAmplitude(), 0.01f);
+        assertEquals(0.5f / Math.sqrt(2), result.getRms(), 0.01f);
+    }
+
+
+    @Test
+    public void interpolatesAFrequencyBetweenTheBins() {
+        // 13.1 Hz is between the bins 16 and 17 (16.77)
+        final VibrationAnalyzer.Result result = analyze(13.1f, 0.2f, 4 * VibrationAnalyzer.SIZE);
+        assertEquals(17, Math.round(result.getFrequency() * VibrationAnalyzer.SIZE / result.getSampleRate()));
+        assertEquals(13.1f, result.getFrequency(), 0.1f);
+        assertEquals(0.2f, result.getAmplitude(), 0.2f * 0.1f);
+    }
+
+
+    @Test
+    public void passesAllTheSamplesWhenDisabled() {
+        final int[] received = { 0 };
+        final VibrationAnalyzer analyzer = new VibrationAnalyzer(new SensorDataListener() {
+            @Override
+            public void onSensorChanged(SensorData data) {}
+
+            @Override
+            public void onSensorBatch(int[] sensorTypes, long[] timestamps, float[] values, int count) {
+                received[0] += count;
+            }
+
+            @Override
+            public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+        });
+        load(analyzer, 10, 1, VibrationAnalyzer.SIZE);
+        assertEquals(VibrationAnalyzer.SIZE, received[0]);
+        assertNull(analyzer.getResult());
+    }
+
+
+    private static VibrationAnalyzer.Result analyze(float frequency, float amplitude, int samples) {
+        final VibrationAnalyzer analyzer = new VibrationAnalyzer(null);
+        analyzer.setEnabled(true);
+        load(analyzer, frequency, amplitude, samples);
+        return analyzer.getResult();
+    }
+
+
+    /**
+     * Loads a vibration along X, over the gravity along Z, one sample per batch as the sensor does.
+     */
+    private static void load(VibrationAnalyzer analyzer, float frequency, float amplitude, int samples) {
+        final int[] sensorTypes = { Sensor.TYPE_ACCELEROMETER };
+        final long[] timestamps = new long[1];
+        final float[] values = new float[3];
+        for (int i = 0; i < samples; i++) {
+            timestamps[0] = (long) (i * 1E9 / RATE);
+            values[0] = (float) (amplitude * Math.sin(2 * Math.PI * frequency * i / RATE));
+            values[1] = 0;
+            values[2] = GRAVITY;
+            analyzer.onSensorBatch(sensorTypes, timestamps, values, 1);
+        }
+    }
+}